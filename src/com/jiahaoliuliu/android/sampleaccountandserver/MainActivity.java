@@ -1,15 +1,26 @@
 package com.jiahaoliuliu.android.sampleaccountandserver;
 
+import java.io.File;
+
 import android.os.Bundle;
 import android.app.Activity;
 import android.view.Menu;
 
+import com.jiahaoliuliu.android.sampleaccountandserver.service.HttpResponseCache;
+
 public class MainActivity extends Activity {
 
+	/**
+	 * The maximum size of the responses of the server cached in disk.
+	 */
+	private static final long HTTP_CACHE_SIZE = 5 * 1024 * 1024;
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.activity_main);
+
+		HttpResponseCache.install(new File(getCacheDir(), "http"), HTTP_CACHE_SIZE);
 	}
 
 }
@@ -1,5 +1,7 @@
 package com.jiahaoliuliu.android.sampleaccountandserver.accountmanager;
 
+import java.io.IOException;
+
 import android.accounts.AbstractAccountAuthenticator;
 import android.accounts.Account;
 import android.accounts.AccountAuthenticatorResponse;
@@ -10,7 +12,11 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.util.Log;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.exception.AuthTokenUnavailableException;
+import com.jiahaoliuliu.android.sampleaccountandserver.util.AccountAuthTokenProvider;
+import com.jiahaoliuliu.android.sampleaccountandserver.util.AccountUtils;
+import com.jiahaoliuliu.android.sampleaccountandserver.util.Logger;
 
 /**
  * Authenticator service that returns a subclass of AbstractAccountAuthenticator in onBind().
@@ -42,7 +48,7 @@ public class AccountAuthenticatorService extends Service {
      */
     @Override
     public IBinder onBind(Intent intent) {
-        Log.v(AccountAuthenticatorService.LOG_TAG, "Binding the service");
+        Logger.v(AccountAuthenticatorService.LOG_TAG, "Binding the service");
         IBinder ret = null;
         if (intent.getAction().equals(android.accounts.AccountManager.ACTION_AUTHENTICATOR_INTENT)) {
             ret = getAuthenticator().getIBinder();
@@ -88,10 +94,10 @@ public class AccountAuthenticatorService extends Service {
                 String authTokenType,
                 String[] requiredFeatures,
                 Bundle options) throws NetworkErrorException {
-            Log.d(AccountAuthenticatorService.LOG_TAG, "Adding new account");
+            Logger.d(AccountAuthenticatorService.LOG_TAG, "Adding new account");
             Bundle reply = new Bundle();
 
-            Log.d(AccountAuthenticatorService.LOG_TAG, "The auth token type is " + authTokenType);
+            Logger.d(AccountAuthenticatorService.LOG_TAG, "The auth token type is {}", authTokenType);
             Intent i = new Intent(mContext, AddNewAccountActivity.class);
             i.setAction("com.gowex.pista.addnewaccount");
             i.putExtra(AccountManager.KEY_ACCOUNT_AUTHENTICATOR_RESPONSE, response);
@@ -112,10 +118,47 @@ public class AccountAuthenticatorService extends Service {
             return null;
         }
 
+        /**
+         * Gets a new auth token logging in with the password saved. It is called by the account
+         * manager when it has not cached any token of the account, in a thread which may block.
+         */
         @Override
-        public Bundle getAuthToken(AccountAuthenticatorResponse arg0, Account arg1,
-                String arg2, Bundle arg3) throws NetworkErrorException {
-            return null;
+        public Bundle getAuthToken(AccountAuthenticatorResponse response, Account account,
+                String authTokenType, Bundle options) throws NetworkErrorException {
+            Logger.d(AccountAuthenticatorService.LOG_TAG, "Getting the auth token of {}", account.name);
+            if (!AccountUtils.AUTH_TOKEN_TYPE.equals(authTokenType)) {
+                return error(AccountManager.ERROR_CODE_BAD_ARGUMENTS, "Invalid auth token type " + authTokenType);
+            }
+
+            String authToken;
+            try {
+                // The account manager gives it to the next requests without calling the authenticator
+                authToken = new AccountAuthTokenProvider(mContext, account.name).logIn();
+            } catch (AuthTokenUnavailableException e) {
+                return error(AccountManager.ERROR_CODE_BAD_REQUEST, e.getMessage());
+            } catch (IOException e) {
+                throw new NetworkErrorException("The login has failed", e);
+            }
+
+            Bundle result = new Bundle();
+            result.putString(AccountManager.KEY_ACCOUNT_NAME, account.name);
+            result.putString(AccountManager.KEY_ACCOUNT_TYPE, account.type);
+            result.putString(AccountManager.KEY_AUTHTOKEN, authToken);
+            return result;
+        }
+
+        /**
+         * Creates the result returned to the account manager when there is an error.
+         * @param errorCode The code of the error, one of the AccountManager.ERROR_CODE_*
+         * @param errorMessage The message of the error
+         * @return The result with the error
+         */
+        private static Bundle error(int errorCode, String errorMessage) {
+            Logger.w(AccountAuthenticatorService.LOG_TAG, errorMessage);
+            Bundle result = new Bundle();
+            result.putInt(AccountManager.KEY_ERROR_CODE, errorCode);
+            result.putString(AccountManager.KEY_ERROR_MESSAGE, errorMessage);
+            return result;
         }
 
         @Override
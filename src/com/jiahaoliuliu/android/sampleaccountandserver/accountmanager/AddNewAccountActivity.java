@@ -14,6 +14,7 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
 
+import com.jiahaoliuliu.android.sampleaccountandserver.util.AccountIndex;
 import com.jiahaoliuliu.android.sampleaccountandserver.util.AccountUtils;
 import com.jiahaoliuliu.android.sampleaccountandserver.util.SecurityUtils;
 import com.jiahaoliuliu.android.sampleaccountandserver.R;
@@ -139,6 +140,7 @@ public class AddNewAccountActivity extends Activity {
                 String encryptedPassword = SecurityUtils.encryptToHex(password);
                 boolean accountCreated = accountManager.addAccountExplicitly(newUserAccount, encryptedPassword, null);
                 if (accountCreated) {
+                    AccountIndex.instance(context).onAccountAdded(newUserAccount);
                     if (response != null) {
                         Bundle result = new Bundle();
                         result.putString(AccountManager.KEY_ACCOUNT_NAME, username);
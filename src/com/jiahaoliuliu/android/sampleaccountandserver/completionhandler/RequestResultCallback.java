@@ -0,0 +1,16 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.completionhandler;
+
+/**
+ * This class is used to implement the completion handler of the requests which
+ * return a typed result.
+ * @param <T> The type of the result
+ */
+public interface RequestResultCallback<T> {
+
+    /**
+     * Method called when the operation has been finished.
+     * @param result The result decoded from the response of the server
+     * @param error Indication of if any error happened or not
+     */
+    void done(final T result, final boolean error);
+}
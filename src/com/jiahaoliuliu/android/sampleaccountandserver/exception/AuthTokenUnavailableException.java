@@ -0,0 +1,22 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.exception;
+
+import java.io.IOException;
+
+/**
+ * The exception of the requests which have not been sent because there is not any auth token
+ * of the user, for example because the account does not exist. Sending them again would
+ * fail the same way, so they are never retried.
+ *
+ */
+public class AuthTokenUnavailableException extends IOException {
+
+    /**
+     * The default Serial version UID
+     */
+    private static final long serialVersionUID = 1L;
+
+    public AuthTokenUnavailableException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.exception;
+
+import java.io.IOException;
+
+/**
+ * The exception of the requests which have not been sent because the circuit breaker of the
+ * host is open: the last requests to the host have failed and it is given time to recover.
+ *
+ */
+public class CircuitBreakerOpenException extends IOException {
+
+    /**
+     * The default Serial version UID
+     */
+    private static final long serialVersionUID = 1L;
+
+    public CircuitBreakerOpenException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.exception;
+
+/**
+ * The customized exception of the requests to the server
+ *
+ */
+public class RequestException extends Exception {
+
+    /**
+     * The default Serial version UID
+     */
+    private static final long serialVersionUID = 1L;
+
+    public RequestException(String message) {
+        super(message);
+    }
+
+    public RequestException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -1,47 +1,89 @@
 package com.jiahaoliuliu.android.sampleaccountandserver.model;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.json.JSONObject;
 
 import android.content.Context;
 
 import com.jiahaoliuliu.android.sampleaccountandserver.completionhandler.Callback;
 import com.jiahaoliuliu.android.sampleaccountandserver.completionhandler.RequestJSONCallback;
+import com.jiahaoliuliu.android.sampleaccountandserver.completionhandler.RequestResultCallback;
 import com.jiahaoliuliu.android.sampleaccountandserver.exception.SessionException;
+import com.jiahaoliuliu.android.sampleaccountandserver.service.MainThreadExecutor;
+import com.jiahaoliuliu.android.sampleaccountandserver.service.RequestFuture;
+import com.jiahaoliuliu.android.sampleaccountandserver.service.RequestScheduler;
 import com.jiahaoliuliu.android.sampleaccountandserver.service.Service;
+import com.jiahaoliuliu.android.sampleaccountandserver.util.AccountAuthTokenProvider;
 import com.jiahaoliuliu.android.sampleaccountandserver.util.AccountUtils;
+import com.jiahaoliuliu.android.sampleaccountandserver.util.CredentialCache;
+import com.jiahaoliuliu.android.sampleaccountandserver.util.Logger;
 import com.jiahaoliuliu.android.sampleaccountandserver.util.Preferences;
+import com.jiahaoliuliu.android.sampleaccountandserver.util.TokenManager;
 
 /**
  * The Session class models a user's session. It is the intermediate level between Controllers and Service.
+ * A session is immutable: the login and the logout replace the current session instead of
+ * modifying it, so it can be read from any thread without locks. The changes of the sessions,
+ * like the login, the logout or creating the session from the saved one, are serialized by
+ * SESSIONS_LOCK, so the saved session, the current one and the ones registered always agree.
+ * Several users can be logged in at the same time. Each one has its own session, with its own
+ * service and scheduler, and the current session is the one of the active user.
  */
 public final class Session {
 
     private static final String LOG_TAG = Session.class.getSimpleName();
 
-    private Service service;
+    /**
+     * The number of the threads which run the requests of each user.
+     */
+    private static final int NUM_RUNNING_THREAD_PER_USER = 2;
+
+    private final SessionState state;
 
-    private Preferences preferences;
+    private final Service service;
 
-    private static Session currentSession = null;
+    private final Preferences preferences;
 
     /**
-     * The constructor of the session.
-     * Because it is a singleton, there is not parameters for the constructors and it's private
+     * The manager of the auth token attached to the requests of the service.
      */
-    private Session() {}
+    private final TokenManager tokenManager;
 
     /**
-     * SingletonHolder is loaded on the first execution of Singleton.getInstance() or the first access to
-     * SingletonHolder.INSTANCE, not before.
+     * The current session. It is null until the user logs in or the saved session is read.
      */
-    private static class SingletonHolder {
-        private static final Session INSTANCE = new Session();
-    }
+    private static final AtomicReference<Session> CURRENT_SESSION = new AtomicReference<Session>();
 
-    // It is synchronized to avoid problems with multithreading
-    // Once get, it must initialize the service and the preferences based on the context
-    private static synchronized Session getInstance() {
-        return SingletonHolder.INSTANCE;
+    /**
+     * The sessions of the users logged in, by user name in lower case.
+     */
+    private static final ConcurrentMap<String, Session> SESSIONS = new ConcurrentHashMap<String, Session>();
+
+    /**
+     * The lock which serializes the changes of the saved session, the current session and the
+     * sessions registered. The readers of the current session do not take it.
+     */
+    private static final Object SESSIONS_LOCK = new Object();
+
+    /**
+     * The constructor of the session.
+     * It is private because the sessions are only created by the login or from the saved session
+     * @param state The state of the session
+     * @param service The service of the user of the session
+     * @param preferences The preferences of the session
+     * @param tokenManager The manager of the auth token of the user
+     */
+    private Session(SessionState state, Service service, Preferences preferences, TokenManager tokenManager) {
+        this.state = state;
+        this.service = service;
+        this.preferences = preferences;
+        this.tokenManager = tokenManager;
     }
 
     // To avoid clone problem
@@ -60,19 +102,27 @@ public final class Session {
     public static void signUp(final Context context, final String username,
     		final String password, final Callback callback) {
 
-        Service service = new Service(username);
+        final Service service = new Service(username);
+        final Preferences preferences = SessionStore.instance(context).getPreferences();
+
+        // The login is sent as soon as the sign up finishes, without going through the main thread
+        service.signUpAsync(username, password)
+            .thenCompose(new RequestFuture.AsyncTransformation<byte[], JSONObject>() {
+                @Override
+                public RequestFuture<JSONObject> apply(byte[] data) {
+                    return service.logInAsync(username, password);
+                }
+            })
+            .addCallback(new RequestResultCallback<JSONObject>() {
+                @Override
+                public void done(JSONObject jsonObject, boolean error) {
+                    if (!error) {
+                        Session.onLoggedIn(context, service, preferences, username, password, jsonObject);
+                    }
 
-        service.signUp(username, password, new Callback() {
-            @Override
-            public void done(final boolean error) {
-                // If there is not error, the method login will call callback
-                if (!error) {
-                    Session.logIn(context, username, password, callback);
-                } else {
                     callback.done(error);
                 }
-            }
-        });
+            }, MainThreadExecutor.instance());
     }
 
     /**
@@ -87,25 +137,13 @@ public final class Session {
             final String password, final Callback callback) {
 
         final Service service = new Service(username);
-        // The preferences is here to avoid to be used statically
-        final Preferences preferences = new Preferences(context);
+        final Preferences preferences = SessionStore.instance(context).getPreferences();
 
         service.logIn(username, password, new RequestJSONCallback() {
             @Override
             public void done(JSONObject jsonObject, boolean error) {
                 if (!error) {
-                    /*
-                     * Creates an instance of the current session.
-                     */
-                    Session session = Session.getInstance();
-                    session.setService(service);
-                    session.setPreferences(preferences);
-
-                    /*
-                     * Save the current session
-                     */
-                    Session.setCurrentSession(session);
-                    Session.currentSession.saveAsCurrentSession(context, username, password);
+                    Session.onLoggedIn(context, service, preferences, username, password, jsonObject);
                 }
 
                 callback.done(error);
@@ -114,18 +152,139 @@ public final class Session {
     }
 
     /**
-     * Save the session in a persistent way.
-     * @param context  The context utilized to get the data
-     * @param username The name of the verified user
-     * @param password The password of the verified user
+     * Creates and saves the current session once the user has logged in.
+     * The service used for the login is not kept: the session of the user has its own one.
+     * @param context     The context utilized
+     * @param service     The service used for the login
+     * @param preferences The preferences of the session
+     * @param username    The name of the verified user
+     * @param password    The password of the verified user
+     * @param logInResponse The JSON object returned by the login
      */
-    private void saveAsCurrentSession(Context context, String username, String password) {
-        // Save the user name
-        preferences.setUserName(username);
-
-        // Save the password
+    private static void onLoggedIn(Context context, Service service, Preferences preferences,
+            String username, String password, JSONObject logInResponse) {
         AccountUtils.setPasswordByUserName(context, username, password);
 
+        /*
+         * Save the auth token, so the next requests do not need to log in again
+         */
+        String authToken = Service.getAuthToken(logInResponse);
+        if (authToken != null) {
+            AccountUtils.setAuthTokenByUserName(context, username, authToken,
+                    Service.getAuthTokenExpirationTime(logInResponse));
+        }
+
+        synchronized (SESSIONS_LOCK) {
+            /*
+             * Save the session in a persistent way. The user name and the time of the login
+             * are written in background
+             */
+            SessionState state = SessionStore.instance(context).logIn(username);
+
+            /*
+             * Creates an instance of the session and makes it the current one
+             */
+            Session session = Session.register(context, state, preferences);
+            session.tokenManager.clear();
+            Session.setCurrentSession(session);
+        }
+        Logger.d(LOG_TAG, "User {} logged in", username);
+    }
+
+    /**
+     * Makes the session of another user logged in the current one.
+     * @param context  The context utilized
+     * @param username The name of the user
+     * @return true if the user was logged in
+     *         false otherwise
+     */
+    public static boolean switchTo(Context context, String username) {
+        synchronized (SESSIONS_LOCK) {
+            Session session = SESSIONS.get(toKey(username));
+            if (session == null) {
+                return false;
+            }
+
+            SessionStore.instance(context).save(session.state);
+            Session.setCurrentSession(session);
+        }
+        Logger.d(LOG_TAG, "Switched to the session of {}", username);
+        return true;
+    }
+
+    /**
+     * Log out the user of the current session.
+     * The saved session is removed, but the user account and its password are kept.
+     * If other users are logged in, one of them becomes the current one.
+     * @param context The context utilized
+     */
+    public static void logOut(Context context) {
+        synchronized (SESSIONS_LOCK) {
+            SessionState state = SessionStore.instance(context).getState();
+            if (state.hasUser()) {
+                Session.logOut(context, state.getUsername());
+            } else {
+                Session.setCurrentSession(null);
+            }
+        }
+    }
+
+    /**
+     * Log out a user. The pending requests of the user are cancelled.
+     * The user account and its password are kept.
+     * The session stops being the current one and the saved one before it is removed, so it
+     * is never returned once its requests have been cancelled, and it cannot be registered again.
+     * @param context  The context utilized
+     * @param username The name of the user
+     */
+    public static void logOut(Context context, String username) {
+        String key = toKey(username);
+        Session session;
+        synchronized (SESSIONS_LOCK) {
+            SessionStore sessionStore = SessionStore.instance(context);
+            Session current = CURRENT_SESSION.get();
+            if (toKey(sessionStore.getState().getUsername()).equals(key)
+                    || (current != null && toKey(current.state.getUsername()).equals(key))) {
+                // It is the current user. Another user logged in becomes the current one, if there is any
+                Session another = null;
+                for (Session registered : SESSIONS.values()) {
+                    if (!toKey(registered.state.getUsername()).equals(key)) {
+                        another = registered;
+                        break;
+                    }
+                }
+
+                if (another != null) {
+                    sessionStore.save(another.state);
+                } else {
+                    sessionStore.logOut();
+                }
+                Session.setCurrentSession(another);
+            }
+
+            session = SESSIONS.remove(key);
+        }
+
+        if (session != null) {
+            session.service.getRequestScheduler().shutdownNow();
+            session.tokenManager.stop();
+        }
+
+        // The password is not needed in memory anymore
+        CredentialCache.instance().invalidate(username);
+        Logger.d(LOG_TAG, "User {} logged out", username);
+    }
+
+    /**
+     * Gets the names of the users logged in.
+     * @return The user names. It is a copy
+     */
+    public static List<String> getUsernames() {
+        List<String> usernames = new ArrayList<String>();
+        for (Session session : SESSIONS.values()) {
+            usernames.add(session.state.getUsername());
+        }
+        return usernames;
     }
 
     /**
@@ -135,16 +294,15 @@ public final class Session {
      *         false otherwise
      */
     public static boolean isSavedSessionExists(Context context) {
-        Preferences preferences = new Preferences(context);
+        SessionState state = SessionStore.instance(context).getState();
 
-        // Check if the user name exists in the Shared preferences
-        String username = preferences.getUsername();
-        if (username == null || username.equals(Preferences.DEFAULT_USERNAME)) {
+        // Check if the user name has been saved
+        if (!state.hasUser()) {
             return false;
         }
 
         // Check if the user account exists
-        if (AccountUtils.getUserAccount(context, username) == null) {
+        if (AccountUtils.getUserAccount(context, state.getUsername()) == null) {
         	return false;
         }
 
@@ -153,22 +311,32 @@ public final class Session {
 
     /**
      * Get the current session.
+     * It only blocks when there is not any current session yet, while it is created from the
+     * saved one. So a user who is logging out at the same time is never registered again.
      * @param context The context utilized to retrieve the data
      * @return The current session
      * @throws SessionException if some data is missing
      */
-    public static synchronized Session getCurrentSession(Context context) throws SessionException {
-        if (Session.currentSession == null) {
-            Session.currentSession = Session.sessionFromCurrentSession(context);
+    public static Session getCurrentSession(Context context) throws SessionException {
+        Session session = CURRENT_SESSION.get();
+        if (session != null) {
+            return session;
         }
 
-        return Session.currentSession;
+        synchronized (SESSIONS_LOCK) {
+            session = CURRENT_SESSION.get();
+            if (session == null) {
+                session = Session.sessionFromCurrentSession(context);
+                Session.setCurrentSession(session);
+            }
+            return session;
+        }
     }
 
     /**
      * Creates a new session from the data saved in the persistent data storage.
      * It might return null. Use the method existSavedSession to check if
-     * the session saved exists
+     * the session saved exists. It must be called holding SESSIONS_LOCK
      * Precondition: The user name exists in the Shared preferences and the user
      *  account exists.
      * @param context The context utilized.
@@ -176,56 +344,78 @@ public final class Session {
      * @throws SessionException if some data is missing
      */
     private static Session sessionFromCurrentSession(Context context) throws SessionException {
-        Preferences preferences = new Preferences(context);
+        SessionStore sessionStore = SessionStore.instance(context);
 
         // Get the user name
-        String username = preferences.getUsername();
-        if (username == null || username.equals(Preferences.DEFAULT_USERNAME)) {
+        SessionState state = sessionStore.getState();
+        if (!state.hasUser()) {
             throw new SessionException("Error getting the session from the current one. " +
             "The previous session doesn't exsit");
         }
 
-        Service newService = new Service(username);
-        Session newSession = Session.getInstance();
-        newSession.setService(newService);
-        newSession.setPreferences(preferences);
+        return Session.register(context, state, sessionStore.getPreferences());
+    }
+
+    /**
+     * Registers the session of a user who has logged in. If the user was already logged in,
+     * the new session keeps the service and the auth token of the previous one.
+     * It must be called holding SESSIONS_LOCK.
+     * @param context The context utilized
+     * @param state The state of the session
+     * @param preferences The preferences of the session
+     * @return The session registered
+     */
+    private static Session register(Context context, SessionState state, Preferences preferences) {
+        String key = toKey(state.getUsername());
+        Session registered = SESSIONS.get(key);
+        Session session;
+        if (registered != null) {
+            session = new Session(state, registered.service, preferences, registered.tokenManager);
+        } else {
+            RequestScheduler requestScheduler = new RequestScheduler(NUM_RUNNING_THREAD_PER_USER,
+                    RequestScheduler.DEFAULT_QUEUE_CAPACITY, RequestScheduler.RejectionPolicy.ABORT);
+            TokenManager tokenManager = new TokenManager(
+                    new AccountAuthTokenProvider(context, state.getUsername()));
+            Service service = new Service(state.getUsername(), requestScheduler, tokenManager);
+            session = new Session(state, service, preferences, tokenManager);
+        }
+        SESSIONS.put(key, session);
+        return session;
+    }
 
-        return newSession;
+    /**
+     * Gets the key of the user in the sessions. The user names are not case sensitive.
+     * @param username The user name
+     * @return The key of the user
+     */
+    private static String toKey(String username) {
+        return username.toLowerCase(Locale.US);
     }
 
     // Getters & setters
 
-    private static synchronized void setCurrentSession(Session session) {
-        Session.currentSession = session;
+    /**
+     * Replaces the current session.
+     * @param session The new current session, or null if there is not any
+     */
+    private static void setCurrentSession(Session session) {
+        CURRENT_SESSION.set(session);
     }
 
-    /*
-    private Service getService() {
-        return service;
-    }*/
-
     /**
-     * Set the service as the service utilized for the sessions
-     * This is private to prevent other to set the service
-     * The service won't be set until the user has logged in.
-     * @param service The service to set.
+     * Get the service of the user. Its requests carry the auth token of the user.
+     * @return The service of the session
      */
-    private void setService(Service service) {
-        this.service = service;
+    public Service getService() {
+        return service;
     }
 
     public Preferences getPreferences() {
        return preferences;
     }
 
-    /**
-     * Set the preferences as the preferences utilized for the session.
-     * This is private to prevent other ot set the preferences from outside
-     * The preferences won't be set until the user has logged in.
-     * @param preferences The preferences to set.
-     */
-    private void setPreferences(Preferences preferences) {
-        this.preferences = preferences;
+    public String getUsername() {
+        return state.getUsername();
     }
 
 }
\ No newline at end of file
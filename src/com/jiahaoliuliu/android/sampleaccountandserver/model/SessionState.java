@@ -0,0 +1,66 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.model;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.util.Preferences;
+
+/**
+ * The SessionState class is a snapshot of the data of the saved session.
+ * It is immutable, so it can be read from any thread.
+ */
+public final class SessionState {
+
+    /**
+     * The state when there is not any saved session.
+     */
+    public static final SessionState EMPTY = new SessionState(Preferences.DEFAULT_USERNAME,
+            Preferences.DEFAULT_LAST_LOGIN_TIME);
+
+    /**
+     * The name of the user of the session.
+     */
+    private final String username;
+
+    /**
+     * The time of the last login, in milliseconds since the epoch.
+     */
+    private final long lastLoginTime;
+
+    /**
+     * The main constructor.
+     * @param username The name of the user of the session
+     * @param lastLoginTime The time of the last login, in milliseconds since the epoch
+     */
+    public SessionState(String username, long lastLoginTime) {
+        this.username = username;
+        this.lastLoginTime = lastLoginTime;
+    }
+
+    /**
+     * Tells if the state belongs to a session.
+     * @return true if there is a user name
+     *         false otherwise
+     */
+    public boolean hasUser() {
+        return username != null && !username.equals(Preferences.DEFAULT_USERNAME);
+    }
+
+    /**
+     * Gets the name of the user of the session.
+     * @return The user name, or "" if there is not any session
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Gets the time of the last login.
+     * @return The time of the last login, in milliseconds since the epoch
+     */
+    public long getLastLoginTime() {
+        return lastLoginTime;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionState [username=" + username + ", lastLoginTime=" + lastLoginTime + "]";
+    }
+}
@@ -0,0 +1,103 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.model;
+
+import android.content.Context;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.util.Preferences;
+
+/**
+ * The SessionStore class keeps the data of the saved session in memory.
+ * The data is read from the preferences the first time it is needed. Then the
+ * callers get snapshots of it, and the login and the logout replace it.
+ */
+public final class SessionStore {
+
+    /**
+     * The instance of the class. It is created the first time it is needed.
+     */
+    private static SessionStore sSessionStore = null;
+
+    /**
+     * The preferences where the session is saved.
+     */
+    private final Preferences preferences;
+
+    /**
+     * The current state of the session. It is null until it is read from the preferences.
+     */
+    private volatile SessionState state = null;
+
+    /**
+     * The main constructor.
+     * @param context The context of the application
+     */
+    private SessionStore(Context context) {
+        preferences = new Preferences(context);
+    }
+
+    /**
+     * The public method to return the instance.
+     * @param context The context used
+     * @return The store of the session
+     */
+    public static synchronized SessionStore instance(Context context) {
+        if (SessionStore.sSessionStore == null) {
+            SessionStore.sSessionStore = new SessionStore(context.getApplicationContext());
+        }
+
+        return SessionStore.sSessionStore;
+    }
+
+    /**
+     * Gets the state of the session, reading it from the preferences the first time.
+     * @return The snapshot of the state. It is never null
+     */
+    public SessionState getState() {
+        SessionState currentState = state;
+        if (currentState == null) {
+            synchronized (this) {
+                currentState = state;
+                if (currentState == null) {
+                    currentState = new SessionState(preferences.getUsername(), preferences.getLastLoginTime());
+                    state = currentState;
+                }
+            }
+        }
+        return currentState;
+    }
+
+    /**
+     * Saves the session of the user who has just logged in.
+     * @param username The name of the user
+     * @return The new state of the session
+     */
+    public SessionState logIn(String username) {
+        SessionState newState = new SessionState(username, System.currentTimeMillis());
+        save(newState);
+        return newState;
+    }
+
+    /**
+     * Saves the state of the session, replacing the previous one.
+     * @param newState The state of the session
+     */
+    public synchronized void save(SessionState newState) {
+        preferences.setSession(newState.getUsername(), newState.getLastLoginTime());
+        state = newState;
+    }
+
+    /**
+     * Removes the saved session.
+     */
+    public synchronized void logOut() {
+        preferences.clear();
+        state = SessionState.EMPTY;
+    }
+
+    /**
+     * Gets the preferences where the session is saved.
+     * @return The preferences of the session
+     */
+    Preferences getPreferences() {
+        return preferences;
+    }
+}
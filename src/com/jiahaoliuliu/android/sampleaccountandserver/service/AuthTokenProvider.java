@@ -0,0 +1,30 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.io.IOException;
+
+/**
+ * The interface implemented by the classes which give the auth token of a user to the requests.
+ * The token is attached to the requests in the threads of the scheduler, so getting it may block.
+ */
+public interface AuthTokenProvider {
+
+    /**
+     * Gets the name of the account whose token is given. The requests of different
+     * accounts are never joined.
+     * @return The name of the account
+     */
+    String getAccountName();
+
+    /**
+     * Gets the auth token of the user. It is never called from the main thread.
+     * @return The auth token
+     * @throws IOException if the auth token could not be obtained
+     */
+    String getAuthToken() throws IOException;
+
+    /**
+     * Informs that the server has not accepted the auth token, so it must not be given again.
+     * @param authToken The auth token rejected
+     */
+    void invalidateAuthToken(String authToken);
+}
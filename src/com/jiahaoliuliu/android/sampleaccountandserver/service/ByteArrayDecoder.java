@@ -0,0 +1,51 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The decoder which returns the content of the response as it is.
+ */
+public class ByteArrayDecoder implements ResponseDecoder<byte[]> {
+
+    /**
+     * The size of the buffer used to read the content.
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    @Override
+    public byte[] decode(InputStream inputStream, String charset, long contentLength) throws IOException {
+        if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+            return readFully(inputStream, (int) contentLength);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads a content which length is known, without intermediate copies.
+     * @param inputStream The stream of the content
+     * @param length The length of the content
+     * @return The content read
+     * @throws IOException if the stream ends before the length given
+     */
+    private static byte[] readFully(InputStream inputStream, int length) throws IOException {
+        byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = inputStream.read(data, offset, length - offset);
+            if (read == -1) {
+                throw new IOException("Content shorter than its length " + length);
+            }
+            offset += read;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,490 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import android.os.SystemClock;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.util.Logger;
+
+/**
+ * The circuit breaker of the requests to a host. When most of the recent requests to the host
+ * have failed or have been too slow, the circuit opens and the requests fail at once without
+ * using any connection or any thread waiting for the timeouts. After a while a single request
+ * is let through to probe the host: if it succeeds, the circuit closes again.
+ * <ul>
+ * <li>CLOSED: the requests are sent. The results are counted in a rolling window.</li>
+ * <li>OPEN: the requests fail at once, until the open time has passed.</li>
+ * <li>HALF_OPEN: one request is sent to probe the host. The others fail at once.</li>
+ * </ul>
+ * Each request allowed gets a ticket, which it passes back with its result. So only the
+ * result of the probe closes or opens the circuit again, not the results of the requests
+ * which were let through before it opened.
+ */
+public final class CircuitBreaker {
+
+    /**
+     * The tag used for log
+     */
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    /**
+     * The states of the circuit.
+     */
+    public enum State {
+        /**
+         * The requests are sent.
+         */
+        CLOSED,
+        /**
+         * The requests fail at once.
+         */
+        OPEN,
+        /**
+         * One request is sent to probe the host.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * The number of buckets of the rolling window.
+     */
+    private static final int NUMBER_OF_BUCKETS = 10;
+
+    /**
+     * The time covered by each bucket, in milliseconds. The window covers the last 30 seconds.
+     */
+    private static final long BUCKET_DURATION = 3 * 1000;
+
+    /**
+     * The minimum number of requests in the window before the circuit can open. With fewer
+     * requests a couple of failures would open it.
+     */
+    private static final int MIN_REQUESTS = 10;
+
+    /**
+     * The percentage of failed requests in the window which opens the circuit.
+     */
+    private static final int FAILURE_RATE_THRESHOLD = 50;
+
+    /**
+     * The percentage of slow requests in the window which opens the circuit.
+     */
+    private static final int SLOW_RATE_THRESHOLD = 80;
+
+    /**
+     * The time from sending a request until the response arrives above which the request is
+     * slow, in nanoseconds.
+     */
+    private static final long SLOW_REQUEST_THRESHOLD = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * The time the circuit stays open before probing the host, in milliseconds.
+     */
+    private static final long OPEN_DURATION = 15 * 1000;
+
+    /**
+     * The ticket returned when the request must fail at once.
+     */
+    public static final long REJECTED = -1;
+
+    /**
+     * The ticket of the requests which are not probes.
+     */
+    private static final long REGULAR_REQUEST = 0;
+
+    /**
+     * The circuit breakers of all the hosts, indexed by the host.
+     */
+    private static final ConcurrentMap<String, CircuitBreaker> CIRCUIT_BREAKERS =
+            new ConcurrentHashMap<String, CircuitBreaker>();
+
+    /**
+     * The host protected by the circuit breaker.
+     */
+    private final String host;
+
+    /**
+     * The time the circuit stays open before probing the host, in milliseconds.
+     */
+    private final long openDuration;
+
+    /**
+     * The buckets of the rolling window. Guarded by this.
+     */
+    private final Bucket[] buckets = new Bucket[NUMBER_OF_BUCKETS];
+
+    /**
+     * The current state. Guarded by this.
+     */
+    private State state = State.CLOSED;
+
+    /**
+     * The time when the circuit opened, in milliseconds of SystemClock.elapsedRealtime.
+     * Guarded by this.
+     */
+    private long openedAt;
+
+    /**
+     * The time when the probe was sent, in milliseconds of SystemClock.elapsedRealtime,
+     * or 0 if there is not any probe in progress. Guarded by this.
+     */
+    private long probeSentAt = 0;
+
+    /**
+     * The ticket of the last probe sent. Guarded by this.
+     */
+    private long probeTicket = REGULAR_REQUEST;
+
+    /**
+     * The number of requests in the window, added by sumWindow. Guarded by this.
+     */
+    private int windowRequests;
+
+    /**
+     * The number of failed requests in the window, added by sumWindow. Guarded by this.
+     */
+    private int windowFailures;
+
+    /**
+     * The number of slow requests in the window, added by sumWindow. Guarded by this.
+     */
+    private int windowSlowRequests;
+
+    /**
+     * The number of times the circuit has opened. Guarded by this.
+     */
+    private long openCount = 0;
+
+    /**
+     * The number of requests which have failed at once because the circuit was open.
+     * Guarded by this.
+     */
+    private long rejectedCount = 0;
+
+    /**
+     * The constructor of the class. The circuit breakers are obtained with forHost.
+     * @param host The host protected by the circuit breaker
+     * @param openDuration The time the circuit stays open before probing the host, in milliseconds
+     */
+    CircuitBreaker(String host, long openDuration) {
+        this.host = host;
+        this.openDuration = openDuration;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Gets the circuit breaker of a host, creating it if it does not exist.
+     * @param host The host
+     * @return The circuit breaker of the host
+     */
+    public static CircuitBreaker forHost(String host) {
+        if (host == null) {
+            host = "";
+        }
+        CircuitBreaker circuitBreaker = CIRCUIT_BREAKERS.get(host);
+        if (circuitBreaker == null) {
+            CircuitBreaker newCircuitBreaker = new CircuitBreaker(host, OPEN_DURATION);
+            circuitBreaker = CIRCUIT_BREAKERS.putIfAbsent(host, newCircuitBreaker);
+            if (circuitBreaker == null) {
+                circuitBreaker = newCircuitBreaker;
+            }
+        }
+        return circuitBreaker;
+    }
+
+    /**
+     * Forgets the circuit breakers of all the hosts, so the next requests find them closed.
+     * It is used by the tests, which send many failed requests to the same local host.
+     */
+    static void clear() {
+        CIRCUIT_BREAKERS.clear();
+    }
+
+    /**
+     * Gets the circuit breakers of all the hosts which have been used.
+     * @return The circuit breakers
+     */
+    public static Collection<CircuitBreaker> getCircuitBreakers() {
+        return new ArrayList<CircuitBreaker>(CIRCUIT_BREAKERS.values());
+    }
+
+    /**
+     * Decides if a request to the host can be sent. The result of every request allowed must be
+     * recorded with its ticket, or the request must be released if it is not sent. Otherwise,
+     * if the request is the probe of the host, the circuit would wait for it until the open
+     * time passes again.
+     * @return The ticket of the request, which identifies the probes.
+     *         REJECTED if it must fail at once
+     */
+    public synchronized long allowRequest() {
+        long now = SystemClock.elapsedRealtime();
+        switch (state) {
+        case CLOSED:
+            return REGULAR_REQUEST;
+        case OPEN:
+            if (now - openedAt < openDuration) {
+                rejectedCount++;
+                return REJECTED;
+            }
+            setState(State.HALF_OPEN);
+            return sendProbe(now);
+        default:
+            // Only one probe at a time. If its result has never been recorded, another one is sent
+            if (probeSentAt != 0 && now - probeSentAt < openDuration) {
+                rejectedCount++;
+                return REJECTED;
+            }
+            return sendProbe(now);
+        }
+    }
+
+    /**
+     * Records a request to the host which has been answered.
+     * @param ticket The ticket returned by allowRequest
+     * @param durationNanos The time from sending the request until the response arrived
+     */
+    public synchronized void onSuccess(long ticket, long durationNanos) {
+        if (state == State.HALF_OPEN && ticket == probeTicket) {
+            // The host is back. The results of before are not relevant anymore
+            clearWindow();
+            setState(State.CLOSED);
+        }
+        record(false, durationNanos);
+    }
+
+    /**
+     * Records a request to the host which has failed, because it could not connect, it did not
+     * answer in time or it answered with a server error.
+     * @param ticket The ticket returned by allowRequest
+     * @param durationNanos The time from sending the request until it failed
+     */
+    public synchronized void onFailure(long ticket, long durationNanos) {
+        if (state == State.HALF_OPEN && ticket == probeTicket) {
+            open();
+            return;
+        }
+        record(true, durationNanos);
+    }
+
+    /**
+     * Releases a request which has been allowed but whose result is not known, because it
+     * has been cancelled or it has not been sent. If it is the probe, another one can be sent.
+     * @param ticket The ticket returned by allowRequest
+     */
+    public synchronized void release(long ticket) {
+        if (state == State.HALF_OPEN && ticket == probeTicket) {
+            probeSentAt = 0;
+        }
+    }
+
+    /**
+     * Gets the host protected by the circuit breaker.
+     * @return The host
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Gets the current state of the circuit.
+     * @return The state
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Gets the number of times the circuit has opened.
+     * @return The number of times
+     */
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    /**
+     * Gets the number of requests which have failed at once because the circuit was open.
+     * @return The number of requests
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        sumWindow();
+        return host + ": state=" + state + " requests=" + windowRequests + " failures=" + windowFailures
+                + " slow=" + windowSlowRequests + " opened=" + openCount + " rejected=" + rejectedCount;
+    }
+
+    /**
+     * Sends a new probe of the host. It must be called holding the lock.
+     * @param now The current time, in milliseconds of SystemClock.elapsedRealtime
+     * @return The ticket of the probe
+     */
+    private long sendProbe(long now) {
+        probeSentAt = now;
+        probeTicket++;
+        return probeTicket;
+    }
+
+    /**
+     * Records the result of a request in the window, while the circuit is closed. The results
+     * of the requests which are not probes do not change the state when it is not closed.
+     * It must be called holding the lock.
+     * @param failed True if the request has failed
+     * @param durationNanos The time from sending the request until it finished
+     */
+    private void record(boolean failed, long durationNanos) {
+        if (state != State.CLOSED) {
+            return;
+        }
+        currentBucket().record(failed, durationNanos >= SLOW_REQUEST_THRESHOLD);
+        checkThresholds();
+    }
+
+    /**
+     * Opens the circuit if there are enough requests in the window and too many of them have
+     * failed or have been slow. It must be called holding the lock.
+     */
+    private void checkThresholds() {
+        sumWindow();
+        if (windowRequests >= MIN_REQUESTS
+                && (windowFailures * 100 >= windowRequests * FAILURE_RATE_THRESHOLD
+                        || windowSlowRequests * 100 >= windowRequests * SLOW_RATE_THRESHOLD)) {
+            open();
+        }
+    }
+
+    /**
+     * Adds the results of all the buckets inside the window into the totals of the window,
+     * without creating any object. It must be called holding the lock.
+     */
+    private void sumWindow() {
+        windowRequests = 0;
+        windowFailures = 0;
+        windowSlowRequests = 0;
+        long now = SystemClock.elapsedRealtime();
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            Bucket bucket = buckets[i];
+            if (bucket.isInWindow(now)) {
+                windowRequests += bucket.requests;
+                windowFailures += bucket.failures;
+                windowSlowRequests += bucket.slowRequests;
+            }
+        }
+    }
+
+    /**
+     * Opens the circuit. It must be called holding the lock.
+     */
+    private void open() {
+        openedAt = SystemClock.elapsedRealtime();
+        probeSentAt = 0;
+        openCount++;
+        setState(State.OPEN);
+    }
+
+    /**
+     * Changes the state. It must be called holding the lock.
+     * @param newState The new state
+     */
+    private void setState(State newState) {
+        if (state != newState) {
+            Logger.w(LOG_TAG, "The circuit of {} goes to {}", host, newState);
+            state = newState;
+        }
+    }
+
+    /**
+     * Gets the bucket of the current time, emptying it if it belonged to a previous round of
+     * the window. It must be called holding the lock.
+     * @return The bucket
+     */
+    private Bucket currentBucket() {
+        long now = SystemClock.elapsedRealtime();
+        long start = now - now % BUCKET_DURATION;
+        Bucket bucket = buckets[(int) ((now / BUCKET_DURATION) % NUMBER_OF_BUCKETS)];
+        if (bucket.start != start) {
+            bucket.reset(start);
+        }
+        return bucket;
+    }
+
+    /**
+     * Empties all the buckets of the window. It must be called holding the lock.
+     */
+    private void clearWindow() {
+        for (Bucket bucket : buckets) {
+            bucket.reset(-1);
+        }
+    }
+
+    /**
+     * The results of the requests during a period of the rolling window.
+     */
+    private static final class Bucket {
+
+        /**
+         * The start of the period, in milliseconds of SystemClock.elapsedRealtime, or -1 if
+         * the bucket is empty.
+         */
+        private long start = -1;
+
+        /**
+         * The number of requests recorded.
+         */
+        private int requests;
+
+        /**
+         * The number of requests which have failed.
+         */
+        private int failures;
+
+        /**
+         * The number of requests which have been slow.
+         */
+        private int slowRequests;
+
+        /**
+         * Records the result of a request.
+         * @param failed True if the request has failed
+         * @param slow True if the request has been slow
+         */
+        private void record(boolean failed, boolean slow) {
+            requests++;
+            if (failed) {
+                failures++;
+            }
+            if (slow) {
+                slowRequests++;
+            }
+        }
+
+        /**
+         * Empties the bucket.
+         * @param newStart The start of the new period
+         */
+        private void reset(long newStart) {
+            start = newStart;
+            requests = 0;
+            failures = 0;
+            slowRequests = 0;
+        }
+
+        /**
+         * Tells if the period of the bucket is inside the window.
+         * @param now The current time, in milliseconds of SystemClock.elapsedRealtime
+         * @return True if the bucket has results of the window.
+         *         False if it is empty or its results are too old
+         */
+        private boolean isInWindow(long now) {
+            return start != -1 && now - start < NUMBER_OF_BUCKETS * BUCKET_DURATION;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * The entity which decompresses the content of a response compressed by the server.
+ * The content is decompressed while it is read, so it is never held completely in memory.
+ */
+final class DecompressingEntity extends HttpEntityWrapper {
+
+    /**
+     * The content coding gzip.
+     */
+    static final String GZIP = "gzip";
+
+    /**
+     * The content coding deflate.
+     */
+    static final String DEFLATE = "deflate";
+
+    /**
+     * The size of the buffer used to read the compressed content.
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * The content coding of the content, gzip or deflate.
+     */
+    private final String contentCoding;
+
+    /**
+     * The main constructor.
+     * @param wrappedEntity The entity returned by the server
+     * @param contentCoding The content coding of the entity, gzip or deflate
+     */
+    DecompressingEntity(HttpEntity wrappedEntity, String contentCoding) {
+        super(wrappedEntity);
+        this.contentCoding = contentCoding;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        InputStream content = wrappedEntity.getContent();
+        if (GZIP.equals(contentCoding)) {
+            return new GZIPInputStream(content, BUFFER_SIZE);
+        }
+
+        /*
+         * Deflate should be wrapped in zlib, but some servers send it raw. The first two
+         * bytes tell which one it is
+         */
+        PushbackInputStream pushbackContent = new PushbackInputStream(content, 2);
+        byte[] header = new byte[2];
+        int read = 0;
+        while (read < header.length) {
+            int count = pushbackContent.read(header, read, header.length - read);
+            if (count == -1) {
+                break;
+            }
+            read += count;
+        }
+        pushbackContent.unread(header, 0, read);
+
+        boolean zlibWrapped = read == 2 && (header[0] & 0x0f) == 8
+                && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+        return new InflaterInputStream(pushbackContent, new Inflater(!zlibWrapped), BUFFER_SIZE);
+    }
+
+    /**
+     * The length of the content decompressed is not known.
+     * @return -1
+     */
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        InputStream content = getContent();
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = content.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, count);
+            }
+        } finally {
+            content.close();
+        }
+    }
+}
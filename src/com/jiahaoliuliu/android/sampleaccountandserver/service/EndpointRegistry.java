@@ -0,0 +1,191 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.net.Uri;
+
+/**
+ * The registry of the values kept for each endpoint, like its latencies or its metrics.
+ * The endpoint is the host and the path of the uri, where the segments of the path which are
+ * identifiers, like "/users/1234", are replaced by "{id}", so all the users share an endpoint.
+ * The number of endpoints is bounded: once there are MAX_ENDPOINTS, the new ones share the
+ * endpoint OTHER_ENDPOINTS. So the memory used does not grow with the paths requested.
+ * Looking for an endpoint which already exists does not allocate anything, unless its path
+ * has identifiers.
+ * @param <V> The type of the values
+ */
+abstract class EndpointRegistry<V> {
+
+    /**
+     * The maximum number of endpoints, without OTHER_ENDPOINTS.
+     */
+    static final int MAX_ENDPOINTS = 32;
+
+    /**
+     * The name of the endpoint shared by all the endpoints beyond MAX_ENDPOINTS.
+     */
+    static final String OTHER_ENDPOINTS = "other";
+
+    /**
+     * The replacement of the segments of the paths which are identifiers.
+     */
+    private static final String IDENTIFIER = "{id}";
+
+    /**
+     * The minimum length of the hexadecimal segments considered identifiers, like the hashes
+     * or the UUIDs. The shorter ones may be words, like "cafe".
+     */
+    private static final int MIN_HEXADECIMAL_IDENTIFIER_LENGTH = 16;
+
+    /**
+     * The values of the endpoints, indexed by the host and then by the normalized path.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, V>> valuesByHost =
+            new ConcurrentHashMap<String, ConcurrentMap<String, V>>();
+
+    /**
+     * The number of endpoints created, without OTHER_ENDPOINTS.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * The value shared by the endpoints beyond MAX_ENDPOINTS. Guarded by this.
+     */
+    private V otherEndpoints = null;
+
+    /**
+     * Creates the value of a new endpoint.
+     * @param name The name of the endpoint: the host and the normalized path
+     * @return The value
+     */
+    protected abstract V create(String name);
+
+    /**
+     * Gets the value of the endpoint of a uri, creating it if it does not exist.
+     * @param uri The uri of the request
+     * @return The value of the endpoint
+     */
+    public V get(Uri uri) {
+        String host = uri.getHost() != null ? uri.getHost() : "";
+        String path = normalize(uri.getPath() != null ? uri.getPath() : "");
+
+        ConcurrentMap<String, V> valuesByPath = valuesByHost.get(host);
+        if (valuesByPath == null) {
+            ConcurrentMap<String, V> newValuesByPath = new ConcurrentHashMap<String, V>();
+            valuesByPath = valuesByHost.putIfAbsent(host, newValuesByPath);
+            if (valuesByPath == null) {
+                valuesByPath = newValuesByPath;
+            }
+        }
+
+        V value = valuesByPath.get(path);
+        if (value != null) {
+            return value;
+        }
+
+        if (size.incrementAndGet() > MAX_ENDPOINTS) {
+            size.decrementAndGet();
+            return getOtherEndpoints();
+        }
+        V newValue = create(host + path);
+        value = valuesByPath.putIfAbsent(path, newValue);
+        if (value != null) {
+            // Another thread has created it meanwhile
+            size.decrementAndGet();
+            return value;
+        }
+        return newValue;
+    }
+
+    /**
+     * Gets the values of all the endpoints, including OTHER_ENDPOINTS if it has been used.
+     * @return The values
+     */
+    public Collection<V> values() {
+        List<V> values = new ArrayList<V>();
+        for (ConcurrentMap<String, V> valuesByPath : valuesByHost.values()) {
+            values.addAll(valuesByPath.values());
+        }
+        synchronized (this) {
+            if (otherEndpoints != null) {
+                values.add(otherEndpoints);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Gets the value shared by the endpoints beyond MAX_ENDPOINTS, creating it if it does not exist.
+     * @return The value
+     */
+    private synchronized V getOtherEndpoints() {
+        if (otherEndpoints == null) {
+            otherEndpoints = create(OTHER_ENDPOINTS);
+        }
+        return otherEndpoints;
+    }
+
+    /**
+     * Replaces the segments of a path which are identifiers by "{id}".
+     * @param path The path
+     * @return The path normalized. It is the same instance if it does not have any identifier
+     */
+    static String normalize(String path) {
+        StringBuilder normalizedPath = null;
+        int start = 0;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end == -1) {
+                end = path.length();
+            }
+
+            boolean isIdentifier = isIdentifier(path, start, end);
+            if (isIdentifier && normalizedPath == null) {
+                normalizedPath = new StringBuilder(path.length()).append(path, 0, start);
+            }
+            if (normalizedPath != null) {
+                if (isIdentifier) {
+                    normalizedPath.append(IDENTIFIER);
+                } else {
+                    normalizedPath.append(path, start, end);
+                }
+                if (end < path.length()) {
+                    normalizedPath.append('/');
+                }
+            }
+            start = end + 1;
+        }
+        return normalizedPath != null ? normalizedPath.toString() : path;
+    }
+
+    /**
+     * Tells if a segment of a path is an identifier: a number, or a long hexadecimal value
+     * like a hash or a UUID.
+     * @param path The path
+     * @param start The index of the first character of the segment
+     * @param end The index after the last character of the segment
+     * @return True if the segment is an identifier.
+     *         False otherwise
+     */
+    private static boolean isIdentifier(String path, int start, int end) {
+        if (start == end) {
+            return false;
+        }
+
+        boolean isNumber = true;
+        boolean isHexadecimal = true;
+        for (int i = start; i < end && isHexadecimal; i++) {
+            char c = path.charAt(i);
+            if (c < '0' || c > '9') {
+                isNumber = false;
+                isHexadecimal = (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || c == '-';
+            }
+        }
+        return isNumber || (isHexadecimal && end - start >= MIN_HEXADECIMAL_IDENTIFIER_LENGTH);
+    }
+}
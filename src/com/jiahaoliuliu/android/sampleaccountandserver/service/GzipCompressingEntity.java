@@ -0,0 +1,59 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+
+/**
+ * The entity which compresses the body of a request with gzip while it is sent.
+ * The length of the body compressed is not known, so it is sent chunked.
+ */
+final class GzipCompressingEntity extends HttpEntityWrapper {
+
+    /**
+     * The main constructor.
+     * @param wrappedEntity The entity to compress
+     */
+    GzipCompressingEntity(HttpEntity wrappedEntity) {
+        super(wrappedEntity);
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        return new BasicHeader(HTTP.CONTENT_ENCODING, DecompressingEntity.GZIP);
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    /**
+     * The content is only available compressed while it is written.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
+        wrappedEntity.writeTo(gzipOutputStream);
+        // It writes the trailer, but it does not close the connection
+        gzipOutputStream.finish();
+    }
+}
@@ -0,0 +1,325 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpVersion;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.util.Logger;
+
+/**
+ * The class which holds the http client shared by all the requests as singleton.
+ * The connections are pooled and kept alive, so consecutive requests to the same
+ * host reuse the same socket instead of paying a new handshake.
+ * The responses are requested compressed and they are decompressed transparently.
+ */
+public final class HttpClientSingleton {
+
+    /**
+     * The tag used in logs.
+     */
+    private static final String LOG_TAG = HttpClientSingleton.class.getSimpleName();
+
+    /**
+     * The maximum number of connections opened to the same host.
+     */
+    private static final int MAXIMUM_CONNECTIONS_PER_ROUTE = 4;
+
+    /**
+     * The maximum number of connections opened in total.
+     */
+    private static final int MAXIMUM_TOTAL_CONNECTIONS = 12;
+
+    /**
+     * The time a connection is kept alive when the server does not say otherwise.
+     */
+    private static final long DEFAULT_KEEP_ALIVE = 30 * 1000;
+
+    /**
+     * The time a connection can stay idle in the pool before it is closed.
+     */
+    private static final long IDLE_CONNECTION_TIMEOUT = 30 * 1000;
+
+    /**
+     * The period between two checks of the idle connections.
+     */
+    private static final long IDLE_CONNECTION_CHECK_PERIOD = 5 * 1000;
+
+    /**
+     * The header which tells the server which compressions are accepted.
+     */
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    /**
+     * A class to hold the singleton.
+     */
+    private static class SingletonHolder {
+        /**
+         * The instance of the class.
+         */
+        private static final HttpClientSingleton INSTANCE = new HttpClientSingleton();
+    }
+
+    /**
+     * The manager which pools the connections of the http client.
+     */
+    private final ClientConnectionManager connectionManager;
+
+    /**
+     * The http client shared by all the requests.
+     */
+    private final DefaultHttpClient httpClient;
+
+    /**
+     * The thread which closes the connections which have been idle for too long.
+     */
+    private final IdleConnectionMonitor idleConnectionMonitor;
+
+    /**
+     * The constructor of the class. It is private because it is a singleton.
+     */
+    private HttpClientSingleton() {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        ConnManagerParams.setMaxTotalConnections(params, MAXIMUM_TOTAL_CONNECTIONS);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAXIMUM_CONNECTIONS_PER_ROUTE));
+
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        connectionManager = new ThreadSafeClientConnManager(params, schemeRegistry) {
+            @Override
+            protected ClientConnectionOperator createConnectionOperator(SchemeRegistry schemeRegistry) {
+                return new TimedConnectionOperator(schemeRegistry);
+            }
+        };
+        httpClient = new DefaultHttpClient(connectionManager, params);
+        httpClient.setKeepAliveStrategy(new KeepAliveStrategy());
+        // The requests are sent again by their retry policy, not by the client
+        httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+        httpClient.addRequestInterceptor(new AcceptEncodingInterceptor());
+        httpClient.addRequestInterceptor(new ConnectedTimeInterceptor());
+        httpClient.addResponseInterceptor(new ContentEncodingInterceptor());
+
+        idleConnectionMonitor = new IdleConnectionMonitor();
+        idleConnectionMonitor.start();
+    }
+
+    /**
+     * The public method to return the instance.
+     * @return A instance of the Singleton holder
+     */
+    public static HttpClientSingleton instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Method used to get the http client.
+     * The timeouts must be set in the parameters of each request, not in the client,
+     * because the client is shared.
+     * @return The http client shared by all the requests
+     */
+    public DefaultHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Closes all the connections and stops the idle connection monitor.
+     * The client cannot be used after this.
+     */
+    public void shutdown() {
+        idleConnectionMonitor.shutdown();
+        connectionManager.shutdown();
+    }
+
+    /**
+     * The strategy which keeps the connections alive for the time said by the server
+     * in the header "Keep-Alive", or for the default time otherwise.
+     */
+    private static class KeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            HeaderElementIterator iterator = new BasicHeaderElementIterator(
+                    response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (iterator.hasNext()) {
+                HeaderElement headerElement = iterator.nextElement();
+                String value = headerElement.getValue();
+                if (value != null && headerElement.getName().equalsIgnoreCase("timeout")) {
+                    try {
+                        return Long.parseLong(value) * 1000;
+                    } catch (NumberFormatException e) {
+                        Logger.w(LOG_TAG, "Wrong keep alive timeout {}", value);
+                    }
+                }
+            }
+
+            return DEFAULT_KEEP_ALIVE;
+        }
+    }
+
+    /**
+     * The interceptor which asks the server to compress the responses.
+     */
+    private static class AcceptEncodingInterceptor implements HttpRequestInterceptor {
+
+        @Override
+        public void process(HttpRequest request, HttpContext context) {
+            if (!request.containsHeader(ACCEPT_ENCODING)) {
+                request.addHeader(ACCEPT_ENCODING, DecompressingEntity.GZIP + ", " + DecompressingEntity.DEFLATE);
+            }
+        }
+    }
+
+    /**
+     * The operator of the connections which records in the timing of the request, if it is in
+     * the http context, the time the new connections take to be opened. The connections reused
+     * from the pool do not go through it.
+     */
+    private static class TimedConnectionOperator extends DefaultClientConnectionOperator {
+
+        /**
+         * The main constructor.
+         * @param schemeRegistry The schemes supported
+         */
+        public TimedConnectionOperator(SchemeRegistry schemeRegistry) {
+            super(schemeRegistry);
+        }
+
+        @Override
+        public void openConnection(OperatedClientConnection connection, HttpHost target, InetAddress local,
+                HttpContext context, HttpParams params) throws IOException {
+            RequestTiming requestTiming = (RequestTiming) context.getAttribute(RequestTiming.ATTRIBUTE);
+            if (requestTiming == null) {
+                super.openConnection(connection, target, local, context, params);
+                return;
+            }
+
+            requestTiming.onConnectStarted();
+            super.openConnection(connection, target, local, context, params);
+            requestTiming.onConnectFinished();
+        }
+    }
+
+    /**
+     * The interceptor which records in the timing of the request, if it is in the http context,
+     * the time when the connection is ready. The interceptors run once the connection has been
+     * opened or taken from the pool, just before the request is sent.
+     */
+    private static class ConnectedTimeInterceptor implements HttpRequestInterceptor {
+
+        @Override
+        public void process(HttpRequest request, HttpContext context) {
+            RequestTiming requestTiming = (RequestTiming) context.getAttribute(RequestTiming.ATTRIBUTE);
+            if (requestTiming != null) {
+                requestTiming.onConnected();
+            }
+        }
+    }
+
+    /**
+     * The interceptor which decompresses the responses compressed by the server.
+     * The headers of the compressed content are removed, so the rest of the
+     * requests see the response as if it had not been compressed.
+     */
+    private static class ContentEncodingInterceptor implements HttpResponseInterceptor {
+
+        @Override
+        public void process(HttpResponse response, HttpContext context) {
+            HttpEntity entity = response.getEntity();
+            if (entity == null || entity.getContentEncoding() == null) {
+                return;
+            }
+
+            String contentCoding = entity.getContentEncoding().getValue().trim().toLowerCase(Locale.US);
+            if (contentCoding.equals(DecompressingEntity.GZIP) || contentCoding.equals("x-gzip")) {
+                contentCoding = DecompressingEntity.GZIP;
+            } else if (!contentCoding.equals(DecompressingEntity.DEFLATE)) {
+                // The identity or an unknown coding, which is left as it is
+                return;
+            }
+
+            response.setEntity(new DecompressingEntity(entity, contentCoding));
+            response.removeHeaders(HTTP.CONTENT_ENCODING);
+            response.removeHeaders(HTTP.CONTENT_LEN);
+        }
+    }
+
+    /**
+     * The thread which periodically removes the expired and the idle connections from the pool.
+     */
+    private class IdleConnectionMonitor extends Thread {
+
+        /**
+         * The variable which tells if the monitor has been stopped.
+         */
+        private volatile boolean isShutdown = false;
+
+        /**
+         * The main constructor.
+         */
+        public IdleConnectionMonitor() {
+            super(IdleConnectionMonitor.class.getSimpleName());
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isShutdown) {
+                    synchronized (this) {
+                        wait(IDLE_CONNECTION_CHECK_PERIOD);
+                    }
+                    connectionManager.closeExpiredConnections();
+                    connectionManager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Logger.v(LOG_TAG, "Idle connection monitor interrupted");
+            }
+        }
+
+        /**
+         * Stops the monitor.
+         */
+        public void shutdown() {
+            isShutdown = true;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+}
@@ -1,16 +1,26 @@
 package com.jiahaoliuliu.android.sampleaccountandserver.service;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.lang.ref.SoftReference;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
@@ -18,23 +28,34 @@ import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.params.ConnManagerParams;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EncodingUtils;
-import org.json.JSONException;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONObject;
 
 import android.net.Uri;
 import android.os.Handler;
-import android.util.Log;
+import android.os.Looper;
 
 import com.jiahaoliuliu.android.sampleaccountandserver.completionhandler.RequestDataCallback;
 import com.jiahaoliuliu.android.sampleaccountandserver.completionhandler.RequestJSONCallback;
+import com.jiahaoliuliu.android.sampleaccountandserver.completionhandler.RequestResultCallback;
+import com.jiahaoliuliu.android.sampleaccountandserver.exception.AuthTokenUnavailableException;
+import com.jiahaoliuliu.android.sampleaccountandserver.exception.CircuitBreakerOpenException;
+import com.jiahaoliuliu.android.sampleaccountandserver.exception.RequestException;
+import com.jiahaoliuliu.android.sampleaccountandserver.util.Logger;
 import com.jiahaoliuliu.android.sampleaccountandserver.util.SecurityUtils;
 
 /**
@@ -90,20 +111,72 @@ public class HttpRequest {
     private final Map<String, String> headerFields;
 
     /**
-     * The instance of server Fetcher which is used to communicates with the server.
+     * The requests in flight, by the key which identifies the identical requests.
+     * The identical requests share the same server fetcher.
      */
-    private ServerFetcher serverFetcher;
+    private static final ConcurrentMap<CoalescingKey, HttpRequest.ServerFetcher<?>> IN_FLIGHT_REQUESTS =
+            new ConcurrentHashMap<CoalescingKey, HttpRequest.ServerFetcher<?>>();
 
     /**
      * The instance of server Fetcher which is used to communicates with the server.
      */
-    private final ExecutorServiceSingleton executorServiceSingleton;
+    private ServerFetcher<?> serverFetcher;
+
+    /**
+     * The subscription of this request to the result of the server fetcher.
+     */
+    private Subscription<?> subscription;
 
+    /**
+     * The scheduler which runs the requests in its pool of threads.
+     */
+    private RequestScheduler requestScheduler;
+
+    /**
+     * The priority of the request in the scheduler.
+     */
+    private RequestScheduler.Priority priority = RequestScheduler.Priority.NORMAL;
+
+    /**
+     * The provider of the auth token attached to the request, or null if the request
+     * does not need it.
+     */
+    private AuthTokenProvider authTokenProvider;
+
+    /**
+     * Whether the body of the request is compressed with gzip. The server must accept it.
+     */
+    private boolean compressRequestBody = false;
 
     /**
-     * The threadPool which contains all the threads used to communicate with the server.
+     * The policy which decides if the request is sent again when it fails.
      */
-    private final ExecutorService threadPool;
+    private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+
+    /**
+     * Whether a second copy of the request is sent if it takes longer than usual.
+     */
+    private boolean hedged = false;
+
+    /**
+     * A class to hold the timer which waits before sending the requests again, so they do not
+     * keep the threads of the scheduler while they wait. It also waits before sending the second
+     * copies of the hedged requests. It is only created if any request fails or is hedged.
+     */
+    private static class RetryTimerHolder {
+        /**
+         * The timer of the retries.
+         */
+        private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, LOG_TAG + "RetryTimer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
 
     /**
      * The handler used to execute all the callbacks in the main thread.
@@ -179,15 +252,15 @@ public class HttpRequest {
      * @param requestMethod The request method
      */
     public HttpRequest(Uri uri, Map<String, String> parameters, RequestMethod requestMethod) {
-        executorServiceSingleton = ExecutorServiceSingleton.instance();
-        threadPool = executorServiceSingleton.getExecutorService();
+        requestScheduler = RequestScheduler.instance();
 
         this.requestMethod = requestMethod;
 
-        // If the request method is get, all the parameters is shown in the uri
-        if (requestMethod == RequestMethod.RequestMethodGet) {
+        // If the request method is get or delete, all the parameters is shown in the uri,
+        // because these requests have no body
+        if (requestMethod == RequestMethod.RequestMethodGet || requestMethod == RequestMethod.RequestMethodDelete) {
             this.uri = parseUriAndParameters(uri, parameters);
-            Log.d("Request uri", uri.toString());
+            Logger.d(LOG_TAG, "Request uri {}", uri);
         } else {
             this.uri = uri;
             this.parameters = parameters;
@@ -195,7 +268,9 @@ public class HttpRequest {
 
         headerFields = defaultHeaderFields();
 
-        handler = new Handler();
+        // The requests created in the threads of the scheduler, like the chained ones,
+        // have no looper, so their callbacks are called in the main thread
+        handler = Looper.myLooper() != null ? new Handler() : new Handler(Looper.getMainLooper());
     }
 
     /**
@@ -203,19 +278,12 @@ public class HttpRequest {
      * @param requestDataCallback The callback to call when the communication finishes
      */
     public void performRequestWithHandler(final RequestDataCallback requestDataCallback) {
-        serverFetcher = new ServerFetcher(requestMethod, uri, parameters, headerFields, new RequestDataCallback() {
+        performRequest(new ByteArrayDecoder(), new RequestResultCallback<byte[]>() {
             @Override
-            public void done(final byte[] data, final boolean error) {
-                handler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        Log.d(LOG_TAG, "Request to " + uri.toString() + "done");
-                        requestDataCallback.done(data, error);
-                    }
-                });
+            public void done(byte[] data, boolean error) {
+                requestDataCallback.done(data, error);
             }
         });
-        threadPool.execute(serverFetcher);
     }
 
     /**
@@ -223,43 +291,184 @@ public class HttpRequest {
      * @param jsonHandler The callback to call when the communication finishes.
      */
     public void performRequestWithJSONHandler(final RequestJSONCallback jsonHandler) {
+        performRequestWithJSONHandler(JSONDecoder.JSON_OBJECT, new RequestResultCallback<JSONObject>() {
+            @Override
+            public void done(JSONObject jsonObject, boolean error) {
+                jsonHandler.done(jsonObject, error);
+            }
+        });
+    }
+
+    /**
+     * Method used to send request to the server, which parse the content returned to a typed result.
+     * @param jsonDecoder The decoder which converts the json returned to the typed result
+     * @param resultCallback The callback to call when the communication finishes.
+     * @param <T> The type of the result
+     */
+    public <T> void performRequestWithJSONHandler(JSONDecoder<T> jsonDecoder,
+            RequestResultCallback<T> resultCallback) {
         /*
          * Add new header
          */
         headerFields.put("Accept", "application/json");
 
-        serverFetcher = new ServerFetcher(requestMethod, uri,
-                parameters, headerFields,
-                new RequestDataCallback() {
+        performRequest(jsonDecoder, resultCallback);
+    }
 
-                @Override
-                public void done(final byte[] data, final boolean error) {
-                    handler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (!error && data != null && data.length > 0) {
-                                try {
-                                    // For latin languages, the codification must be ISO 8859-1
-                                    //http://es.wikipedia.org/wiki/ISO_8859-1
-                                    String jsonString = new String(data, "US-ASCII");
-                                    Log.v(HttpRequest.LOG_TAG, jsonString);
-                                    /*
-                                     * Parse JSON data
-                                     */
-                                    JSONObject jsonObject = new JSONObject(jsonString);
-                                    jsonHandler.done(jsonObject, error);
-                                } catch (Exception exception) {
-                                    Log.e(HttpRequest.LOG_TAG, exception.getLocalizedMessage(), exception);
-                                    jsonHandler.done(null, true);
-                                }
-                            } else {
-                                jsonHandler.done(null, error);
-                            }
-                        }
-                    });
+    /**
+     * Method used to send request to the server. The content returned is decoded in the
+     * thread of the request and only the result is passed to the main thread.
+     * @param responseDecoder The decoder of the content returned by the server
+     * @param resultCallback The callback to call in the main thread when the communication finishes
+     * @param <T> The type of the result
+     */
+    public <T> void performRequest(ResponseDecoder<T> responseDecoder,
+            final RequestResultCallback<T> resultCallback) {
+        start(responseDecoder, new Subscription<T>(resultCallback, true));
+    }
+
+    /**
+     * Method used to send request to the server, which parse the content returned to a typed result.
+     * @param jsonDecoder The decoder which converts the json returned to the typed result
+     * @param <T> The type of the result
+     * @return The future of the result
+     */
+    public <T> RequestFuture<T> performRequestWithJSONAsync(JSONDecoder<T> jsonDecoder) {
+        /*
+         * Add new header
+         */
+        headerFields.put("Accept", "application/json");
+
+        return performRequestAsync(jsonDecoder);
+    }
+
+    /**
+     * Method used to send request to the server, returning a future instead of calling a callback.
+     * The future is completed in the thread of the request. Cancelling the future cancels the request.
+     * @param responseDecoder The decoder of the content returned by the server
+     * @param <T> The type of the result
+     * @return The future of the result. It fails with {@link RequestException} if the request fails
+     */
+    public <T> RequestFuture<T> performRequestAsync(ResponseDecoder<T> responseDecoder) {
+        final RequestFuture<T> future = new RequestFuture<T>();
+        final Subscription<T> futureSubscription = new Subscription<T>(new RequestResultCallback<T>() {
+            @Override
+            public void done(T result, boolean error) {
+                if (error) {
+                    future.setException(new RequestException("Request to " + uri.toString() + " failed"));
+                } else {
+                    future.set(result);
                 }
-            });
-        threadPool.execute(serverFetcher);
+            }
+        }, false);
+
+        future.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                futureSubscription.cancel();
+            }
+        });
+        start(responseDecoder, futureSubscription);
+        return future;
+    }
+
+    /**
+     * Starts the request. If an identical request is already in flight, the subscription
+     * joins it instead of sending the same request again. Only the idempotent requests are
+     * joined, since the others must be sent as many times as they are made.
+     * @param responseDecoder The decoder of the content returned by the server
+     * @param newSubscription The subscription which receives the result
+     * @param <T> The type of the result
+     */
+    private <T> void start(ResponseDecoder<T> responseDecoder, Subscription<T> newSubscription) {
+        subscription = newSubscription;
+        CoalescingKey coalescingKey = coalescingKey(responseDecoder);
+        if (coalescingKey == null) {
+            ServerFetcher<T> fetcher = new ServerFetcher<T>(requestMethod, uri, parameters,
+                    new HashMap<String, String>(headerFields), authTokenProvider, compressRequestBody,
+                    hedged, responseDecoder, null);
+            fetcher.subscribe(newSubscription);
+            serverFetcher = fetcher;
+            schedule(fetcher);
+            return;
+        }
+
+        while (true) {
+            ServerFetcher<?> inFlight = IN_FLIGHT_REQUESTS.get(coalescingKey);
+            if (inFlight != null) {
+                // The same key means the same decoder, so the same type of result
+                @SuppressWarnings("unchecked")
+                ServerFetcher<T> sharedFetcher = (ServerFetcher<T>) inFlight;
+                if (sharedFetcher.subscribe(newSubscription)) {
+                    sharedFetcher.endpointMetrics.increment(RequestMetrics.Counter.COALESCED);
+                    Logger.v(LOG_TAG, "Request to {} joined an identical one in flight", uri);
+                    serverFetcher = sharedFetcher;
+                    return;
+                }
+                // It has just finished, so it cannot be joined
+                IN_FLIGHT_REQUESTS.remove(coalescingKey, inFlight);
+            }
+
+            ServerFetcher<T> fetcher = new ServerFetcher<T>(requestMethod, uri, parameters,
+                    new HashMap<String, String>(headerFields), authTokenProvider, compressRequestBody,
+                    hedged, responseDecoder, coalescingKey);
+            fetcher.subscribe(newSubscription);
+            if (IN_FLIGHT_REQUESTS.putIfAbsent(coalescingKey, fetcher) == null) {
+                serverFetcher = fetcher;
+                schedule(fetcher);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Creates the key which identifies the identical requests. Two requests are identical if
+     * they have the same method, URI, headers, parameters, account and decoder of the content,
+     * and they are sent the same way: with the same priority, scheduler, retry policy, compression
+     * and hedging. So a request never inherits the settings of the one it joins.
+     * @param responseDecoder The decoder of the content returned by the server
+     * @return The key of the request
+     *         null if the request must not be joined
+     */
+    private CoalescingKey coalescingKey(ResponseDecoder<?> responseDecoder) {
+        if (!RetryPolicy.isIdempotent(requestMethod)) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder();
+        key.append(requestMethod.name()).append(' ').append(uri.toString())
+            .append('\n').append(new TreeMap<String, String>(headerFields))
+            .append('\n').append(parameters != null ? new TreeMap<String, String>(parameters) : "")
+            .append('\n').append(responseDecoder.getClass().getName())
+            .append('\n').append(priority.name()).append(' ').append(compressRequestBody).append(' ').append(hedged);
+        if (authTokenProvider != null) {
+            key.append('\n').append(authTokenProvider.getAccountName());
+        }
+
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            return new CoalescingKey(SecurityUtils.toHex(messageDigest.digest(key.toString().getBytes("UTF-8"))),
+                    requestScheduler, retryPolicy);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Queues the server fetcher in the scheduler. If the scheduler does not accept it,
+     * the callback is called with error.
+     * @param fetcher The server fetcher to run
+     */
+    private void schedule(ServerFetcher<?> fetcher) {
+        fetcher.scheduledTime = System.nanoTime();
+        try {
+            requestScheduler.execute(fetcher, priority);
+        } catch (RejectedExecutionException rejectedExecutionException) {
+            Logger.w(LOG_TAG, "Request to {} rejected", uri, rejectedExecutionException);
+            fetcher.onRejected();
+        }
     }
 
     /**
@@ -273,12 +482,14 @@ public class HttpRequest {
 
     /**
      * Method used to cancel the actual request.
+     * The connection is aborted and the callback is not called.
      */
     public void cancelRequest() {
-        if (serverFetcher != null && serverFetcher.isRunning) {
-            serverFetcher.stopFetching();
+        if (subscription != null) {
+            subscription.cancel();
         }
 
+        subscription = null;
         serverFetcher = null;
     }
 
@@ -286,10 +497,225 @@ public class HttpRequest {
         return uri;
     }
 
+    public RequestScheduler.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Set the priority of the request. It must be set before the request is performed.
+     * @param priority The priority of the request in the scheduler
+     */
+    public void setPriority(RequestScheduler.Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Set the scheduler which runs the request. By default the shared one is used.
+     * It must be set before the request is performed.
+     * @param requestScheduler The scheduler to use
+     */
+    public void setRequestScheduler(RequestScheduler requestScheduler) {
+        this.requestScheduler = requestScheduler;
+    }
+
+    /**
+     * Set the provider of the auth token which is attached to the request.
+     * It must be set before the request is performed.
+     * @param authTokenProvider The provider of the auth token of the user
+     */
+    public void setAuthTokenProvider(AuthTokenProvider authTokenProvider) {
+        this.authTokenProvider = authTokenProvider;
+    }
+
+    /**
+     * Set if the body of the request is compressed with gzip. It is only compressed if it is
+     * big enough, and only if the server accepts compressed requests.
+     * It must be set before the request is performed.
+     * @param compressRequestBody True if the body is compressed
+     */
+    public void setCompressRequestBody(boolean compressRequestBody) {
+        this.compressRequestBody = compressRequestBody;
+    }
+
+    /**
+     * Set the policy which decides if the request is sent again when it fails.
+     * By default the request is sent up to three times. It must be set before the request is performed.
+     * @param retryPolicy The policy to use, or RetryPolicy.NONE to never send it again
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Set if a second copy of the request is sent when it has not been answered after the time
+     * which takes 95% of the requests to the endpoint. The first copy answered is used and the
+     * other one is stopped. The second copies are limited by a budget of each endpoint.
+     * Only the requests which can be sent twice with the same effect can be hedged: for the
+     * ones which are not idempotent, like POST, it is ignored with a warning.
+     * It must be set before the request is performed.
+     * @param hedged True if the request is hedged
+     */
+    public void setHedged(boolean hedged) {
+        if (hedged && !RetryPolicy.isIdempotent(requestMethod)) {
+            Logger.w(LOG_TAG, "The request to {} is not hedged because it is not idempotent", uri);
+            return;
+        }
+        this.hedged = hedged;
+    }
+
+    /**
+     * Set if a second copy of the request is sent as in setHedged, even if the request is not
+     * idempotent. Each second copy which reaches the server repeats the effect of the request,
+     * even if its response is discarded, so it must only be used when repeating it is harmless
+     * and its cost on the server is accepted.
+     * It must be set before the request is performed.
+     * @param hedged True if the request is hedged
+     */
+    public void setHedgedAllowingDuplicates(boolean hedged) {
+        this.hedged = hedged;
+    }
+
+    /**
+     * The key which identifies the identical requests in flight. The content of the request is
+     * hashed, so its parameters, which may be credentials, are not kept by the requests in flight.
+     * The scheduler and the retry policy are compared by identity.
+     */
+    private static final class CoalescingKey {
+
+        /**
+         * The hash of the content of the request and the way it is sent.
+         */
+        private final String digest;
+
+        /**
+         * The scheduler which runs the request.
+         */
+        private final RequestScheduler requestScheduler;
+
+        /**
+         * The policy which decides if the request is sent again.
+         */
+        private final RetryPolicy retryPolicy;
+
+        /**
+         * The main constructor.
+         * @param digest The hash of the content of the request and the way it is sent
+         * @param requestScheduler The scheduler which runs the request
+         * @param retryPolicy The policy which decides if the request is sent again
+         */
+        public CoalescingKey(String digest, RequestScheduler requestScheduler, RetryPolicy retryPolicy) {
+            this.digest = digest;
+            this.requestScheduler = requestScheduler;
+            this.retryPolicy = retryPolicy;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof CoalescingKey)) {
+                return false;
+            }
+            CoalescingKey another = (CoalescingKey) object;
+            return digest.equals(another.digest) && requestScheduler == another.requestScheduler
+                    && retryPolicy == another.retryPolicy;
+        }
+
+        @Override
+        public int hashCode() {
+            return digest.hashCode();
+        }
+    }
+
+    /**
+     * The subscription of a request to the result of a server fetcher. Several identical
+     * requests can be subscribed to the same server fetcher.
+     * @param <T> The type of the result
+     */
+    private class Subscription<T> {
+
+        /**
+         * The callback to call when the operation finishes.
+         */
+        private final RequestResultCallback<T> resultCallback;
+
+        /**
+         * Tells if the callback must be called in the main thread or in the thread of the request.
+         */
+        private final boolean deliverInMainThread;
+
+        /**
+         * The variable to record if the subscription has been cancelled.
+         */
+        private volatile boolean isCancelled = false;
+
+        /**
+         * The server fetcher which this subscription is subscribed to.
+         */
+        private volatile ServerFetcher<T> subscribedFetcher;
+
+        /**
+         * The main constructor.
+         * @param resultCallback The Callback to call when the operation finishes
+         * @param deliverInMainThread True if the callback must be called in the main thread
+         */
+        public Subscription(RequestResultCallback<T> resultCallback, boolean deliverInMainThread) {
+            this.resultCallback = resultCallback;
+            this.deliverInMainThread = deliverInMainThread;
+        }
+
+        /**
+         * Cancels the subscription. If it was the last one, the server fetcher is stopped.
+         */
+        public void cancel() {
+            isCancelled = true;
+            ServerFetcher<T> fetcher = subscribedFetcher;
+            if (fetcher != null) {
+                fetcher.unsubscribe(this);
+            }
+        }
+
+        /**
+         * The last stage of the request. It passes the result to the callback, in the main thread
+         * if it is required. This is the only part of the request which runs in the main thread.
+         * If the subscription has been cancelled the callback is not called.
+         * @param result The result decoded
+         * @param error Indication of if any error happened or not
+         */
+        public void deliver(final T result, final boolean error) {
+            if (resultCallback == null || isCancelled) {
+                return;
+            }
+
+            if (!deliverInMainThread) {
+                resultCallback.done(result, error);
+                return;
+            }
+
+            final RequestMetrics.Endpoint endpointMetrics = subscribedFetcher.endpointMetrics;
+            final long postTime = System.nanoTime();
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCancelled) {
+                        return;
+                    }
+                    long deliverStart = System.nanoTime();
+                    endpointMetrics.record(RequestMetrics.Stage.DISPATCH, deliverStart - postTime);
+                    Logger.d(LOG_TAG, "Request to {} done", uri);
+                    resultCallback.done(result, error);
+                    endpointMetrics.record(RequestMetrics.Stage.DELIVER, System.nanoTime() - deliverStart);
+                }
+            });
+        }
+    }
+
     /**
      * The runnable class used to connect with the server.
+     * @param <T> The type of the result decoded from the content returned
      */
-    private class ServerFetcher implements Runnable {
+    private class ServerFetcher<T> implements Runnable, RequestScheduler.Rejectable {
 
         /**
          * The tag utilized for the log.
@@ -297,34 +723,45 @@ public class HttpRequest {
         private static final String LOG_TAG = "ServerFetcher";
 
         /**
-         * The registration time out before it launches the exception.
+         * The time waiting for a free connection of the pool before it launches the exception.
          */
-        private static final int REGISTRATION_TIMEOUT = 3 * 1000;
+        private static final int CONNECTION_POOL_TIMEOUT = 30 * 1000;
 
         /**
-         * The wait time out before it launches the exception.
+         * The minimum size of the bodies which are compressed. The smaller ones would not be
+         * smaller compressed.
          */
-        private static final int WAIT_TIMEOUT = 30 * 1000;
+        private static final int MIN_COMPRESSED_BODY_SIZE = 1024;
 
         /**
-         * The http client utilized.
+         * The http client utilized. It is shared by all the requests to reuse the connections.
          */
-        private final HttpClient httpClient = new DefaultHttpClient();
+        private final HttpClient httpClient = HttpClientSingleton.instance().getHttpClient();
 
         /**
          * The variable to record the running state (Yes/No).
          */
-        private boolean isRunning = false;
+        private volatile boolean isRunning = false;
+
+        /**
+         * The variable to record if the request has been cancelled.
+         */
+        private volatile boolean isCancelled = false;
         /**
-         * The list of parameters of the HTTP client.
+         * The http request sent to the server.
          */
-        private final HttpParams params = httpClient.getParams();
+        private volatile HttpUriRequest httpUriRequest;
 
         /**
          * The http response from the server.
          */
         private HttpResponse response;
 
+        /**
+         * The request method to perform.
+         */
+        private final RequestMethod requestMethod;
+
         /**
          * The URI to connect.
          */
@@ -340,37 +777,166 @@ public class HttpRequest {
         private final Map<String, String> headerFields;
 
         /**
-         * The callback to call when the operation finishes.
+         * The provider of the auth token attached to the request, or null if there is not any.
+         */
+        private final AuthTokenProvider authTokenProvider;
+
+        /**
+         * The auth token attached to the request, or null if there is not any.
+         */
+        private String authToken;
+
+        /**
+         * Whether the body of the request is compressed with gzip.
+         */
+        private final boolean compressRequestBody;
+
+        /**
+         * The tracker of the latencies of the endpoint, which decides the timeouts.
+         */
+        private final LatencyTracker latencyTracker;
+
+        /**
+         * The timing of the execution of the request, filled by the http client. It is reused
+         * by all the attempts.
+         */
+        private final RequestTiming requestTiming = new RequestTiming();
+
+        /**
+         * The stream which measures the time reading the content of the responses. It is reused
+         * by all the attempts.
+         */
+        private final TimedInputStream timedContent = new TimedInputStream();
+
+        /**
+         * The metrics of the endpoint, where the stages and the events of the request are recorded.
+         */
+        private final RequestMetrics.Endpoint endpointMetrics;
+
+        /**
+         * The time when the request was queued in the scheduler, in nanoseconds of System.nanoTime.
+         */
+        private volatile long scheduledTime = 0;
+
+        /**
+         * Whether a second copy of the request is sent if it takes longer than usual.
+         */
+        private final boolean hedged;
+
+        /**
+         * The server fetcher whose second copy this one is, or null if it is not a second copy.
+         */
+        private final ServerFetcher<T> primaryFetcher;
+
+        /**
+         * The second copy of the request, or null if it has not been sent. Guarded by this.
+         */
+        private ServerFetcher<T> hedge;
+
+        /**
+         * Whether this request has failed or succeeded, without counting its second copy.
+         * Guarded by this.
+         */
+        private boolean isPrimaryCompleted = false;
+
+        /**
+         * Whether the second copy of the request has failed or succeeded. Guarded by this.
+         */
+        private boolean isHedgeCompleted = false;
+
+        /**
+         * The decoder of the content returned by the server.
+         */
+        private final ResponseDecoder<T> responseDecoder;
+
+        /**
+         * The key which identifies the identical requests.
          */
-        private final RequestDataCallback requestDataCallback;
+        private final CoalescingKey coalescingKey;
 
+        /**
+         * The subscriptions which receive the result.
+         */
+        private final List<Subscription<T>> subscriptions = new ArrayList<Subscription<T>>();
 
         /**
-         *  The final data obtained from the server.
+         * The variable to record if the result has been passed to the subscriptions.
          */
-        private byte[] dataObtained;
+        private boolean isFinished = false;
+
+        /**
+         *  The final result obtained from the server.
+         */
+        private T resultObtained;
 
         /**
          * The variable to save the final state of the operation.
          */
         private boolean error = false;
 
+        /**
+         * The number of times the request has been sent.
+         */
+        private int attempt = 0;
+
+        /**
+         * The time to wait before sending the request again if it has failed, in milliseconds,
+         * or RetryPolicy.NO_RETRY if it must not be sent again.
+         */
+        private long retryDelay = RetryPolicy.NO_RETRY;
+
         /**
          * The main constructor.
          * @param requestMethod The REST method to perform
          * @param uri The Uri of the server to connect
          * @param parameters The list of parameters to be added to the HTTP request
          * @param headerFields The header of the HTTP request
-         * @param requestDataCallback The Callback to call when the operation finishes
+         * @param authTokenProvider The provider of the auth token, or null if it is not needed
+         * @param compressRequestBody True if the body of the request is compressed with gzip
+         * @param hedged True if a second copy is sent when the request takes longer than usual
+         * @param responseDecoder The decoder of the content returned by the server
+         * @param coalescingKey The key which identifies the identical requests, or null if it is not joined
          */
         public ServerFetcher(RequestMethod requestMethod, Uri uri, Map<String,
-                String> parameters, Map<String, String> headerFields,
-                RequestDataCallback requestDataCallback) {
+                String> parameters, Map<String, String> headerFields, AuthTokenProvider authTokenProvider,
+                boolean compressRequestBody, boolean hedged, ResponseDecoder<T> responseDecoder,
+                CoalescingKey coalescingKey) {
+            this(requestMethod, uri, parameters, headerFields, authTokenProvider, compressRequestBody,
+                    hedged, responseDecoder, coalescingKey, null);
+        }
+
+        /**
+         * The constructor of the second copies of the requests.
+         * @param requestMethod The REST method to perform
+         * @param uri The Uri of the server to connect
+         * @param parameters The list of parameters to be added to the HTTP request
+         * @param headerFields The header of the HTTP request
+         * @param authTokenProvider The provider of the auth token, or null if it is not needed
+         * @param compressRequestBody True if the body of the request is compressed with gzip
+         * @param hedged True if a second copy is sent when the request takes longer than usual
+         * @param responseDecoder The decoder of the content returned by the server
+         * @param coalescingKey The key which identifies the identical requests, or null if it is not joined
+         * @param primaryFetcher The server fetcher whose second copy this one is, or null
+         */
+        private ServerFetcher(RequestMethod requestMethod, Uri uri, Map<String,
+                String> parameters, Map<String, String> headerFields, AuthTokenProvider authTokenProvider,
+                boolean compressRequestBody, boolean hedged, ResponseDecoder<T> responseDecoder,
+                CoalescingKey coalescingKey, ServerFetcher<T> primaryFetcher) {
+            this.requestMethod = requestMethod;
             this.uri = uri;
             this.parameters = parameters;
             this.headerFields = headerFields;
-
-            this.requestDataCallback = requestDataCallback;
+            this.authTokenProvider = authTokenProvider;
+            this.compressRequestBody = compressRequestBody;
+            // The second copies share the endpoint of their first copy, so they do not look for it again
+            this.latencyTracker = primaryFetcher != null ? primaryFetcher.latencyTracker : LatencyTracker.forEndpoint(uri);
+            this.endpointMetrics = primaryFetcher != null
+                    ? primaryFetcher.endpointMetrics : RequestMetrics.instance().forEndpoint(uri);
+            this.hedged = hedged;
+            this.primaryFetcher = primaryFetcher;
+
+            this.responseDecoder = responseDecoder;
+            this.coalescingKey = coalescingKey;
         }
 
         /**
@@ -382,182 +948,602 @@ public class HttpRequest {
             return isRunning;
         }
 
+        /**
+         * The method which tells if the request has been cancelled.
+         * @return True if the request has been cancelled
+         *         False otherwise
+         */
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+
         /**
          * This methods stops the communication with the server.
+         * Aborting the http request closes its connection, so the thread blocked
+         * reading from it is released immediately. The second copy is stopped too.
          */
         public void stopFetching() {
-            /*
-             * TODO Cancel the http request
-             */
+            isCancelled = true;
+            HttpUriRequest request = httpUriRequest;
+            if (request != null) {
+                request.abort();
+            }
+
+            ServerFetcher<T> hedgeToStop;
+            synchronized (this) {
+                hedgeToStop = isHedgeCompleted ? null : hedge;
+            }
+            if (hedgeToStop != null) {
+                hedgeToStop.stopFetching();
+            }
         }
 
-        @Override
-        public void run() {
-            Log.v(ServerFetcher.LOG_TAG, ServerFetcher.LOG_TAG + " running");
-            isRunning = true;
+        /**
+         * Set the connection parameters in the request. They cannot be set in the
+         * http client because it is shared by all the requests.
+         * The timeouts depend on the latencies observed in the endpoint.
+         * @param params The parameters of the request
+         */
+        private void setConnectionParams(HttpParams params) {
+            HttpConnectionParams.setConnectionTimeout(params, latencyTracker.getConnectTimeout());
+            HttpConnectionParams.setSoTimeout(params, latencyTracker.getReadTimeout());
+            ConnManagerParams.setTimeout(params, ServerFetcher.CONNECTION_POOL_TIMEOUT);
+        }
 
-            try {
-                /*
-                 * Set the connection parameters
-                 */
-                HttpConnectionParams.setConnectionTimeout(params, ServerFetcher.REGISTRATION_TIMEOUT);
-                HttpConnectionParams.setSoTimeout(params, ServerFetcher.WAIT_TIMEOUT);
-                ConnManagerParams.setTimeout(params, ServerFetcher.WAIT_TIMEOUT);
+        /**
+         * Records the latencies of a request in the tracker of the endpoint. The requests which
+         * have timed out are recorded with the time waited; the ones which have failed for
+         * any other reason are not recorded. The connect is only recorded when a new connection
+         * has been opened, because the ones reused from the pool take nothing.
+         * @param start The time when the request started, in nanoseconds of System.nanoTime
+         * @param exception The exception thrown by the request, or null if it has been answered
+         */
+        private void recordLatencies(long start, IOException exception) {
+            long end = System.nanoTime();
+            if (!requestTiming.isConnected) {
+                // The pool timeout is not a latency of the endpoint, and it does not open any connection
+                if (requestTiming.isConnecting && exception instanceof ConnectTimeoutException) {
+                    latencyTracker.recordConnect(TimeUnit.NANOSECONDS.toMillis(end - requestTiming.connectStartTime));
+                }
+                return;
+            }
 
-                /*
-                 * Create ServerFetcher and prepare the data
-                 */
-                if (requestMethod == RequestMethod.RequestMethodGet) {
-                    HttpGet httpGet = new HttpGet(uri.toString());
+            if (requestTiming.connectDuration >= 0) {
+                latencyTracker.recordConnect(TimeUnit.NANOSECONDS.toMillis(requestTiming.connectDuration));
+                if (exception == null) {
+                    endpointMetrics.record(RequestMetrics.Stage.CONNECT, requestTiming.connectDuration);
+                }
+            }
+            if (exception == null) {
+                endpointMetrics.record(RequestMetrics.Stage.TIME_TO_FIRST_BYTE, end - requestTiming.connectedTime);
+            }
+            if (exception == null || exception instanceof SocketTimeoutException) {
+                latencyTracker.recordResponse(TimeUnit.NANOSECONDS.toMillis(end - requestTiming.connectedTime));
+                latencyTracker.recordRequest(TimeUnit.NANOSECONDS.toMillis(end - start));
+            }
+        }
 
-                    /*
-                     * Add the headers
-                     */
-                    for (String key : headerFields.keySet()) {
-                        httpGet.addHeader(key, headerFields.get(key));
-                    }
+        @Override
+        public void onRejected() {
+            isRunning = false;
+            complete(null, true);
+        }
 
-                    /*
-                     * Response from the Http Request
-                     */
-                    response = httpClient.execute(httpGet);
+        /**
+         * Subscribes to the result of the server fetcher.
+         * @param subscription The subscription which receives the result
+         * @return True if it has been subscribed.
+         *         False if the result has already been passed or the server fetcher has been stopped
+         */
+        public synchronized boolean subscribe(Subscription<T> subscription) {
+            if (isFinished || isCancelled) {
+                return false;
+            }
 
-                } else if (requestMethod == RequestMethod.RequestMethodPost) {
+            subscriptions.add(subscription);
+            subscription.subscribedFetcher = this;
+            return true;
+        }
 
-                    HttpPost httpPost = new HttpPost(uri.toString());
+        /**
+         * Removes a subscription. If there are no more subscriptions, the server fetcher is stopped.
+         * @param subscription The subscription to remove
+         */
+        public void unsubscribe(Subscription<T> subscription) {
+            boolean isLastOne;
+            synchronized (this) {
+                subscriptions.remove(subscription);
+                isLastOne = subscriptions.isEmpty() && !isFinished;
+            }
 
-                    /*
-                     * Add the headers
-                     */
-                    for (String key : headerFields.keySet()) {
-                        httpPost.addHeader(key, headerFields.get(key));
-                    }
+            if (isLastOne) {
+                leaveInFlightRequests();
+                stopFetching();
+                // If it is still waiting for a thread, it is not going to take any
+                requestScheduler.remove(this);
+            }
+        }
 
-                    /*
-                     * Add the values in the parameters
-                     */
-                    if (parameters != null) {
-                        List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>();
-                        for (String key : parameters.keySet()) {
-                            nameValuePairs.add(new BasicNameValuePair(key, parameters.get(key)));
-                        }
-                        httpPost.setEntity(new UrlEncodedFormEntity(nameValuePairs, "UTF-8"));
+        /**
+         * Completes the request. If it is hedged, the first copy which succeeds passes its result
+         * and the other one is stopped. The error is only passed once both copies have failed.
+         * @param result The result decoded
+         * @param error Indication of if any error happened or not
+         */
+        private void complete(T result, boolean error) {
+            if (primaryFetcher != null) {
+                primaryFetcher.onHedgeCompleted(result, error);
+                return;
+            }
+
+            ServerFetcher<T> hedgeToStop = null;
+            synchronized (this) {
+                isPrimaryCompleted = true;
+                if (hedge != null && !isHedgeCompleted) {
+                    if (error) {
+                        // The second copy may still succeed
+                        return;
                     }
+                    hedgeToStop = hedge;
+                }
+            }
 
-                    /*
-                     * Response from the Http Request
-                     */
-                    response = httpClient.execute(httpPost);
+            finish(result, error);
+            if (hedgeToStop != null) {
+                hedgeToStop.stopFetching();
+            }
+        }
 
-                } else if (requestMethod == RequestMethod.RequestMethodPut) {
-                    /*
-                     * TODO Implement it
-                     */
-                    Log.w(ServerFetcher.LOG_TAG, "Executing Request method not implemented: put");
-                } else if (requestMethod == RequestMethod.RequestMethodDelete) {
-                    /*
-                     * TODO Implement it
-                     */
-                    Log.w(ServerFetcher.LOG_TAG, "Executing Request method not implemented: delete");
+        /**
+         * Completes the second copy of the request.
+         * @param result The result decoded by the second copy
+         * @param error Indication of if any error happened or not in the second copy
+         */
+        private void onHedgeCompleted(T result, boolean error) {
+            boolean stopPrimary;
+            synchronized (this) {
+                isHedgeCompleted = true;
+                if (error && !isPrimaryCompleted) {
+                    // The first copy may still succeed
+                    return;
                 }
+                stopPrimary = !isPrimaryCompleted;
+            }
 
-                StatusLine statusLine = response.getStatusLine();
-                Log.v(ServerFetcher.LOG_TAG, "Status code" + statusLine.getStatusCode());
-                /*
-                 * Check the Http Request for success
-                 */
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                if (statusLine.getStatusCode() == HttpStatus.SC_OK) {
-                    response.getEntity().writeTo(out);
-                    out.close();
-                    dataObtained = out.toByteArray();
-                    error = false;
-                } else if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
-                    out.close();
-                    response.getEntity().getContent().close();
-                    error = true;
-                } else {
-                    /*
-                     * Close the connection
-                     */
-                    response.getEntity().getContent().close();
-                    throw new IOException(statusLine.getReasonPhrase());
+            if (stopPrimary) {
+                Logger.d(ServerFetcher.LOG_TAG, "The second copy of the request to {} has won", uri);
+            }
+            finish(result, error);
+            if (stopPrimary) {
+                stopFetching();
+            }
+        }
+
+        /**
+         * Sends a second copy of the request if it has not been answered after the time which
+         * takes 95% of the requests to the endpoint. Nothing is sent until the endpoint has
+         * enough latencies recorded.
+         */
+        private void scheduleHedge() {
+            long hedgeDelay = latencyTracker.getHedgeDelay();
+            if (hedgeDelay < 0) {
+                return;
+            }
+
+            RetryTimerHolder.TIMER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    sendHedge();
                 }
-            } catch (Exception e) {
-                Log.w(LOG_TAG, e.getLocalizedMessage(), e);
-                error = true;
-            } finally {
-                isRunning = false;
-                if (requestDataCallback != null) {
-                    requestDataCallback.done(dataObtained, error);
+            }, hedgeDelay, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Sends the second copy of the request, if it is still running and the budget of the
+         * endpoint allows it.
+         */
+        private void sendHedge() {
+            ServerFetcher<T> newHedge;
+            synchronized (this) {
+                if (isFinished || isCancelled || isPrimaryCompleted || hedge != null
+                        || !latencyTracker.tryHedge()) {
+                    return;
                 }
+                newHedge = new ServerFetcher<T>(requestMethod, uri, parameters, headerFields,
+                        authTokenProvider, compressRequestBody, false, responseDecoder, coalescingKey, this);
+                hedge = newHedge;
             }
+
+            Logger.d(ServerFetcher.LOG_TAG, "Sending a second copy of the request to {}", uri);
+            endpointMetrics.increment(RequestMetrics.Counter.HEDGES);
+            schedule(newHedge);
         }
-    }
 
-    /**
-     * The class which creates the threadPool as singleton.
-     */
-    private static final class ExecutorServiceSingleton {
+        /**
+         * Removes the server fetcher from the requests in flight, so no other request joins it.
+         */
+        private void leaveInFlightRequests() {
+            if (coalescingKey != null) {
+                IN_FLIGHT_REQUESTS.remove(coalescingKey, this);
+            }
+        }
 
         /**
-         * The number of the threads which are running in parallel.
+         * Passes the result to all the subscriptions which have not been cancelled.
+         * @param result The result decoded
+         * @param error Indication of if any error happened or not
          */
-        private static final int MAXIMUM_NUM_RUNNING_THREAD = 3;
+        private void finish(T result, boolean error) {
+            List<Subscription<T>> subscriptionsToDeliver;
+            synchronized (this) {
+                if (isFinished) {
+                    return;
+                }
+                isFinished = true;
+                subscriptionsToDeliver = new ArrayList<Subscription<T>>(subscriptions);
+            }
+            leaveInFlightRequests();
+
+            if (isCancelled) {
+                return;
+            }
+            if (error) {
+                endpointMetrics.increment(RequestMetrics.Counter.ERRORS);
+            }
+            for (Subscription<T> subscription : subscriptionsToDeliver) {
+                subscription.deliver(result, error);
+            }
+        }
 
         /**
-         * A class to hold the singleton.
+         * Creates the http request to send to the server.
+         * @return The http request with the headers and the parameters set
+         * @throws IOException if the request could not be created
          */
-        private static class SingletonHolder {
-            /**
-             * The instance of the class.
+        private HttpUriRequest createHttpUriRequest() throws IOException {
+            HttpUriRequest request;
+            switch (requestMethod) {
+            case RequestMethodGet:
+                request = new HttpGet(uri.toString());
+                break;
+            case RequestMethodDelete:
+                request = new HttpDelete(uri.toString());
+                break;
+            case RequestMethodPost:
+                request = withParameters(new HttpPost(uri.toString()));
+                break;
+            case RequestMethodPut:
+                request = withParameters(new HttpPut(uri.toString()));
+                break;
+            default:
+                throw new UnsupportedOperationException("Request method not implemented: " + requestMethod);
+            }
+
+            /*
+             * Add the headers
+             */
+            for (String key : headerFields.keySet()) {
+                request.addHeader(key, headerFields.get(key));
+            }
+
+            /*
+             * Add the auth token of the user. It is cached by the account manager, so
+             * usually the user does not need to log in again
              */
-            private static final ExecutorServiceSingleton INSTANCE = new ExecutorServiceSingleton();
+            if (authTokenProvider != null) {
+                authToken = authTokenProvider.getAuthToken();
+                if (authToken == null) {
+                    throw new AuthTokenUnavailableException("There is not any auth token for "
+                            + authTokenProvider.getAccountName());
+                }
+                request.setHeader("Authorization", "Bearer " + authToken);
+            }
+            setConnectionParams(request.getParams());
+
+            return request;
         }
 
         /**
-         * Creates the executor server as soft reference.
+         * Sets the parameters as the body of a request, encoded as a form.
+         * @param request The request which has a body, like POST or PUT
+         * @return The same request
+         * @throws IOException if the parameters could not be encoded
          */
-        private SoftReference<ExecutorService> executorServiceReference = new SoftReference<ExecutorService>(
-                createExecutorService());
+        private HttpUriRequest withParameters(HttpEntityEnclosingRequestBase request) throws IOException {
+            if (parameters != null) {
+                List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>();
+                for (String key : parameters.keySet()) {
+                    nameValuePairs.add(new BasicNameValuePair(key, parameters.get(key)));
+                }
+                HttpEntity entity = new UrlEncodedFormEntity(nameValuePairs, "UTF-8");
+                if (compressRequestBody && entity.getContentLength() >= MIN_COMPRESSED_BODY_SIZE) {
+                    entity = new GzipCompressingEntity(entity);
+                }
+                request.setEntity(entity);
+            }
+            return request;
+        }
 
         /**
-         * The empty constructor of the class.
+         * The first stage of the request. It sends the request and waits for the response.
+         * @param cacheEntry The response saved in the cache to revalidate, or null if there is not any
+         * @return The response of the server, with the content not read yet
+         * @throws IOException if there is any problem in the connection
          */
-        private ExecutorServiceSingleton() {
-        };
+        private HttpResponse fetch(HttpResponseCache.CacheEntry cacheEntry) throws IOException {
+            // Built before asking the circuit breaker, because it may fail without sending anything
+            HttpUriRequest request = createHttpUriRequest();
+            if (cacheEntry != null) {
+                if (cacheEntry.eTag != null) {
+                    request.addHeader("If-None-Match", cacheEntry.eTag);
+                }
+                if (cacheEntry.lastModified != null) {
+                    request.addHeader("If-Modified-Since", cacheEntry.lastModified);
+                }
+            }
+
+            /*
+             * If the host is failing, the request fails at once instead of waiting for the timeouts
+             */
+            CircuitBreaker circuitBreaker = CircuitBreaker.forHost(uri.getHost());
+            long circuitTicket = circuitBreaker.allowRequest();
+            if (circuitTicket == CircuitBreaker.REJECTED) {
+                endpointMetrics.increment(RequestMetrics.Counter.CIRCUIT_REJECTED);
+                throw new CircuitBreakerOpenException("The circuit of " + uri.getHost() + " is open");
+            }
+
+            httpUriRequest = request;
+            // If it was cancelled before the request was set, it would not be aborted
+            if (isCancelled) {
+                request.abort();
+            }
+
+            HttpContext httpContext = new BasicHttpContext();
+            requestTiming.reset();
+            httpContext.setAttribute(RequestTiming.ATTRIBUTE, requestTiming);
+            long start = System.nanoTime();
+            HttpResponse httpResponse = null;
+            boolean isFailureRecorded = false;
+            try {
+                httpResponse = httpClient.execute(request, httpContext);
+            } catch (IOException e) {
+                // The cancellations are not failures of the host
+                if (!isCancelled) {
+                    circuitBreaker.onFailure(circuitTicket, System.nanoTime() - start);
+                    isFailureRecorded = true;
+                    recordLatencies(start, e);
+                }
+                throw e;
+            } finally {
+                // Every request allowed reports its result, so a probe is never left in flight
+                if (httpResponse == null && !isFailureRecorded) {
+                    circuitBreaker.release(circuitTicket);
+                }
+            }
+            recordLatencies(start, null);
+
+            if (httpResponse.getStatusLine().getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                circuitBreaker.onFailure(circuitTicket, System.nanoTime() - start);
+            } else {
+                circuitBreaker.onSuccess(circuitTicket, System.nanoTime() - start);
+            }
+            return httpResponse;
+        }
 
         /**
-         * The public method to return the instance.
-         * @return A instance of the Singleton holder
+         * The second stage of the request. It decodes the content directly from the connection.
+         * @param entity The entity returned by the server
+         * @return The result decoded
+         * @throws Exception if the content could not be read or decoded
          */
-        public static ExecutorServiceSingleton instance() {
-            return SingletonHolder.INSTANCE;
+        private T decode(HttpEntity entity) throws Exception {
+            long decodeStart = System.nanoTime();
+            TimedInputStream content = timedContent.wrap(entity.getContent());
+            T result;
+            try {
+                result = responseDecoder.decode(content,
+                        EntityUtils.getContentCharSet(entity), entity.getContentLength());
+            } finally {
+                content.close();
+            }
+
+            // The content is decoded while it is read, so the time reading it is subtracted
+            long readNanos = content.getReadNanos();
+            endpointMetrics.record(RequestMetrics.Stage.BODY_READ, readNanos);
+            endpointMetrics.record(RequestMetrics.Stage.DECODE, System.nanoTime() - decodeStart - readNanos);
+            return result;
         }
 
         /**
-         * Method used to get the executor service.
-         * @return The executor service. Create it if it has not been created before
+         * The second stage of the request for the responses which can be cached. The content is
+         * read completely to save it in the cache and then it is decoded.
+         * @param entity The entity returned by the server
+         * @return The result decoded
+         * @throws Exception if the content could not be read or decoded
          */
-        public ExecutorService getExecutorService() {
-            ExecutorService executorService = executorServiceReference.get();
+        private T decodeAndCache(HttpEntity entity) throws Exception {
+            long readStart = System.nanoTime();
+            String charset = EntityUtils.getContentCharSet(entity);
+            byte[] body;
+            InputStream content = entity.getContent();
+            try {
+                body = new ByteArrayDecoder().decode(content, charset, entity.getContentLength());
+            } finally {
+                content.close();
+            }
 
-            if (executorService == null) {
-                // (the reference was cleared)
-                executorService = createExecutorService();
-                executorServiceReference = new SoftReference<ExecutorService>(executorService);
+            long decodeStart = System.nanoTime();
+            endpointMetrics.record(RequestMetrics.Stage.BODY_READ, decodeStart - readStart);
+            T result = responseDecoder.decode(new ByteArrayInputStream(body), charset, body.length);
+            endpointMetrics.record(RequestMetrics.Stage.DECODE, System.nanoTime() - decodeStart);
+            // Only the responses which can be decoded are saved, otherwise the next requests would fail too
+            HttpResponseCache.instance().put(uri.toString(), response, body, charset);
+            return result;
+        }
+
+        /**
+         * The second stage of the request for the responses obtained from the cache. If the
+         * response cannot be decoded, it is removed from the cache, so the next attempt goes
+         * to the network.
+         * @param cacheEntry The response saved in the cache
+         * @return The result decoded
+         * @throws Exception if the content could not be decoded
+         */
+        private T decodeCached(HttpResponseCache.CacheEntry cacheEntry) throws Exception {
+            long decodeStart = System.nanoTime();
+            T result;
+            try {
+                result = responseDecoder.decode(new ByteArrayInputStream(cacheEntry.body),
+                        cacheEntry.charset, cacheEntry.body.length);
+            } catch (Exception e) {
+                HttpResponseCache.instance().remove(cacheEntry.key);
+                throw e;
+            }
+            endpointMetrics.record(RequestMetrics.Stage.DECODE, System.nanoTime() - decodeStart);
+            return result;
+        }
+
+        /**
+         * Sends the request and decodes the response, revalidating the response saved in the cache
+         * if there is any.
+         * @param cacheEntry The stale response saved in the cache, or null if there is not any
+         * @param useCache True if the response can be saved in the cache
+         * @throws Exception if there is any problem in the connection or decoding the content
+         */
+        private void fetchAndDecode(HttpResponseCache.CacheEntry cacheEntry, boolean useCache) throws Exception {
+            long fetchStart = System.nanoTime();
+            response = fetch(cacheEntry);
+            endpointMetrics.record(RequestMetrics.Stage.FETCH, System.nanoTime() - fetchStart);
+
+            StatusLine statusLine = response.getStatusLine();
+            Logger.v(ServerFetcher.LOG_TAG, "Status line {}", statusLine);
+            /*
+             * Check the Http Request for success
+             */
+            if (statusLine.getStatusCode() == HttpStatus.SC_OK) {
+                resultObtained = useCache ? decodeAndCache(response.getEntity()) : decode(response.getEntity());
+                error = false;
+            } else if (statusLine.getStatusCode() == HttpStatus.SC_NOT_MODIFIED && cacheEntry != null) {
+                /*
+                 * The response saved has not changed. Release the connection and use it.
+                 */
+                if (response.getEntity() != null) {
+                    response.getEntity().consumeContent();
+                }
+                cacheEntry = HttpResponseCache.instance().revalidate(cacheEntry, response);
+                resultObtained = decodeCached(cacheEntry);
+                error = false;
+            } else {
+                int statusCode = statusLine.getStatusCode();
+                if (statusCode == HttpStatus.SC_UNAUTHORIZED && authToken != null) {
+                    /*
+                     * The auth token has expired or it has been revoked. The next attempt gets a new one
+                     */
+                    authTokenProvider.invalidateAuthToken(authToken);
+                    retryDelay = retryPolicy.getRetryDelayAfterAuthTokenRejected(attempt);
+                } else {
+                    Header retryAfter = response.getFirstHeader("Retry-After");
+                    retryDelay = retryPolicy.getRetryDelay(requestMethod, attempt, statusCode,
+                            retryAfter != null ? retryAfter.getValue() : null);
+                }
+
+                /*
+                 * Release the connection. The body is consumed, not decompressed
+                 */
+                if (response.getEntity() != null) {
+                    response.getEntity().consumeContent();
+                }
+                error = true;
+            }
+        }
+
+        @Override
+        public void run() {
+            if (isCancelled) {
+                return;
             }
 
-            return executorService;
+            Logger.v(ServerFetcher.LOG_TAG, "Running the request to {}", uri);
+            RequestMetrics requestMetrics = RequestMetrics.instance();
+            endpointMetrics.record(RequestMetrics.Stage.QUEUE_WAIT, System.nanoTime() - scheduledTime);
+            requestMetrics.add(RequestMetrics.Gauge.RUNNING_REQUESTS, 1);
+            isRunning = true;
+            attempt++;
+            if (attempt == 1 && primaryFetcher == null) {
+                endpointMetrics.increment(RequestMetrics.Counter.REQUESTS);
+                retryPolicy.onRequest();
+                latencyTracker.onRequest();
+                if (hedged) {
+                    scheduleHedge();
+                }
+            }
+            retryDelay = RetryPolicy.NO_RETRY;
+            authToken = null;
+            httpUriRequest = null;
+
+            try {
+                /*
+                 * Only the responses of the GET requests are cached, and not the ones of a specific user
+                 */
+                HttpResponseCache responseCache = HttpResponseCache.instance();
+                boolean useCache = requestMethod == RequestMethod.RequestMethodGet
+                        && authTokenProvider == null && HttpResponseCache.isCacheable(headerFields);
+                HttpResponseCache.CacheEntry cacheEntry = useCache ? responseCache.get(uri.toString()) : null;
+
+                if (cacheEntry != null && cacheEntry.isFresh()) {
+                    responseCache.recordHit();
+                    endpointMetrics.increment(RequestMetrics.Counter.CACHE_HITS);
+                    resultObtained = decodeCached(cacheEntry);
+                    error = false;
+                } else {
+                    fetchAndDecode(cacheEntry, useCache);
+                }
+            } catch (Exception e) {
+                if (isCancelled) {
+                    Logger.v(ServerFetcher.LOG_TAG, "Request to {} cancelled", uri);
+                } else {
+                    Logger.w(LOG_TAG, "Request to {} failed", uri, e);
+                    retryDelay = retryPolicy.getRetryDelay(requestMethod, attempt, e);
+                }
+                error = true;
+                /*
+                 * Release the connection, otherwise it is never given back to the pool
+                 */
+                if (httpUriRequest != null) {
+                    httpUriRequest.abort();
+                }
+            } finally {
+                requestMetrics.add(RequestMetrics.Gauge.RUNNING_REQUESTS, -1);
+                // The second copies are not sent again; the first copy may still succeed
+                if (error && !isCancelled && retryDelay != RetryPolicy.NO_RETRY && primaryFetcher == null) {
+                    retry();
+                } else {
+                    isRunning = false;
+                    complete(error ? null : resultObtained, error);
+                }
+            }
         }
 
         /**
-         * The method which creates a threadPool with limit number of threads.
-         * Those threads will be re-utilized and they should exist while the application is running.
-         * @return A threadPool with always same number of threads
+         * Sends the request again after the delay decided by the retry policy. The thread is
+         * released while waiting; the request is queued again in the scheduler after the delay.
          */
-        private ExecutorService createExecutorService() {
-            return Executors.newFixedThreadPool(ExecutorServiceSingleton.MAXIMUM_NUM_RUNNING_THREAD);
+        private void retry() {
+            Logger.d(ServerFetcher.LOG_TAG, "Sending the request to {} again in {} ms", uri, retryDelay);
+            endpointMetrics.increment(RequestMetrics.Counter.RETRIES);
+            if (retryDelay == 0) {
+                schedule(this);
+                return;
+            }
+
+            RetryTimerHolder.TIMER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCancelled) {
+                        schedule(ServerFetcher.this);
+                    }
+                }
+            }, retryDelay, TimeUnit.MILLISECONDS);
         }
     }
 }
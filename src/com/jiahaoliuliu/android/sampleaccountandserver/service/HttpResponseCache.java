@@ -0,0 +1,659 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+import android.support.v4.util.LruCache;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.util.Logger;
+import com.jiahaoliuliu.android.sampleaccountandserver.util.SecurityUtils;
+
+/**
+ * The cache of the responses of the GET requests.
+ * The responses are kept in a bounded memory tier and, if it has been installed, in a
+ * bounded disk tier. Both of them evict the least recently used responses first.
+ * The headers Cache-Control and Expires decide how long a response is fresh. Once it is
+ * stale, it is revalidated with If-None-Match and If-Modified-Since, so if it has not
+ * changed the server only returns the headers.
+ */
+public final class HttpResponseCache {
+
+    /**
+     * The tag used in logs.
+     */
+    private static final String LOG_TAG = HttpResponseCache.class.getSimpleName();
+
+    /**
+     * The maximum size of the memory tier.
+     */
+    private static final int MEMORY_CACHE_SIZE = 512 * 1024;
+
+    /**
+     * The version of the format of the files of the disk tier.
+     */
+    private static final int DISK_FORMAT_VERSION = 1;
+
+    /**
+     * A class to hold the singleton.
+     */
+    private static class SingletonHolder {
+        /**
+         * The instance of the class.
+         */
+        private static final HttpResponseCache INSTANCE = new HttpResponseCache();
+    }
+
+    /**
+     * The memory tier.
+     */
+    private final LruCache<String, CacheEntry> memoryCache;
+
+    /**
+     * The disk tier. It is null until the cache has been installed.
+     */
+    private volatile DiskCache diskCache;
+
+    /**
+     * The number of requests answered by the cache without going to the network.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * The number of requests which were not in the cache.
+     */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * The number of stale responses which the server said had not changed.
+     */
+    private final AtomicLong revalidatedCount = new AtomicLong();
+
+    /**
+     * The number of responses evicted from any of the tiers.
+     */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * The constructor of the class. It is private because it is a singleton.
+     */
+    private HttpResponseCache() {
+        this(MEMORY_CACHE_SIZE, null, 0);
+    }
+
+    /**
+     * The constructor of a cache apart from the singleton, with its own sizes. It is only used
+     * by the tests.
+     * @param memoryCacheSize The maximum size of the memory tier, in bytes
+     * @param directory The directory of the disk tier, or null to use only the memory tier
+     * @param maxDiskSize The maximum size of the disk tier, in bytes
+     */
+    HttpResponseCache(int memoryCacheSize, File directory, long maxDiskSize) {
+        if (directory != null) {
+            diskCache = new DiskCache(directory, maxDiskSize);
+        }
+        memoryCache = new LruCache<String, CacheEntry>(memoryCacheSize) {
+            @Override
+            protected int sizeOf(String key, CacheEntry cacheEntry) {
+                return cacheEntry.body.length;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, CacheEntry oldValue, CacheEntry newValue) {
+                if (evicted) {
+                    evictionCount.incrementAndGet();
+                }
+            }
+        };
+    }
+
+    /**
+     * The public method to return the instance.
+     * @return A instance of the Singleton holder
+     */
+    public static HttpResponseCache instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Installs the disk tier. Until it is installed, only the memory tier is used.
+     * @param directory The directory where the responses are saved
+     * @param maxSize The maximum size of the disk tier, in bytes
+     */
+    public static void install(File directory, long maxSize) {
+        HttpResponseCache cache = instance();
+        synchronized (cache) {
+            if (cache.diskCache == null) {
+                cache.diskCache = cache.new DiskCache(directory, maxSize);
+            }
+        }
+    }
+
+    /**
+     * Gets the response saved for the key.
+     * @param key The key of the response, which is its URI
+     * @return The response saved, fresh or not, or null if there is not any
+     */
+    CacheEntry get(String key) {
+        CacheEntry cacheEntry = memoryCache.get(key);
+        if (cacheEntry == null && diskCache != null) {
+            cacheEntry = diskCache.get(key);
+            if (cacheEntry != null) {
+                memoryCache.put(key, cacheEntry);
+            }
+        }
+
+        if (cacheEntry == null) {
+            missCount.incrementAndGet();
+        }
+        return cacheEntry;
+    }
+
+    /**
+     * Records that a fresh response has been used without going to the network.
+     */
+    void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    /**
+     * Saves the response, if its headers allow it.
+     * @param key The key of the response, which is its URI
+     * @param response The response of the server, with status 200
+     * @param body The content of the response
+     * @param charset The charset of the content
+     * @return True if the response has been saved.
+     *         False otherwise
+     */
+    boolean put(String key, HttpResponse response, byte[] body, String charset) {
+        CacheEntry cacheEntry = CacheEntry.fromResponse(key, response, body, charset);
+        if (cacheEntry == null) {
+            remove(key);
+            return false;
+        }
+
+        store(cacheEntry);
+        return true;
+    }
+
+    /**
+     * Updates the response saved with the headers of a 304 response.
+     * @param cacheEntry The response saved
+     * @param response The 304 response of the server
+     * @return The response updated
+     */
+    CacheEntry revalidate(CacheEntry cacheEntry, HttpResponse response) {
+        revalidatedCount.incrementAndGet();
+        CacheEntry updated = cacheEntry.updatedWith(response);
+        store(updated);
+        return updated;
+    }
+
+    /**
+     * Tells if the response of the request may be saved, depending on the headers of the request.
+     * @param requestHeaders The headers of the request
+     * @return True if the cache can be used
+     *         False otherwise
+     */
+    static boolean isCacheable(Map<String, String> requestHeaders) {
+        // The responses are saved by url, so the ones for a specific user must not be shared
+        if (requestHeaders.containsKey("Authorization")) {
+            return false;
+        }
+
+        String cacheControl = requestHeaders.get("Cache-Control");
+        return cacheControl == null || cacheControl.indexOf("no-store") == -1;
+    }
+
+    /**
+     * Saves the response in all the tiers.
+     * @param cacheEntry The response to save
+     */
+    private void store(CacheEntry cacheEntry) {
+        memoryCache.put(cacheEntry.key, cacheEntry);
+        if (diskCache != null) {
+            diskCache.put(cacheEntry);
+        }
+    }
+
+    /**
+     * Removes the response from all the tiers.
+     * @param key The key of the response
+     */
+    void remove(String key) {
+        memoryCache.remove(key);
+        if (diskCache != null) {
+            diskCache.remove(key);
+        }
+    }
+
+    /**
+     * Removes all the responses saved.
+     */
+    public void clear() {
+        memoryCache.evictAll();
+        if (diskCache != null) {
+            diskCache.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getRevalidatedCount() {
+        return revalidatedCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hitCount.get() + " misses=" + missCount.get()
+                + " revalidated=" + revalidatedCount.get() + " evictions=" + evictionCount.get();
+    }
+
+    /**
+     * A response saved in the cache. It is immutable.
+     */
+    static final class CacheEntry {
+
+        /**
+         * The key of the response, which is its URI.
+         */
+        final String key;
+
+        /**
+         * The content of the response.
+         */
+        final byte[] body;
+
+        /**
+         * The charset of the content. It might be null.
+         */
+        final String charset;
+
+        /**
+         * The value of the header ETag. It might be null.
+         */
+        final String eTag;
+
+        /**
+         * The value of the header Last-Modified. It might be null.
+         */
+        final String lastModified;
+
+        /**
+         * The time until the response is fresh, in milliseconds since epoch.
+         */
+        final long expires;
+
+        /**
+         * The main constructor.
+         * @param key The key of the response
+         * @param body The content of the response
+         * @param charset The charset of the content
+         * @param eTag The value of the header ETag
+         * @param lastModified The value of the header Last-Modified
+         * @param expires The time until the response is fresh
+         */
+        CacheEntry(String key, byte[] body, String charset, String eTag, String lastModified, long expires) {
+            this.key = key;
+            this.body = body;
+            this.charset = charset;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+
+        /**
+         * Creates the entry of a response, if its headers allow it to be saved.
+         * @param key The key of the response
+         * @param response The response of the server
+         * @param body The content of the response
+         * @param charset The charset of the content
+         * @return The entry, or null if the response must not be saved
+         */
+        static CacheEntry fromResponse(String key, HttpResponse response, byte[] body, String charset) {
+            if (response.containsHeader("Vary") && "*".equals(response.getFirstHeader("Vary").getValue())) {
+                return null;
+            }
+
+            long expires = expiresOf(response);
+            if (expires == Long.MIN_VALUE) {
+                return null;
+            }
+
+            String eTag = valueOf(response.getFirstHeader("ETag"));
+            String lastModified = valueOf(response.getFirstHeader("Last-Modified"));
+            // Without validators and without freshness, it could never be used
+            if (eTag == null && lastModified == null && expires <= System.currentTimeMillis()) {
+                return null;
+            }
+
+            return new CacheEntry(key, body, charset, eTag, lastModified, expires);
+        }
+
+        /**
+         * Creates a copy of the entry updated with the headers of a 304 response.
+         * @param response The 304 response of the server
+         * @return The entry updated
+         */
+        CacheEntry updatedWith(HttpResponse response) {
+            long newExpires = expiresOf(response);
+            String newETag = valueOf(response.getFirstHeader("ETag"));
+            String newLastModified = valueOf(response.getFirstHeader("Last-Modified"));
+            return new CacheEntry(key, body, charset,
+                    newETag != null ? newETag : eTag,
+                    newLastModified != null ? newLastModified : lastModified,
+                    newExpires == Long.MIN_VALUE ? 0 : newExpires);
+        }
+
+        /**
+         * Tells if the response can be used without asking the server.
+         * @return True if the response is fresh
+         *         False otherwise
+         */
+        boolean isFresh() {
+            return System.currentTimeMillis() < expires;
+        }
+
+        /**
+         * Calculates until when a response is fresh, from the headers Cache-Control and Expires.
+         * @param response The response of the server
+         * @return The time until the response is fresh, or Long.MIN_VALUE if it must not be saved
+         */
+        private static long expiresOf(HttpResponse response) {
+            long now = System.currentTimeMillis();
+            Header cacheControl = response.getFirstHeader("Cache-Control");
+            if (cacheControl != null) {
+                for (HeaderElement element : cacheControl.getElements()) {
+                    String name = element.getName();
+                    if ("no-store".equalsIgnoreCase(name)) {
+                        return Long.MIN_VALUE;
+                    } else if ("no-cache".equalsIgnoreCase(name)) {
+                        // It can be saved, but it must be always revalidated
+                        return 0;
+                    } else if ("max-age".equalsIgnoreCase(name) && element.getValue() != null) {
+                        try {
+                            return now + Long.parseLong(element.getValue()) * 1000;
+                        } catch (NumberFormatException e) {
+                            Logger.w(LOG_TAG, "Wrong max-age {}", element.getValue());
+                        }
+                    }
+                }
+            }
+
+            Header expiresHeader = response.getFirstHeader("Expires");
+            if (expiresHeader != null) {
+                try {
+                    Date expiresDate = DateUtils.parseDate(expiresHeader.getValue());
+                    return expiresDate.getTime();
+                } catch (DateParseException e) {
+                    // An invalid date means that it has already expired
+                    return 0;
+                }
+            }
+
+            return 0;
+        }
+
+        /**
+         * Gets the value of a header.
+         * @param header The header
+         * @return The value of the header, or null if the header does not exist
+         */
+        private static String valueOf(Header header) {
+            return header != null ? header.getValue() : null;
+        }
+    }
+
+    /**
+     * The disk tier. Each response is saved in its own file, and an index in memory
+     * keeps the order of use to evict the least recently used ones.
+     */
+    private class DiskCache {
+
+        /**
+         * The directory where the responses are saved.
+         */
+        private final File directory;
+
+        /**
+         * The maximum size of all the files.
+         */
+        private final long maxSize;
+
+        /**
+         * The files saved and their sizes, in order of use.
+         */
+        private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+        /**
+         * The size of all the files.
+         */
+        private long size;
+
+        /**
+         * The main constructor. It loads the index from the files already saved.
+         * @param directory The directory where the responses are saved
+         * @param maxSize The maximum size of all the files
+         */
+        public DiskCache(File directory, long maxSize) {
+            this.directory = directory;
+            this.maxSize = maxSize;
+
+            if (!directory.exists() && !directory.mkdirs()) {
+                Logger.w(LOG_TAG, "The directory of the cache could not be created {}", directory);
+            }
+
+            File[] files = directory.listFiles();
+            if (files != null) {
+                Arrays.sort(files, new Comparator<File>() {
+                    @Override
+                    public int compare(File lhs, File rhs) {
+                        long lhsModified = lhs.lastModified();
+                        long rhsModified = rhs.lastModified();
+                        return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+                    }
+                });
+                for (File file : files) {
+                    index.put(file.getName(), file.length());
+                    size += file.length();
+                }
+            }
+        }
+
+        /**
+         * Reads a response from its file.
+         * @param key The key of the response
+         * @return The response, or null if it is not saved
+         */
+        public synchronized CacheEntry get(String key) {
+            String fileName = fileNameOf(key);
+            if (index.get(fileName) == null) {
+                return null;
+            }
+
+            File file = new File(directory, fileName);
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (in.readInt() != DISK_FORMAT_VERSION || !key.equals(in.readUTF())) {
+                    return null;
+                }
+                String charset = readNullableString(in);
+                String eTag = readNullableString(in);
+                String lastModified = readNullableString(in);
+                long expires = in.readLong();
+                byte[] body = new byte[in.readInt()];
+                in.readFully(body);
+                return new CacheEntry(key, body, charset, eTag, lastModified, expires);
+            } catch (IOException e) {
+                Logger.w(LOG_TAG, "Error reading the cache file {}", file, e);
+                removeFile(fileName);
+                return null;
+            } finally {
+                closeQuietly(in);
+            }
+        }
+
+        /**
+         * Writes a response in its file and evicts the least recently used ones if it is full.
+         * @param cacheEntry The response to save
+         */
+        public synchronized void put(CacheEntry cacheEntry) {
+            String fileName = fileNameOf(cacheEntry.key);
+            File file = new File(directory, fileName);
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                out.writeInt(DISK_FORMAT_VERSION);
+                out.writeUTF(cacheEntry.key);
+                writeNullableString(out, cacheEntry.charset);
+                writeNullableString(out, cacheEntry.eTag);
+                writeNullableString(out, cacheEntry.lastModified);
+                out.writeLong(cacheEntry.expires);
+                out.writeInt(cacheEntry.body.length);
+                out.write(cacheEntry.body);
+            } catch (IOException e) {
+                Logger.w(LOG_TAG, "Error writing the cache file {}", file, e);
+                closeQuietly(out);
+                out = null;
+                removeFile(fileName);
+                return;
+            } finally {
+                closeQuietly(out);
+            }
+
+            Long oldSize = index.put(fileName, file.length());
+            size += file.length() - (oldSize != null ? oldSize : 0);
+            trimToSize();
+        }
+
+        /**
+         * Removes a response.
+         * @param key The key of the response
+         */
+        public synchronized void remove(String key) {
+            removeFile(fileNameOf(key));
+        }
+
+        /**
+         * Removes all the responses.
+         */
+        public synchronized void clear() {
+            for (String fileName : index.keySet()) {
+                new File(directory, fileName).delete();
+            }
+            index.clear();
+            size = 0;
+        }
+
+        /**
+         * Evicts the least recently used responses until the size is under the maximum.
+         */
+        private void trimToSize() {
+            Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                new File(directory, eldest.getKey()).delete();
+                size -= eldest.getValue();
+                iterator.remove();
+                evictionCount.incrementAndGet();
+            }
+        }
+
+        /**
+         * Removes a file and its entry in the index.
+         * @param fileName The name of the file
+         */
+        private void removeFile(String fileName) {
+            Long fileSize = index.remove(fileName);
+            if (fileSize != null) {
+                size -= fileSize;
+            }
+            new File(directory, fileName).delete();
+        }
+
+        /**
+         * Gets the name of the file of a response.
+         * @param key The key of the response
+         * @return The name of the file
+         */
+        private String fileNameOf(String key) {
+            try {
+                MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+                return SecurityUtils.toHex(messageDigest.digest(key.getBytes("UTF-8")));
+            } catch (NoSuchAlgorithmException e) {
+                return Integer.toHexString(key.hashCode());
+            } catch (IOException e) {
+                return Integer.toHexString(key.hashCode());
+            }
+        }
+
+        /**
+         * Writes a string which might be null.
+         * @param out The stream to write in
+         * @param value The string to write
+         * @throws IOException if the stream could not be written
+         */
+        private void writeNullableString(DataOutputStream out, String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+
+        /**
+         * Reads a string which might be null.
+         * @param in The stream to read from
+         * @return The string read
+         * @throws IOException if the stream could not be read
+         */
+        private String readNullableString(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+
+        /**
+         * Closes a stream ignoring the errors.
+         * @param closeable The stream to close
+         */
+        private void closeQuietly(Closeable closeable) {
+            if (closeable != null) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    Logger.w(LOG_TAG, "Error closing a cache file", e);
+                }
+            }
+        }
+    }
+}
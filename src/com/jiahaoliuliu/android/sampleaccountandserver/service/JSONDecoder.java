@@ -0,0 +1,67 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import org.apache.http.protocol.HTTP;
+import org.json.JSONObject;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.util.Logger;
+
+/**
+ * The decoder which parses the content of the response as JSON and converts it to a typed
+ * result. The content is read as text directly from the connection with its charset,
+ * UTF-8 by default, so there are no intermediate copies of the bytes.
+ * @param <T> The type of the result
+ */
+public abstract class JSONDecoder<T> implements ResponseDecoder<T> {
+
+    /**
+     * The tag used in logs.
+     */
+    private static final String LOG_TAG = JSONDecoder.class.getSimpleName();
+
+    /**
+     * The size of the buffer used to read the content.
+     */
+    private static final int BUFFER_SIZE = 2048;
+
+    /**
+     * The decoder which returns the JSON object without converting it.
+     */
+    public static final JSONDecoder<JSONObject> JSON_OBJECT = new JSONDecoder<JSONObject>() {
+        @Override
+        protected JSONObject fromJSON(JSONObject jsonObject) {
+            return jsonObject;
+        }
+    };
+
+    @Override
+    public T decode(InputStream inputStream, String charset, long contentLength) throws Exception {
+        Reader reader = new InputStreamReader(inputStream, charset != null ? charset : HTTP.UTF_8);
+        StringBuilder jsonString = new StringBuilder(
+                contentLength > 0 && contentLength < Integer.MAX_VALUE ? (int) contentLength : BUFFER_SIZE);
+        char[] buffer = new char[BUFFER_SIZE];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            jsonString.append(buffer, 0, read);
+        }
+
+        // An empty content is not an error
+        if (jsonString.length() == 0) {
+            return null;
+        }
+
+        Logger.vBody(LOG_TAG, "Response {}", jsonString);
+        return fromJSON(new JSONObject(jsonString.toString()));
+    }
+
+    /**
+     * Converts the JSON object returned by the server to the typed result.
+     * @param jsonObject The JSON object parsed
+     * @return The typed result
+     * @throws Exception if the JSON object does not contain the expected data
+     */
+    protected abstract T fromJSON(JSONObject jsonObject) throws Exception;
+}
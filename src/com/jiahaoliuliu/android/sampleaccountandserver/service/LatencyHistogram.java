@@ -0,0 +1,170 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The histogram of the latencies of an operation, in the unit chosen by who records them.
+ * The memory used is always the same, however many values are recorded, and recording a value
+ * does not allocate anything.
+ * The buckets are log-linear, as in HdrHistogram: each power of two is split in eight buckets,
+ * so the percentiles have an error of 12.5% at most, from 1 until the maximum value given.
+ * Each power of two costs 32 bytes, so the maximum should be the longest latency which matters:
+ * two minutes in microseconds take 200 buckets, 800 bytes.
+ * The histogram follows the recent values: every time DECAY_PERIOD values have been recorded,
+ * all the counts are halved, so the old values weigh less and less. So the counts of the buckets
+ * never reach 2 * DECAY_PERIOD, and they fit in an int.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * The number of bits of the sub buckets of each power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * The number of sub buckets of each power of two.
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of values recorded between two decays.
+     */
+    private static final int DECAY_PERIOD = 1024;
+
+    /**
+     * The maximum value recorded. The bigger values are recorded as this one.
+     */
+    private final long maxValue;
+
+    /**
+     * The number of buckets needed to cover the values until maxValue.
+     */
+    private final int bucketCount;
+
+    /**
+     * The number of values recorded in each bucket.
+     */
+    private final AtomicIntegerArray counts;
+
+    /**
+     * The number of values recorded since the histogram was created.
+     */
+    private final AtomicLong totalRecorded = new AtomicLong();
+
+    /**
+     * The main constructor.
+     * @param maxValue The maximum value recorded. The bigger values are recorded as this one
+     */
+    public LatencyHistogram(long maxValue) {
+        this.maxValue = maxValue;
+        bucketCount = bucketIndex(maxValue) + 1;
+        counts = new AtomicIntegerArray(bucketCount);
+    }
+
+    /**
+     * Records a latency.
+     * @param value The latency
+     */
+    public void record(long value) {
+        counts.incrementAndGet(bucketIndex(Math.max(0, Math.min(value, maxValue))));
+        if (totalRecorded.incrementAndGet() % DECAY_PERIOD == 0) {
+            decay();
+        }
+    }
+
+    /**
+     * Gets the number of values in the histogram, after the decays.
+     * @return The number of values
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of values recorded since the histogram was created, without the decays.
+     * @return The number of values
+     */
+    public long getTotalCount() {
+        return totalRecorded.get();
+    }
+
+    /**
+     * Gets a percentile of the latencies.
+     * @param percentile The percentile, between 0 and 100
+     * @return The latency below which the percentile of the values is, or -1 if the histogram is empty
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return -1;
+        }
+
+        // The values recorded meanwhile may move it slightly, which does not matter for a percentile
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long accumulated = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            accumulated += counts.get(i);
+            if (accumulated >= target) {
+                return highestValueInBucket(i);
+            }
+        }
+        return maxValue;
+    }
+
+    /**
+     * Removes all the values recorded.
+     */
+    public void reset() {
+        for (int i = 0; i < bucketCount; i++) {
+            counts.set(i, 0);
+        }
+        totalRecorded.set(0);
+    }
+
+    /**
+     * Halves the counts of all the buckets. The values recorded meanwhile are not lost,
+     * because only the half of the count read is subtracted.
+     */
+    private void decay() {
+        for (int i = 0; i < bucketCount; i++) {
+            int count = counts.get(i);
+            if (count > 1) {
+                counts.addAndGet(i, -(count / 2));
+            }
+        }
+    }
+
+    /**
+     * Calculates the bucket of a value. The values below SUB_BUCKET_COUNT have a bucket each one.
+     * The rest are split by their highest bit, and then by the SUB_BUCKET_BITS bits after it.
+     * @param value The value, between 0 and the maximum value
+     * @return The index of the bucket
+     */
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    /**
+     * Calculates the highest value of a bucket.
+     * @param index The index of the bucket
+     * @return The highest value which is recorded in the bucket
+     */
+    private static long highestValueInBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
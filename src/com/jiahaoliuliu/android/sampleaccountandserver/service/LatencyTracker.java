@@ -0,0 +1,214 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import android.net.Uri;
+
+/**
+ * The tracker of the latencies of an endpoint, which decides the timeouts of its requests.
+ * The timeouts are a multiple of the 99th percentile of the recent latencies, inside some
+ * bounds. So the requests to a fast endpoint fail soon when something goes wrong, and the
+ * ones to a slow endpoint do not keep a thread waiting for the longest timeout.
+ * The requests which time out are recorded with the time they have waited, so if the endpoint
+ * becomes slower, the timeouts grow with it.
+ * It also decides when a hedged request sends its second copy, and keeps the budget of the
+ * second copies of the endpoint.
+ */
+public final class LatencyTracker {
+
+    /**
+     * The connect timeout until there are enough latencies recorded, in milliseconds.
+     */
+    private static final int DEFAULT_CONNECT_TIMEOUT = 3 * 1000;
+
+    /**
+     * The minimum connect timeout, in milliseconds.
+     */
+    private static final int MIN_CONNECT_TIMEOUT = 1000;
+
+    /**
+     * The maximum connect timeout, in milliseconds.
+     */
+    private static final int MAX_CONNECT_TIMEOUT = 10 * 1000;
+
+    /**
+     * The read timeout until there are enough latencies recorded, in milliseconds.
+     */
+    private static final int DEFAULT_READ_TIMEOUT = 30 * 1000;
+
+    /**
+     * The minimum read timeout, in milliseconds.
+     */
+    private static final int MIN_READ_TIMEOUT = 2 * 1000;
+
+    /**
+     * The maximum read timeout, in milliseconds.
+     */
+    private static final int MAX_READ_TIMEOUT = 30 * 1000;
+
+    /**
+     * The percentile of the latencies which the timeouts are based on.
+     */
+    private static final double TIMEOUT_PERCENTILE = 99;
+
+    /**
+     * The number of times the percentile which is waited before the timeout.
+     */
+    private static final int TIMEOUT_MULTIPLIER = 2;
+
+    /**
+     * The percentile of the latencies after which a hedged request sends its second copy.
+     */
+    private static final double HEDGE_PERCENTILE = 95;
+
+    /**
+     * The number of requests needed to allow a second copy. The second copies are at most 5%
+     * of the requests to the endpoint.
+     */
+    private static final int HEDGE_COST = 20;
+
+    /**
+     * The number of second copies which can be sent in a row.
+     */
+    private static final int MAX_HEDGES_IN_A_ROW = 3;
+
+    /**
+     * The minimum number of latencies recorded before the timeouts are calculated from them.
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    /**
+     * The longest latency kept in the histograms, in milliseconds. The longer ones are recorded
+     * as this one, which is still above the longest timeout.
+     */
+    private static final long MAX_LATENCY = 2 * 60 * 1000;
+
+    /**
+     * The trackers of all the endpoints. Their number is bounded.
+     */
+    private static final EndpointRegistry<LatencyTracker> LATENCY_TRACKERS = new EndpointRegistry<LatencyTracker>() {
+        @Override
+        protected LatencyTracker create(String name) {
+            return new LatencyTracker();
+        }
+    };
+
+    /**
+     * The time to open a new connection to the server. The connections reused from the pool
+     * are not recorded, otherwise they would hide the real connects.
+     */
+    private final LatencyHistogram connectLatencies = new LatencyHistogram(MAX_LATENCY);
+
+    /**
+     * The time from sending the request until the response arrives.
+     */
+    private final LatencyHistogram responseLatencies = new LatencyHistogram(MAX_LATENCY);
+
+    /**
+     * The time from starting the request until the response arrives, including the connection.
+     */
+    private final LatencyHistogram requestLatencies = new LatencyHistogram(MAX_LATENCY);
+
+    /**
+     * The budget of the second copies of the hedged requests.
+     */
+    private final RequestBudget hedgeBudget = new RequestBudget(HEDGE_COST, MAX_HEDGES_IN_A_ROW);
+
+    /**
+     * The constructor of the class. The trackers are obtained with forEndpoint.
+     */
+    private LatencyTracker() {
+    }
+
+    /**
+     * Gets the tracker of an endpoint, creating it if it does not exist. The endpoint is the
+     * host and the path of the uri, without the identifiers; the query is not part of it.
+     * @param uri The uri of the request
+     * @return The tracker of the endpoint
+     */
+    public static LatencyTracker forEndpoint(Uri uri) {
+        return LATENCY_TRACKERS.get(uri);
+    }
+
+    /**
+     * Records the time a request took to open a new connection.
+     * @param durationMillis The time, in milliseconds
+     */
+    public void recordConnect(long durationMillis) {
+        connectLatencies.record(durationMillis);
+    }
+
+    /**
+     * Records the time a request took to get the response, once it was sent.
+     * @param durationMillis The time, in milliseconds
+     */
+    public void recordResponse(long durationMillis) {
+        responseLatencies.record(durationMillis);
+    }
+
+    /**
+     * Records the time a request took from starting until the response arrived.
+     * @param durationMillis The time, in milliseconds
+     */
+    public void recordRequest(long durationMillis) {
+        requestLatencies.record(durationMillis);
+    }
+
+    /**
+     * Informs that a new request is going to be sent. It adds to the budget of the second copies.
+     */
+    public void onRequest() {
+        hedgeBudget.deposit();
+    }
+
+    /**
+     * Gets the time after which a hedged request sends its second copy, if it has not been answered.
+     * @return The time, in milliseconds, or -1 if there are not enough latencies to know it
+     */
+    public long getHedgeDelay() {
+        if (requestLatencies.getCount() < MIN_SAMPLES) {
+            return -1;
+        }
+        return requestLatencies.getPercentile(HEDGE_PERCENTILE);
+    }
+
+    /**
+     * Takes a second copy from the budget, if there are enough requests to allow it.
+     * @return True if the second copy can be sent.
+     *         False otherwise
+     */
+    public boolean tryHedge() {
+        return hedgeBudget.withdraw();
+    }
+
+    /**
+     * Gets the timeout to get a connection to the endpoint.
+     * @return The timeout, in milliseconds
+     */
+    public int getConnectTimeout() {
+        return calculateTimeout(connectLatencies, DEFAULT_CONNECT_TIMEOUT, MIN_CONNECT_TIMEOUT, MAX_CONNECT_TIMEOUT);
+    }
+
+    /**
+     * Gets the timeout to wait for the data of the endpoint.
+     * @return The timeout, in milliseconds
+     */
+    public int getReadTimeout() {
+        return calculateTimeout(responseLatencies, DEFAULT_READ_TIMEOUT, MIN_READ_TIMEOUT, MAX_READ_TIMEOUT);
+    }
+
+    /**
+     * Calculates a timeout from the latencies recorded.
+     * @param latencies The latencies recorded
+     * @param defaultTimeout The timeout used until there are enough latencies
+     * @param minTimeout The minimum timeout
+     * @param maxTimeout The maximum timeout
+     * @return The timeout, in milliseconds
+     */
+    private static int calculateTimeout(LatencyHistogram latencies, int defaultTimeout,
+            int minTimeout, int maxTimeout) {
+        if (latencies.getCount() < MIN_SAMPLES) {
+            return defaultTimeout;
+        }
+        long timeout = latencies.getPercentile(TIMEOUT_PERCENTILE) * TIMEOUT_MULTIPLIER;
+        return (int) Math.max(minTimeout, Math.min(maxTimeout, timeout));
+    }
+}
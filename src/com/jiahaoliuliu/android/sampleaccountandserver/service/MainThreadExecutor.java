@@ -0,0 +1,47 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.util.concurrent.Executor;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * The executor which runs the tasks in the main thread.
+ * It is used to call the callbacks of the futures in the main thread.
+ */
+public final class MainThreadExecutor implements Executor {
+
+    /**
+     * A class to hold the singleton.
+     */
+    private static class SingletonHolder {
+        /**
+         * The instance of the class.
+         */
+        private static final MainThreadExecutor INSTANCE = new MainThreadExecutor();
+    }
+
+    /**
+     * The handler of the main thread.
+     */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The constructor of the class. It is private because it is a singleton.
+     */
+    private MainThreadExecutor() {
+    }
+
+    /**
+     * The public method to return the instance.
+     * @return A instance of the Singleton holder
+     */
+    public static MainThreadExecutor instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        handler.post(command);
+    }
+}
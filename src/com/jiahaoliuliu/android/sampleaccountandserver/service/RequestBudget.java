@@ -0,0 +1,72 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The budget of the extra requests, like the retries or the hedged requests. Each request
+ * adds a fraction of an extra request to it and each extra request takes a whole one, so the
+ * extra requests are at most that fraction of the requests, plus the initial balance which
+ * allows some of them when there is not much traffic.
+ */
+final class RequestBudget {
+
+    /**
+     * The units added by each request.
+     */
+    private static final int DEPOSIT = 1;
+
+    /**
+     * The units taken by each extra request.
+     */
+    private final int cost;
+
+    /**
+     * The maximum balance.
+     */
+    private final int maxBalance;
+
+    /**
+     * The units available.
+     */
+    private final AtomicInteger balance;
+
+    /**
+     * The main constructor. The budget starts full.
+     * @param cost The number of requests needed to allow an extra one
+     * @param maxExtraRequests The number of extra requests which can be done in a row
+     */
+    RequestBudget(int cost, int maxExtraRequests) {
+        this.cost = cost;
+        this.maxBalance = maxExtraRequests * cost;
+        this.balance = new AtomicInteger(maxBalance);
+    }
+
+    /**
+     * Adds the units of a request.
+     */
+    public void deposit() {
+        while (true) {
+            int current = balance.get();
+            if (current >= maxBalance || balance.compareAndSet(current, current + DEPOSIT)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes the units of an extra request, if there are enough.
+     * @return True if the extra request is allowed.
+     *         False otherwise
+     */
+    public boolean withdraw() {
+        while (true) {
+            int current = balance.get();
+            if (current < cost) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - cost)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,553 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.completionhandler.RequestResultCallback;
+import com.jiahaoliuliu.android.sampleaccountandserver.util.Logger;
+
+/**
+ * The future result of a request to the server, as an alternative to the callbacks.
+ * The futures can be chained, limited in time and awaited together. The chained
+ * operations run in the thread which completes the future, so there is no thread
+ * blocked waiting for the result unless {@link #get()} is called.
+ * @param <T> The type of the result
+ */
+public class RequestFuture<T> implements Future<T> {
+
+    /**
+     * The tag used for log
+     */
+    private static final String LOG_TAG = RequestFuture.class.getSimpleName();
+
+    /**
+     * The interface used to convert the result of a future into another value.
+     * @param <I> The type of the input
+     * @param <O> The type of the output
+     */
+    public interface Transformation<I, O> {
+
+        /**
+         * Converts the result of the future.
+         * @param input The result of the future
+         * @return The value converted
+         * @throws Exception if the value could not be converted
+         */
+        O apply(I input) throws Exception;
+    }
+
+    /**
+     * The interface used to chain a future after the result of another future.
+     * @param <I> The type of the input
+     * @param <O> The type of the result of the future chained
+     */
+    public interface AsyncTransformation<I, O> {
+
+        /**
+         * Starts the next operation with the result of the future.
+         * @param input The result of the future
+         * @return The future of the next operation
+         * @throws Exception if the next operation could not be started
+         */
+        RequestFuture<O> apply(I input) throws Exception;
+    }
+
+    /**
+     * The executor which runs the tasks in the thread which calls it.
+     */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * A class to hold the timer used for the timeouts. It is only created if any timeout is used.
+     */
+    private static class TimerHolder {
+        /**
+         * The timer which fails the futures when their timeout expires.
+         */
+        private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, RequestFuture.class.getSimpleName() + "Timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * The states of the future.
+     */
+    private enum State {
+        PENDING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED
+    }
+
+    /**
+     * The actual state of the future.
+     */
+    private State state = State.PENDING;
+
+    /**
+     * The result, if the future has succeeded.
+     */
+    private T result;
+
+    /**
+     * The cause of the failure, if the future has failed.
+     */
+    private Throwable exception;
+
+    /**
+     * The listeners waiting for the future to be completed.
+     */
+    private List<Runnable> listeners = new ArrayList<Runnable>();
+
+    /**
+     * The actions which stop the operation when the future is cancelled or times out.
+     */
+    private final List<Runnable> cancellationActions = new ArrayList<Runnable>();
+
+    /**
+     * Creates a future which has already succeeded.
+     * @param result The result of the future
+     * @param <T> The type of the result
+     * @return The future succeeded
+     */
+    public static <T> RequestFuture<T> succeeded(T result) {
+        RequestFuture<T> future = new RequestFuture<T>();
+        future.set(result);
+        return future;
+    }
+
+    /**
+     * Creates a future which has already failed.
+     * @param exception The cause of the failure
+     * @param <T> The type of the result
+     * @return The future failed
+     */
+    public static <T> RequestFuture<T> failed(Throwable exception) {
+        RequestFuture<T> future = new RequestFuture<T>();
+        future.setException(exception);
+        return future;
+    }
+
+    /**
+     * Creates a future which succeeds when all the futures given succeed, or fails as soon
+     * as any of them fails. If it is cancelled, all the futures given are cancelled.
+     * @param futures The futures to wait for
+     * @param <T> The type of the result of the futures
+     * @return A future with the list of results, in the same order as the futures given
+     */
+    public static <T> RequestFuture<List<T>> allOf(final List<RequestFuture<T>> futures) {
+        final RequestFuture<List<T>> allFuture = new RequestFuture<List<T>>();
+        if (futures.isEmpty()) {
+            allFuture.set(Collections.<T>emptyList());
+            return allFuture;
+        }
+
+        @SuppressWarnings("unchecked")
+        final T[] results = (T[]) new Object[futures.size()];
+        final AtomicInteger remaining = new AtomicInteger(futures.size());
+
+        for (int i = 0; i < futures.size(); i++) {
+            final int index = i;
+            final RequestFuture<T> future = futures.get(i);
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    State futureState = future.getState();
+                    if (futureState == State.SUCCEEDED) {
+                        results[index] = future.result;
+                        if (remaining.decrementAndGet() == 0) {
+                            allFuture.set(Arrays.asList(results));
+                        }
+                    } else if (futureState == State.FAILED) {
+                        allFuture.setException(future.exception);
+                    } else {
+                        allFuture.setException(new CancellationException());
+                    }
+                }
+            }, DIRECT_EXECUTOR);
+        }
+
+        allFuture.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                for (RequestFuture<T> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        });
+
+        // Fail fast: once it has failed, the rest are not needed
+        allFuture.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (allFuture.getState() == State.FAILED) {
+                    for (RequestFuture<T> future : futures) {
+                        future.cancel(false);
+                    }
+                }
+            }
+        }, DIRECT_EXECUTOR);
+
+        return allFuture;
+    }
+
+    /**
+     * Completes the future successfully.
+     * @param result The result of the future
+     * @return True if the future has been completed.
+     *         False if it was already completed
+     */
+    public boolean set(T result) {
+        return complete(State.SUCCEEDED, result, null);
+    }
+
+    /**
+     * Completes the future with a failure.
+     * @param exception The cause of the failure
+     * @return True if the future has been completed.
+     *         False if it was already completed
+     */
+    public boolean setException(Throwable exception) {
+        return complete(State.FAILED, null, exception);
+    }
+
+    /**
+     * Adds an action which stops the operation when the future is cancelled or times out.
+     * The actions are run in the order they were added. If the future has already been
+     * cancelled, the action is run immediately.
+     * @param action The action to run
+     */
+    public void onCancel(Runnable action) {
+        synchronized (this) {
+            if (state != State.CANCELLED) {
+                cancellationActions.add(action);
+                return;
+            }
+        }
+        runSafely(action);
+    }
+
+    /**
+     * Completes the future and runs its listeners.
+     * @param newState The final state
+     * @param newResult The result, if it has succeeded
+     * @param newException The cause of the failure, if it has failed
+     * @return True if the future has been completed.
+     *         False if it was already completed
+     */
+    private boolean complete(State newState, T newResult, Throwable newException) {
+        List<Runnable> listenersToRun;
+        synchronized (this) {
+            if (state != State.PENDING) {
+                return false;
+            }
+            state = newState;
+            result = newResult;
+            exception = newException;
+            listenersToRun = listeners;
+            listeners = null;
+            notifyAll();
+        }
+
+        for (Runnable listener : listenersToRun) {
+            runSafely(listener);
+        }
+        return true;
+    }
+
+    /**
+     * Runs the actions which stop the operation, if there is any.
+     */
+    private void runCancellationActions() {
+        List<Runnable> actions;
+        synchronized (this) {
+            actions = new ArrayList<Runnable>(cancellationActions);
+        }
+
+        for (Runnable action : actions) {
+            runSafely(action);
+        }
+    }
+
+    /**
+     * Runs a listener or a cancellation action. If it fails, the failure is logged, so the
+     * rest of them are still run and the thread which completes the future is not affected.
+     * @param task The listener or the action to run
+     */
+    private static void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            Logger.e(LOG_TAG, "Error running a listener of the future", e);
+        }
+    }
+
+    /**
+     * Gets the state of the future.
+     * @return The actual state
+     */
+    private synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!complete(State.CANCELLED, null, null)) {
+            return false;
+        }
+
+        runCancellationActions();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == State.CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state != State.PENDING;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (state == State.PENDING) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException,
+            ExecutionException, TimeoutException {
+        long remainingNanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remainingNanos;
+        while (state == State.PENDING) {
+            if (remainingNanos <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+            remainingNanos = deadline - System.nanoTime();
+        }
+        return getResult();
+    }
+
+    /**
+     * Gets the result of the future once it has been completed.
+     * @return The result
+     * @throws ExecutionException if the future has failed
+     */
+    private T getResult() throws ExecutionException {
+        if (state == State.CANCELLED) {
+            throw new CancellationException();
+        } else if (state == State.FAILED) {
+            throw new ExecutionException(exception);
+        }
+        return result;
+    }
+
+    /**
+     * Adds a listener which is run when the future is completed.
+     * If the future is already completed, it is run immediately.
+     * @param listener The listener to run
+     * @param executor The executor which runs the listener
+     */
+    public void addListener(final Runnable listener, final Executor executor) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(listener);
+            }
+        };
+
+        synchronized (this) {
+            if (state == State.PENDING) {
+                listeners.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Adds a callback which is called when the future is completed.
+     * As with the cancelled requests, the callback is not called if the future is cancelled.
+     * @param callback The callback to call
+     * @param executor The executor which calls the callback, for example {@link MainThreadExecutor}
+     */
+    public void addCallback(final RequestResultCallback<T> callback, Executor executor) {
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                State finalState = getState();
+                if (finalState == State.SUCCEEDED) {
+                    callback.done(result, false);
+                } else if (finalState == State.FAILED) {
+                    callback.done(null, true);
+                }
+            }
+        }, executor);
+    }
+
+    /**
+     * Adds a callback which is called in the thread which completes the future.
+     * @param callback The callback to call
+     */
+    public void addCallback(RequestResultCallback<T> callback) {
+        addCallback(callback, DIRECT_EXECUTOR);
+    }
+
+    /**
+     * Creates a future which converts the result of this future.
+     * Cancelling the new future cancels this one.
+     * @param transformation The conversion of the result
+     * @param <O> The type of the result converted
+     * @return The future of the result converted
+     */
+    public <O> RequestFuture<O> then(final Transformation<? super T, ? extends O> transformation) {
+        final RequestFuture<O> nextFuture = new RequestFuture<O>();
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                State finalState = getState();
+                if (finalState == State.SUCCEEDED) {
+                    try {
+                        nextFuture.set(transformation.apply(result));
+                    } catch (Exception e) {
+                        nextFuture.setException(e);
+                    }
+                } else if (finalState == State.FAILED) {
+                    nextFuture.setException(exception);
+                } else {
+                    nextFuture.cancel(false);
+                }
+            }
+        }, DIRECT_EXECUTOR);
+
+        nextFuture.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                cancel(false);
+            }
+        });
+        return nextFuture;
+    }
+
+    /**
+     * Creates a future which starts another operation with the result of this future
+     * and completes with the result of that operation. Cancelling the new future cancels
+     * this one or the operation started.
+     * @param transformation The operation to start with the result
+     * @param <O> The type of the result of the operation
+     * @return The future of the result of the operation
+     */
+    public <O> RequestFuture<O> thenCompose(final AsyncTransformation<? super T, O> transformation) {
+        final RequestFuture<O> nextFuture = new RequestFuture<O>();
+        final AtomicReference<RequestFuture<O>> startedFuture = new AtomicReference<RequestFuture<O>>();
+
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                State finalState = getState();
+                if (finalState == State.FAILED) {
+                    nextFuture.setException(exception);
+                    return;
+                } else if (finalState == State.CANCELLED) {
+                    nextFuture.cancel(false);
+                    return;
+                }
+
+                final RequestFuture<O> future;
+                try {
+                    future = transformation.apply(result);
+                } catch (Exception e) {
+                    nextFuture.setException(e);
+                    return;
+                }
+
+                startedFuture.set(future);
+                future.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        State futureState = future.getState();
+                        if (futureState == State.SUCCEEDED) {
+                            nextFuture.set(future.result);
+                        } else if (futureState == State.FAILED) {
+                            nextFuture.setException(future.exception);
+                        } else {
+                            nextFuture.cancel(false);
+                        }
+                    }
+                }, DIRECT_EXECUTOR);
+
+                if (nextFuture.isCancelled()) {
+                    future.cancel(false);
+                }
+            }
+        }, DIRECT_EXECUTOR);
+
+        nextFuture.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                cancel(false);
+                RequestFuture<O> future = startedFuture.get();
+                if (future != null) {
+                    future.cancel(false);
+                }
+            }
+        });
+        return nextFuture;
+    }
+
+    /**
+     * Fails the future with a {@link TimeoutException} if it is not completed in the time given.
+     * The operation is stopped as if the future had been cancelled.
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return This future
+     */
+    public RequestFuture<T> withTimeout(long timeout, TimeUnit unit) {
+        final ScheduledFuture<?> timeoutTask = TimerHolder.TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (setException(new TimeoutException("The request has not finished in time"))) {
+                    runCancellationActions();
+                }
+            }
+        }, timeout, unit);
+
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                timeoutTask.cancel(false);
+            }
+        }, DIRECT_EXECUTOR);
+        return this;
+    }
+}
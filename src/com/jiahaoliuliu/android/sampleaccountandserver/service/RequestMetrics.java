@@ -0,0 +1,458 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.net.Uri;
+
+/**
+ * The registry of the metrics of the requests: how long each stage takes, the counters of
+ * the events and the gauges of the current state, in total and for each endpoint.
+ * The stages QUEUE_WAIT until DECODE run in the threads of the scheduler. DISPATCH is the time
+ * the result waits in the queue of the main thread and DELIVER is the time the callback
+ * takes in the main thread, which is the only work done there.
+ * Recording a value does not allocate anything, so it can be done in every request. The metrics
+ * are read with getSnapshot, which can be exported to find regressions. The state of the
+ * circuit breakers of the hosts is part of it.
+ */
+public final class RequestMetrics {
+
+    /**
+     * The stages of a request.
+     */
+    public enum Stage {
+        /**
+         * Waiting in the queue of the scheduler for a thread.
+         */
+        QUEUE_WAIT,
+        /**
+         * Opening a new connection: resolving the host, connecting and the handshake. The requests
+         * which reuse a connection from the pool do not record it.
+         */
+        CONNECT,
+        /**
+         * Sending the request through the connection and waiting for the response.
+         */
+        TIME_TO_FIRST_BYTE,
+        /**
+         * Sending the request and waiting for the response. It includes CONNECT, if a new
+         * connection is opened, and TIME_TO_FIRST_BYTE.
+         */
+        FETCH,
+        /**
+         * Reading the content of the response from the connection.
+         */
+        BODY_READ,
+        /**
+         * Decoding the content of the response, without the time reading it.
+         */
+        DECODE,
+        /**
+         * Waiting in the queue of the main thread.
+         */
+        DISPATCH,
+        /**
+         * Running the callback in the main thread.
+         */
+        DELIVER
+    }
+
+    /**
+     * The events counted.
+     */
+    public enum Counter {
+        /**
+         * A request has been sent, without counting its retries and its second copies.
+         */
+        REQUESTS,
+        /**
+         * A request has finished with error, after all its attempts.
+         */
+        ERRORS,
+        /**
+         * A request has been sent again after failing.
+         */
+        RETRIES,
+        /**
+         * A second copy of a hedged request has been sent.
+         */
+        HEDGES,
+        /**
+         * A request has been answered from the cache without asking the server.
+         */
+        CACHE_HITS,
+        /**
+         * A request has joined an identical one in flight instead of being sent.
+         */
+        COALESCED,
+        /**
+         * A request has failed at once because the circuit of its host was open.
+         */
+        CIRCUIT_REJECTED
+    }
+
+    /**
+     * The values of the current state.
+     */
+    public enum Gauge {
+        /**
+         * The number of requests running in the threads of the schedulers.
+         */
+        RUNNING_REQUESTS
+    }
+
+    /**
+     * The longest duration kept in the histograms of the endpoints, in microseconds. The longer
+     * ones are recorded as this one; the maximum of each stage is still kept exactly.
+     */
+    private static final long MAX_HISTOGRAM_DURATION = TimeUnit.MINUTES.toMicros(2);
+
+    /**
+     * A class to hold the singleton.
+     */
+    private static class SingletonHolder {
+        /**
+         * The instance of the class.
+         */
+        private static final RequestMetrics INSTANCE = new RequestMetrics();
+    }
+
+    /**
+     * The statistics of each stage, indexed by the ordinal of the stage.
+     */
+    private final StageStatistics[] stageStatistics;
+
+    /**
+     * The counters of the events, indexed by the ordinal of the counter.
+     */
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+    /**
+     * The gauges, indexed by the ordinal of the gauge.
+     */
+    private final AtomicLongArray gauges = new AtomicLongArray(Gauge.values().length);
+
+    /**
+     * The metrics of each endpoint. Their number is bounded, because each one keeps a
+     * histogram for each stage.
+     */
+    private final EndpointRegistry<Endpoint> endpoints = new EndpointRegistry<Endpoint>() {
+        @Override
+        protected Endpoint create(String name) {
+            return new Endpoint(name);
+        }
+    };
+
+    /**
+     * The constructor of the class. It is private because it is a singleton.
+     */
+    private RequestMetrics() {
+        Stage[] stages = Stage.values();
+        stageStatistics = new StageStatistics[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            stageStatistics[i] = new StageStatistics();
+        }
+    }
+
+    /**
+     * The public method to return the instance.
+     * @return A instance of the Singleton holder
+     */
+    public static RequestMetrics instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Gets the metrics of an endpoint, creating them if they do not exist. The endpoint is the
+     * host and the path of the uri, without the identifiers; the query is not part of it.
+     * The requests get their endpoint once, so recording their values does not need to look
+     * for it again.
+     * @param uri The uri of the request
+     * @return The metrics of the endpoint
+     */
+    public Endpoint forEndpoint(Uri uri) {
+        return endpoints.get(uri);
+    }
+
+    /**
+     * Records the duration of a stage.
+     * @param stage The stage which has finished
+     * @param durationNanos The time the stage took, in nanoseconds
+     */
+    public void record(Stage stage, long durationNanos) {
+        stageStatistics[stage.ordinal()].record(durationNanos);
+    }
+
+    /**
+     * Counts an event.
+     * @param counter The event
+     */
+    public void increment(Counter counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    /**
+     * Changes the value of a gauge.
+     * @param gauge The gauge
+     * @param delta The value added to the gauge, which may be negative
+     */
+    public void add(Gauge gauge, long delta) {
+        gauges.addAndGet(gauge.ordinal(), delta);
+    }
+
+    /**
+     * Gets the number of times a stage has been recorded.
+     * @param stage The stage
+     * @return The number of times recorded
+     */
+    public long getCount(Stage stage) {
+        return stageStatistics[stage.ordinal()].count.get();
+    }
+
+    /**
+     * Gets the mean duration of a stage.
+     * @param stage The stage
+     * @return The mean duration in milliseconds, or 0 if it has not been recorded
+     */
+    public double getMeanMillis(Stage stage) {
+        StageStatistics statistics = stageStatistics[stage.ordinal()];
+        long count = statistics.count.get();
+        if (count == 0) {
+            return 0;
+        }
+        return (double) statistics.totalNanos.get() / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Gets the maximum duration of a stage.
+     * @param stage The stage
+     * @return The maximum duration in milliseconds
+     */
+    public double getMaxMillis(Stage stage) {
+        return (double) stageStatistics[stage.ordinal()].maxNanos.get() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Gets the number of times an event has happened.
+     * @param counter The event
+     * @return The number of times
+     */
+    public long getCount(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * Gets the current value of a gauge.
+     * @param gauge The gauge
+     * @return The value
+     */
+    public long getValue(Gauge gauge) {
+        return gauges.get(gauge.ordinal());
+    }
+
+    /**
+     * Gets all the metrics at this moment, with a name each one. The names are:
+     * <ul>
+     * <li>counter.[counter] and gauge.[gauge].</li>
+     * <li>stage.[stage].count, .meanMicros and .maxMicros, for all the endpoints.</li>
+     * <li>endpoint.[host/path].[stage].count, .p50Micros, .p95Micros and .p99Micros.
+     * The percentiles are of the recent values.</li>
+     * <li>endpoint.[host/path].counter.[counter].</li>
+     * <li>endpoint.other, with the same metrics, for the endpoints beyond the maximum.</li>
+     * <li>circuit.[host].state, with the ordinal of the state, .opened and .rejected.</li>
+     * </ul>
+     * @return The metrics sorted by name
+     */
+    public Map<String, Long> getSnapshot() {
+        Map<String, Long> snapshot = new TreeMap<String, Long>();
+        for (Counter counter : Counter.values()) {
+            snapshot.put("counter." + counter.name(), getCount(counter));
+        }
+        for (Gauge gauge : Gauge.values()) {
+            snapshot.put("gauge." + gauge.name(), getValue(gauge));
+        }
+
+        long nanosPerMicro = TimeUnit.MICROSECONDS.toNanos(1);
+        for (Stage stage : Stage.values()) {
+            StageStatistics statistics = stageStatistics[stage.ordinal()];
+            long count = statistics.count.get();
+            String prefix = "stage." + stage.name();
+            snapshot.put(prefix + ".count", count);
+            snapshot.put(prefix + ".meanMicros", count == 0 ? 0 : statistics.totalNanos.get() / count / nanosPerMicro);
+            snapshot.put(prefix + ".maxMicros", statistics.maxNanos.get() / nanosPerMicro);
+        }
+
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.addTo(snapshot);
+        }
+
+        for (CircuitBreaker circuitBreaker : CircuitBreaker.getCircuitBreakers()) {
+            String prefix = "circuit." + circuitBreaker.getHost();
+            snapshot.put(prefix + ".state", (long) circuitBreaker.getState().ordinal());
+            snapshot.put(prefix + ".opened", circuitBreaker.getOpenCount());
+            snapshot.put(prefix + ".rejected", circuitBreaker.getRejectedCount());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Removes all the values recorded. The gauges are not changed, because they are the
+     * current state.
+     */
+    public void reset() {
+        for (StageStatistics statistics : stageStatistics) {
+            statistics.count.set(0);
+            statistics.totalNanos.set(0);
+            statistics.maxNanos.set(0);
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        // The requests in flight keep their endpoints, so they are emptied instead of removed
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            result.append(stage.name())
+                .append(": count=").append(getCount(stage))
+                .append(" mean=").append(getMeanMillis(stage)).append("ms")
+                .append(" max=").append(getMaxMillis(stage)).append("ms\n");
+        }
+        for (Counter counter : Counter.values()) {
+            result.append(counter.name()).append(": ").append(getCount(counter)).append('\n');
+        }
+        for (Gauge gauge : Gauge.values()) {
+            result.append(gauge.name()).append(": ").append(getValue(gauge)).append('\n');
+        }
+        for (CircuitBreaker circuitBreaker : CircuitBreaker.getCircuitBreakers()) {
+            result.append(circuitBreaker).append('\n');
+        }
+        return result.toString();
+    }
+
+    /**
+     * The metrics of an endpoint. The values recorded in it are recorded in the totals too.
+     */
+    public final class Endpoint {
+
+        /**
+         * The host and the path of the endpoint.
+         */
+        private final String name;
+
+        /**
+         * The durations of each stage, in microseconds, indexed by the ordinal of the stage.
+         */
+        private final LatencyHistogram[] stageLatencies;
+
+        /**
+         * The counters of the events, indexed by the ordinal of the counter.
+         */
+        private final AtomicLongArray endpointCounters = new AtomicLongArray(Counter.values().length);
+
+        /**
+         * The main constructor.
+         * @param name The host and the path of the endpoint
+         */
+        private Endpoint(String name) {
+            this.name = name;
+            Stage[] stages = Stage.values();
+            stageLatencies = new LatencyHistogram[stages.length];
+            for (int i = 0; i < stages.length; i++) {
+                stageLatencies[i] = new LatencyHistogram(MAX_HISTOGRAM_DURATION);
+            }
+        }
+
+        /**
+         * Records the duration of a stage of a request to the endpoint.
+         * @param stage The stage which has finished
+         * @param durationNanos The time the stage took, in nanoseconds
+         */
+        public void record(Stage stage, long durationNanos) {
+            stageLatencies[stage.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+            RequestMetrics.this.record(stage, durationNanos);
+        }
+
+        /**
+         * Counts an event of a request to the endpoint.
+         * @param counter The event
+         */
+        public void increment(Counter counter) {
+            endpointCounters.incrementAndGet(counter.ordinal());
+            RequestMetrics.this.increment(counter);
+        }
+
+        /**
+         * Removes all the values recorded in the endpoint.
+         */
+        private void reset() {
+            for (LatencyHistogram latencies : stageLatencies) {
+                latencies.reset();
+            }
+            for (int i = 0; i < endpointCounters.length(); i++) {
+                endpointCounters.set(i, 0);
+            }
+        }
+
+        /**
+         * Adds the metrics of the endpoint to a snapshot.
+         * @param snapshot The snapshot
+         */
+        private void addTo(Map<String, Long> snapshot) {
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram latencies = stageLatencies[stage.ordinal()];
+                String prefix = "endpoint." + name + "." + stage.name();
+                snapshot.put(prefix + ".count", latencies.getTotalCount());
+                snapshot.put(prefix + ".p50Micros", latencies.getPercentile(50));
+                snapshot.put(prefix + ".p95Micros", latencies.getPercentile(95));
+                snapshot.put(prefix + ".p99Micros", latencies.getPercentile(99));
+            }
+            for (Counter counter : Counter.values()) {
+                snapshot.put("endpoint." + name + ".counter." + counter.name(),
+                        endpointCounters.get(counter.ordinal()));
+            }
+        }
+    }
+
+    /**
+     * The values recorded for a stage.
+     */
+    private static final class StageStatistics {
+
+        /**
+         * The number of times recorded.
+         */
+        private final AtomicLong count = new AtomicLong();
+
+        /**
+         * The sum of all the durations recorded.
+         */
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        /**
+         * The maximum duration recorded.
+         */
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        /**
+         * Records a duration.
+         * @param durationNanos The duration in nanoseconds
+         */
+        private void record(long durationNanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(durationNanos);
+            long max = maxNanos.get();
+            while (durationNanos > max && !maxNanos.compareAndSet(max, durationNanos)) {
+                max = maxNanos.get();
+            }
+        }
+    }
+}
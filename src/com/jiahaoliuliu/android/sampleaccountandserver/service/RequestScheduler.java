@@ -0,0 +1,335 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.util.Logger;
+
+/**
+ * The scheduler which runs the requests to the server in a pool of threads.
+ * The requests waiting for a thread are queued in lanes by priority, so a login
+ * is not queued behind a background synchronization. The queue is bounded; when
+ * it is full the rejection policy decides what to do with the new request.
+ */
+public class RequestScheduler {
+
+    /**
+     * The tag used in logs.
+     */
+    private static final String LOG_TAG = RequestScheduler.class.getSimpleName();
+
+    /**
+     * The default number of the threads which are running in parallel.
+     */
+    public static final int DEFAULT_NUM_RUNNING_THREAD = 3;
+
+    /**
+     * The default maximum number of requests waiting for a thread.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    /**
+     * The priority of the requests. The requests with higher priority are run first.
+     */
+    public enum Priority {
+        /**
+         * Requests which the user is waiting for, like the login.
+         */
+        HIGH,
+        /**
+         * The default priority.
+         */
+        NORMAL,
+        /**
+         * Requests done in background, like the synchronization.
+         */
+        LOW
+    }
+
+    /**
+     * What to do with a new request when the queue is full.
+     */
+    public enum RejectionPolicy {
+        /**
+         * The new request is rejected.
+         */
+        ABORT,
+        /**
+         * The newest request of the lowest priority in the queue is discarded if its
+         * priority is lower than the priority of the new request. Otherwise the new
+         * request is rejected.
+         */
+        DISCARD_LOWEST_PRIORITY
+    }
+
+    /**
+     * The interface implemented by the tasks which must be informed when they
+     * are not going to be run.
+     */
+    public interface Rejectable {
+
+        /**
+         * Method called when the task has been rejected or discarded by the scheduler.
+         */
+        void onRejected();
+    }
+
+    /**
+     * A class to hold the default scheduler.
+     */
+    private static class SingletonHolder {
+        /**
+         * The instance of the class.
+         */
+        private static final RequestScheduler INSTANCE = new RequestScheduler(DEFAULT_NUM_RUNNING_THREAD,
+                DEFAULT_QUEUE_CAPACITY, RejectionPolicy.ABORT);
+    }
+
+    /**
+     * The maximum number of requests waiting for a thread.
+     */
+    private final int queueCapacity;
+
+    /**
+     * The policy applied when the queue is full.
+     */
+    private final RejectionPolicy rejectionPolicy;
+
+    /**
+     * The queue of the requests waiting for a thread, sorted by priority.
+     */
+    private final PriorityBlockingQueue<Runnable> queue;
+
+    /**
+     * The threadPool which contains all the threads used to communicate with the server.
+     * It is hold as a strong reference until the scheduler is shut down.
+     */
+    private final ThreadPoolExecutor threadPool;
+
+    /**
+     * The counter used to keep the arrival order of the requests with the same priority.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * The main constructor.
+     * @param numberOfThreads The number of the threads which are running in parallel
+     * @param queueCapacity The maximum number of requests waiting for a thread
+     * @param rejectionPolicy The policy applied when the queue is full
+     */
+    public RequestScheduler(int numberOfThreads, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        this.queueCapacity = queueCapacity;
+        this.rejectionPolicy = rejectionPolicy;
+        queue = new PriorityBlockingQueue<Runnable>();
+        threadPool = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, 0L, TimeUnit.MILLISECONDS,
+                queue, new RequestThreadFactory());
+    }
+
+    /**
+     * The public method to return the default scheduler.
+     * @return The scheduler shared by the requests which do not set their own
+     */
+    public static RequestScheduler instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Queues the task to be run in the threadPool.
+     * @param task The task to run
+     * @param priority The priority of the task
+     * @throws RejectedExecutionException if the queue is full or the scheduler has been shut down
+     */
+    public void execute(Runnable task, Priority priority) {
+        PrioritizedTask prioritizedTask = new PrioritizedTask(task, priority, sequence.getAndIncrement());
+        Runnable discarded = null;
+
+        synchronized (queue) {
+            if (threadPool.isShutdown()) {
+                throw new RejectedExecutionException("The scheduler has been shut down");
+            }
+
+            if (queue.size() >= queueCapacity) {
+                if (rejectionPolicy == RejectionPolicy.DISCARD_LOWEST_PRIORITY) {
+                    discarded = findLowestPriority(prioritizedTask);
+                }
+
+                if (discarded == null || !queue.remove(discarded)) {
+                    throw new RejectedExecutionException("The queue of requests is full");
+                }
+            }
+
+            threadPool.execute(prioritizedTask);
+        }
+
+        if (discarded != null) {
+            Logger.w(LOG_TAG, "Request discarded because the queue is full");
+            reject(discarded);
+        }
+    }
+
+    /**
+     * Finds the newest queued task with the lowest priority, if it is lower than
+     * the priority of the given task.
+     * @param newTask The task which is going to be queued
+     * @return The task to discard, or null if there is not any
+     */
+    private PrioritizedTask findLowestPriority(PrioritizedTask newTask) {
+        PrioritizedTask lowest = null;
+        for (Runnable runnable : queue) {
+            PrioritizedTask queued = (PrioritizedTask) runnable;
+            if (lowest == null || queued.compareTo(lowest) > 0) {
+                lowest = queued;
+            }
+        }
+
+        if (lowest != null && lowest.priority.compareTo(newTask.priority) > 0) {
+            return lowest;
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes a task which is still waiting for a thread.
+     * @param task The task to remove
+     * @return True if the task was in the queue and it has been removed.
+     *         False otherwise
+     */
+    public boolean remove(Runnable task) {
+        synchronized (queue) {
+            for (Runnable runnable : queue) {
+                if (((PrioritizedTask) runnable).task == task) {
+                    return queue.remove(runnable);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops accepting new tasks. The tasks already queued are still run.
+     */
+    public void shutdown() {
+        synchronized (queue) {
+            threadPool.shutdown();
+        }
+    }
+
+    /**
+     * Stops accepting new tasks and discards the queued ones, informing them.
+     * The running tasks are interrupted.
+     */
+    public void shutdownNow() {
+        List<Runnable> pending;
+        synchronized (queue) {
+            pending = threadPool.shutdownNow();
+        }
+
+        for (Runnable runnable : pending) {
+            reject(runnable);
+        }
+    }
+
+    /**
+     * Waits until all the tasks have finished after a shut down.
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return True if all the tasks finished.
+     *         False if the timeout elapsed before
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return threadPool.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Tells the number of the tasks waiting for a thread.
+     * @return The number of queued tasks
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Informs the task that it is not going to be run.
+     * @param runnable The task rejected
+     */
+    private static void reject(Runnable runnable) {
+        Runnable task = runnable instanceof PrioritizedTask ? ((PrioritizedTask) runnable).task : runnable;
+        if (task instanceof Rejectable) {
+            ((Rejectable) task).onRejected();
+        }
+    }
+
+    /**
+     * The wrapper of the tasks which sorts them by priority, and by arrival order
+     * within the same priority.
+     */
+    private static final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+
+        /**
+         * The task to run.
+         */
+        private final Runnable task;
+
+        /**
+         * The priority of the task.
+         */
+        private final Priority priority;
+
+        /**
+         * The arrival order of the task.
+         */
+        private final long sequence;
+
+        /**
+         * The main constructor.
+         * @param task The task to run
+         * @param priority The priority of the task
+         * @param sequence The arrival order of the task
+         */
+        public PrioritizedTask(Runnable task, Priority priority, long sequence) {
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask another) {
+            int result = priority.compareTo(another.priority);
+            if (result == 0) {
+                result = sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The factory which creates the threads of the pool.
+     */
+    private static final class RequestThreadFactory implements ThreadFactory {
+
+        /**
+         * The counter used to name the threads.
+         */
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, LOG_TAG + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+/**
+ * The times of the execution of a request by the http client. It is put in the http context,
+ * where the connection operator and the interceptors of the client fill it.
+ * Each server fetcher has one, which is reset before each execution, so measuring the
+ * requests does not allocate anything. It is only used by the thread which executes the request.
+ */
+final class RequestTiming {
+
+    /**
+     * The attribute of the http context with the timing of the request.
+     */
+    static final String ATTRIBUTE = "com.jiahaoliuliu.android.sampleaccountandserver.request-timing";
+
+    /**
+     * Whether a new connection has started to be opened for the request.
+     */
+    boolean isConnecting;
+
+    /**
+     * The time when the new connection started to be opened, in nanoseconds of System.nanoTime.
+     */
+    long connectStartTime;
+
+    /**
+     * The time the new connection took to be opened, in nanoseconds, or -1 if the request has
+     * not opened any connection: it has reused one from the pool or it has failed before.
+     */
+    long connectDuration;
+
+    /**
+     * Whether the connection was ready to send the request.
+     */
+    boolean isConnected;
+
+    /**
+     * The time when the connection was ready to send the request, in nanoseconds of System.nanoTime.
+     */
+    long connectedTime;
+
+    /**
+     * The constructor of the class.
+     */
+    RequestTiming() {
+        reset();
+    }
+
+    /**
+     * Forgets the times of the previous execution.
+     */
+    void reset() {
+        isConnecting = false;
+        connectStartTime = 0;
+        connectDuration = -1;
+        isConnected = false;
+        connectedTime = 0;
+    }
+
+    /**
+     * Records that a new connection starts to be opened.
+     */
+    void onConnectStarted() {
+        isConnecting = true;
+        connectStartTime = System.nanoTime();
+    }
+
+    /**
+     * Records that the new connection has been opened.
+     */
+    void onConnectFinished() {
+        connectDuration = System.nanoTime() - connectStartTime;
+    }
+
+    /**
+     * Records that the connection, new or reused, is ready to send the request.
+     */
+    void onConnected() {
+        isConnected = true;
+        connectedTime = System.nanoTime();
+    }
+}
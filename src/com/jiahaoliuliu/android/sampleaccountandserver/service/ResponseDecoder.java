@@ -0,0 +1,22 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.io.InputStream;
+
+/**
+ * The interface implemented by the classes which decode the content returned by the server.
+ * The decoding is done in the thread of the request, reading directly from the connection,
+ * so it must not touch the user interface.
+ * @param <T> The type of the result
+ */
+public interface ResponseDecoder<T> {
+
+    /**
+     * Decodes the content returned by the server.
+     * @param inputStream The stream of the content. It is closed by the caller
+     * @param charset The charset of the content
+     * @param contentLength The length of the content, or a negative number if it is unknown
+     * @return The result decoded
+     * @throws Exception if the content could not be decoded
+     */
+    T decode(InputStream inputStream, String charset, long contentLength) throws Exception;
+}
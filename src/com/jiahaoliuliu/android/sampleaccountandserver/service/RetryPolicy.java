@@ -0,0 +1,255 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.Random;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.exception.AuthTokenUnavailableException;
+import com.jiahaoliuliu.android.sampleaccountandserver.exception.CircuitBreakerOpenException;
+import com.jiahaoliuliu.android.sampleaccountandserver.service.HttpRequest.RequestMethod;
+
+/**
+ * The policy which decides if a failed request is sent again and when.
+ * <ul>
+ * <li>The requests which may have reached the server are only sent again if their method is
+ * idempotent. The ones which have not reached it, because the connection failed or the server
+ * asked to wait, are sent again whatever the method is.</li>
+ * <li>The time between attempts grows exponentially, with a random jitter so the clients do not
+ * retry all at the same time. If the server sends Retry-After, it is respected.</li>
+ * <li>The retries of all the requests share a budget, a small fraction of the requests sent,
+ * so a server which is down does not receive several times the usual traffic.</li>
+ * <li>The requests which have not been sent because of a local error, like the lack of an auth
+ * token, are never sent again: they would fail the same way and spend the budget.</li>
+ * </ul>
+ */
+public class RetryPolicy {
+
+    /**
+     * The value returned when the request must not be sent again.
+     */
+    static final long NO_RETRY = -1;
+
+    /**
+     * The budget shared by the retries of all the requests. The retries are at most 20% of
+     * the requests, and up to 10 in a row. It is created before the policies which use it.
+     */
+    private static final RequestBudget RETRY_BUDGET = new RequestBudget(5, 10);
+
+    /**
+     * The policy used by default: three attempts, starting with half a second between them.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, 500, 10 * 1000, 30 * 1000);
+
+    /**
+     * The policy which never sends the requests again.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0);
+
+    /**
+     * The random generator of the jitter.
+     */
+    private static final Random RANDOM = new Random();
+
+    /**
+     * The maximum number of attempts, including the first one.
+     */
+    private final int maxAttempts;
+
+    /**
+     * The base of the exponential backoff, in milliseconds.
+     */
+    private final long baseDelay;
+
+    /**
+     * The maximum time between two attempts, in milliseconds.
+     */
+    private final long maxDelay;
+
+    /**
+     * The maximum time accepted in the header Retry-After, in milliseconds. If the server
+     * asks to wait longer, the request fails.
+     */
+    private final long maxRetryAfter;
+
+    /**
+     * The budget of the retries.
+     */
+    private final RequestBudget retryBudget;
+
+    /**
+     * The main constructor. The retries share the budget of all the requests.
+     * @param maxAttempts The maximum number of attempts, including the first one
+     * @param baseDelay The base of the exponential backoff, in milliseconds
+     * @param maxDelay The maximum time between two attempts, in milliseconds
+     * @param maxRetryAfter The maximum time accepted in the header Retry-After, in milliseconds
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, long maxRetryAfter) {
+        this(maxAttempts, baseDelay, maxDelay, maxRetryAfter, RETRY_BUDGET);
+    }
+
+    /**
+     * The constructor of the policies with their own budget.
+     * @param maxAttempts The maximum number of attempts, including the first one
+     * @param baseDelay The base of the exponential backoff, in milliseconds
+     * @param maxDelay The maximum time between two attempts, in milliseconds
+     * @param maxRetryAfter The maximum time accepted in the header Retry-After, in milliseconds
+     * @param retryBudget The budget of the retries
+     */
+    RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, long maxRetryAfter, RequestBudget retryBudget) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxRetryAfter = maxRetryAfter;
+        this.retryBudget = retryBudget;
+    }
+
+    /**
+     * Informs that a new request is going to be sent. It adds to the budget of the retries.
+     */
+    void onRequest() {
+        retryBudget.deposit();
+    }
+
+    /**
+     * Tells if the method can be sent several times with the same effect.
+     * @param requestMethod The method of the request
+     * @return True if the method is idempotent.
+     *         False otherwise
+     */
+    static boolean isIdempotent(RequestMethod requestMethod) {
+        return requestMethod != RequestMethod.RequestMethodPost;
+    }
+
+    /**
+     * Decides if a request which has failed with an exception is sent again.
+     * @param requestMethod The method of the request
+     * @param attempt The number of attempts done, starting at 1
+     * @param exception The exception thrown by the attempt
+     * @return The time to wait before the next attempt, in milliseconds, or NO_RETRY
+     */
+    long getRetryDelay(RequestMethod requestMethod, int attempt, Exception exception) {
+        if (!(exception instanceof IOException)) {
+            // The content could not be decoded. Sending it again would give the same content
+            return NO_RETRY;
+        }
+        if (exception instanceof CircuitBreakerOpenException) {
+            // The circuit stays open longer than any backoff
+            return NO_RETRY;
+        }
+        if (exception instanceof AuthTokenUnavailableException) {
+            // The request has not been sent, and the next attempt would not have a token either
+            return NO_RETRY;
+        }
+
+        boolean requestNotSent = exception instanceof ConnectTimeoutException
+                || exception instanceof ConnectException
+                || exception instanceof UnknownHostException;
+        if (!requestNotSent) {
+            // Any other interruption is a cancellation, except the timeout reading the response
+            if (exception instanceof InterruptedIOException
+                    && !(exception instanceof SocketTimeoutException)) {
+                return NO_RETRY;
+            }
+            if (!isIdempotent(requestMethod)) {
+                return NO_RETRY;
+            }
+        }
+
+        return retry(attempt, 0);
+    }
+
+    /**
+     * Decides if a request which has been answered with an error status is sent again.
+     * @param requestMethod The method of the request
+     * @param attempt The number of attempts done, starting at 1
+     * @param statusCode The status code of the response
+     * @param retryAfter The value of the header Retry-After, or null if there is not any
+     * @return The time to wait before the next attempt, in milliseconds, or NO_RETRY
+     */
+    long getRetryDelay(RequestMethod requestMethod, int attempt, int statusCode, String retryAfter) {
+        switch (statusCode) {
+        case HttpStatus.SC_SERVICE_UNAVAILABLE:
+        case 429: // Too many requests
+            // The server has not processed the request
+            break;
+        case HttpStatus.SC_REQUEST_TIMEOUT:
+        case HttpStatus.SC_BAD_GATEWAY:
+        case HttpStatus.SC_GATEWAY_TIMEOUT:
+            if (!isIdempotent(requestMethod)) {
+                return NO_RETRY;
+            }
+            break;
+        default:
+            return NO_RETRY;
+        }
+
+        long retryAfterDelay = parseRetryAfter(retryAfter);
+        if (retryAfterDelay > maxRetryAfter) {
+            return NO_RETRY;
+        }
+        return retry(attempt, retryAfterDelay);
+    }
+
+    /**
+     * Decides if a request whose auth token has been rejected is sent again. It is sent at once,
+     * only once, because the next attempt gets a new token.
+     * @param attempt The number of attempts done, starting at 1
+     * @return The time to wait before the next attempt, in milliseconds, or NO_RETRY
+     */
+    long getRetryDelayAfterAuthTokenRejected(int attempt) {
+        if (attempt > 1 || attempt >= maxAttempts) {
+            return NO_RETRY;
+        }
+        return 0;
+    }
+
+    /**
+     * Calculates the time to wait before the next attempt, if there are attempts left and
+     * the budget allows it.
+     * @param attempt The number of attempts done, starting at 1
+     * @param minDelay The minimum time to wait, in milliseconds
+     * @return The time to wait, in milliseconds, or NO_RETRY
+     */
+    private long retry(int attempt, long minDelay) {
+        if (attempt >= maxAttempts || !retryBudget.withdraw()) {
+            return NO_RETRY;
+        }
+
+        // Full jitter: a random time between 0 and the exponential backoff
+        long backoff = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 16));
+        long delay = backoff > 0 ? (long) (RANDOM.nextDouble() * backoff) : 0;
+        return Math.max(minDelay, delay);
+    }
+
+    /**
+     * Parses the header Retry-After, which may be a number of seconds or a date.
+     * @param retryAfter The value of the header, or null if there is not any
+     * @return The time to wait, in milliseconds, or 0 if it is not set or it is not valid
+     */
+    private static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+
+        retryAfter = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(retryAfter) * 1000);
+        } catch (NumberFormatException numberFormatException) {
+            try {
+                Date date = DateUtils.parseDate(retryAfter);
+                return Math.max(0, date.getTime() - System.currentTimeMillis());
+            } catch (DateParseException dateParseException) {
+                return 0;
+            }
+        }
+    }
+}
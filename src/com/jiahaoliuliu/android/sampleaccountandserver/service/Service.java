@@ -27,6 +27,16 @@ public class Service {
      */
     private static final String BASE_URL = "http://www.google.com";
 
+    /**
+     * The key of the auth token in the response of the login.
+     */
+    private static final String AUTH_TOKEN_KEY = "authToken";
+
+    /**
+     * The key of the lifetime of the auth token in the response of the login, in seconds.
+     */
+    private static final String AUTH_TOKEN_EXPIRES_IN_KEY = "expiresIn";
+
     /**
      * The user name used for the login, sign up and/or authentication.
      * The password is saved on the Account manager and it is associated
@@ -35,13 +45,51 @@ public class Service {
     private String username;
 
     /**
-     * The main constructor.
+     * The scheduler where the requests of the service are run.
+     */
+    private final RequestScheduler requestScheduler;
+
+    /**
+     * The provider of the auth token attached to the requests of the user, or null
+     * if the user has not logged in.
+     */
+    private final AuthTokenProvider authTokenProvider;
+
+    /**
+     * Whether a second copy of the slow logins is sent. False by default.
+     */
+    private boolean hedgedLogIn = false;
+
+    /**
+     * The main constructor. The requests are run in the default scheduler.
      * @param username The user name used for login, sign up and/or authentication
      *        This is necessary because the user name is used to get the hash for
      *        the authentication.
      */
     public Service(String username) {
+        this(username, RequestScheduler.instance());
+    }
+
+    /**
+     * The constructor used when the requests must be run in their own scheduler.
+     * @param username The user name used for login, sign up and/or authentication
+     * @param requestScheduler The scheduler where the requests are run
+     */
+    public Service(String username, RequestScheduler requestScheduler) {
+        this(username, requestScheduler, null);
+    }
+
+    /**
+     * The constructor used once the user has logged in. The requests are authenticated
+     * with the auth token of the user.
+     * @param username The user name used for login, sign up and/or authentication
+     * @param requestScheduler The scheduler where the requests are run
+     * @param authTokenProvider The provider of the auth token of the user
+     */
+    public Service(String username, RequestScheduler requestScheduler, AuthTokenProvider authTokenProvider) {
         this.username = username;
+        this.requestScheduler = requestScheduler;
+        this.authTokenProvider = authTokenProvider;
     }
 
     /**
@@ -53,13 +101,7 @@ public class Service {
      */
     public void signUp(final String username,
             final String password, final Callback callback) {
-        Map<String, String> parameters = new HashMap<String, String>();
-        parameters.put("email", username);
-        parameters.put("password", password);
-
-        final Uri finalUri = Uri.parse(BASE_URL + "/signup");
-
-        HttpRequest httpRequest = new HttpRequest(finalUri, parameters, RequestMethod.RequestMethodPost);
+        HttpRequest httpRequest = createSignUpRequest(username, password);
 
         httpRequest.performRequestWithHandler(new RequestDataCallback() {
 
@@ -70,6 +112,36 @@ public class Service {
         });
     }
 
+    /**
+     * Method used for sign up, returning a future instead of calling a callback.
+     * @param username The user name used for sign up
+     * @param password The password used for sign up
+     * @return The future of the data returned by the server
+     */
+    public RequestFuture<byte[]> signUpAsync(String username, String password) {
+        return createSignUpRequest(username, password).performRequestAsync(new ByteArrayDecoder());
+    }
+
+    /**
+     * Creates the request used for sign up.
+     * @param username The user name used for sign up
+     * @param password The password used for sign up
+     * @return The request to perform
+     */
+    private HttpRequest createSignUpRequest(String username, String password) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("email", username);
+        parameters.put("password", password);
+
+        final Uri finalUri = Uri.parse(BASE_URL + "/signup");
+
+        HttpRequest httpRequest = new HttpRequest(finalUri, parameters, RequestMethod.RequestMethodPost);
+        // The user is waiting for the sign up
+        httpRequest.setPriority(RequestScheduler.Priority.HIGH);
+        httpRequest.setRequestScheduler(requestScheduler);
+        return httpRequest;
+    }
+
     /**
      * Method used for login.
      * @param username The user name used for login
@@ -79,6 +151,34 @@ public class Service {
     public void logIn(final String username, final String password,
             final RequestJSONCallback jsonCallback) {
 
+        HttpRequest httpRequest = createLogInRequest(username, password);
+
+        httpRequest.performRequestWithJSONHandler(new RequestJSONCallback() {
+
+            @Override
+            public void done(JSONObject jsonObject, boolean error) {
+                jsonCallback.done(jsonObject, error);
+            }
+        });
+    }
+
+    /**
+     * Method used for login, returning a future instead of calling a callback.
+     * @param username The user name used for login
+     * @param password The password used for login
+     * @return The future of the JSON object returned by the server
+     */
+    public RequestFuture<JSONObject> logInAsync(String username, String password) {
+        return createLogInRequest(username, password).performRequestWithJSONAsync(JSONDecoder.JSON_OBJECT);
+    }
+
+    /**
+     * Creates the request used for login.
+     * @param username The user name used for login
+     * @param password The password used for login
+     * @return The request to perform
+     */
+    private HttpRequest createLogInRequest(String username, String password) {
         Map<String, String> parameters = new HashMap<String, String>();
         parameters.put("username_login", username);
         parameters.put("password", password);
@@ -86,14 +186,54 @@ public class Service {
         final Uri finalUri = Uri.parse(BASE_URL + "/login");
 
         HttpRequest httpRequest = new HttpRequest(finalUri, parameters, RequestMethod.RequestMethodPost);
+        // The user is waiting for the login
+        httpRequest.setPriority(RequestScheduler.Priority.HIGH);
+        if (hedgedLogIn) {
+            httpRequest.setHedgedAllowingDuplicates(true);
+        }
+        httpRequest.setRequestScheduler(requestScheduler);
+        return httpRequest;
+    }
 
-        httpRequest.performRequestWithJSONHandler(new RequestJSONCallback() {
+    /**
+     * Gets the auth token from the response of the login.
+     * @param logInResponse The JSON object returned by the login
+     * @return The auth token, or null if the server has not returned any
+     */
+    public static String getAuthToken(JSONObject logInResponse) {
+        if (logInResponse == null || !logInResponse.has(AUTH_TOKEN_KEY)) {
+            return null;
+        }
+        return logInResponse.optString(AUTH_TOKEN_KEY);
+    }
 
-            @Override
-            public void done(JSONObject jsonObject, boolean error) {
-                jsonCallback.done(jsonObject, error);
-            }
-        });
+    /**
+     * Gets the expiration time of the auth token from the response of the login.
+     * @param logInResponse The JSON object returned by the login
+     * @return The time when the auth token expires, in milliseconds since the epoch,
+     *         or 0 if the server has not returned it
+     */
+    public static long getAuthTokenExpirationTime(JSONObject logInResponse) {
+        long expiresIn = logInResponse != null ? logInResponse.optLong(AUTH_TOKEN_EXPIRES_IN_KEY, 0) : 0;
+        if (expiresIn <= 0) {
+            return 0;
+        }
+        return System.currentTimeMillis() + expiresIn * 1000;
+    }
+
+    /**
+     * Creates a request to the server on behalf of the user. It is run in the scheduler
+     * of the service and it carries the auth token of the user, if the user has logged in.
+     * @param path The path of the request, relative to the base url
+     * @param parameters The list of the parameters used
+     * @param requestMethod The request method
+     * @return The request to perform
+     */
+    public HttpRequest createRequest(String path, Map<String, String> parameters, RequestMethod requestMethod) {
+        HttpRequest httpRequest = new HttpRequest(Uri.parse(BASE_URL + path), parameters, requestMethod);
+        httpRequest.setRequestScheduler(requestScheduler);
+        httpRequest.setAuthTokenProvider(authTokenProvider);
+        return httpRequest;
     }
 
     // Getters & setters
@@ -106,4 +246,24 @@ public class Service {
         this.username = username;
     }
 
+    public RequestScheduler getRequestScheduler() {
+        return requestScheduler;
+    }
+
+    public boolean isHedgedLogIn() {
+        return hedgedLogIn;
+    }
+
+    /**
+     * Set if a second copy of the login is sent when it takes longer than usual, so the user
+     * waits less when the first one is slow. The login is not idempotent: each copy which
+     * reaches the server creates an auth token, and the one which is not used is never
+     * invalidated. So the server keeps an orphan auth token until it expires for each second
+     * copy, which are at most 5% of the logins. It is disabled by default.
+     * @param hedgedLogIn True if the slow logins are sent twice
+     */
+    public void setHedgedLogIn(boolean hedgedLogIn) {
+        this.hedgedLogIn = hedgedLogIn;
+    }
+
 }
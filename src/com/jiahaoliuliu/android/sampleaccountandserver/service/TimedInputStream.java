@@ -0,0 +1,85 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The input stream which measures the time spent reading from the stream it wraps. It tells
+ * apart the time reading the content from the connection and the time decoding it, when the
+ * content is decoded while it is read.
+ */
+final class TimedInputStream extends FilterInputStream {
+
+    /**
+     * The time spent reading, in nanoseconds.
+     */
+    private long readNanos = 0;
+
+    /**
+     * The main constructor. The stream measured is given with wrap.
+     */
+    TimedInputStream() {
+        super(null);
+    }
+
+    /**
+     * Starts measuring another stream. So each server fetcher reuses the same instance for
+     * all its responses, instead of creating one for each response.
+     * @param inputStream The stream to measure
+     * @return This instance
+     */
+    TimedInputStream wrap(InputStream inputStream) {
+        in = inputStream;
+        readNanos = 0;
+        return this;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.read();
+        } finally {
+            readNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.read(buffer, offset, length);
+        } finally {
+            readNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.skip(count);
+        } finally {
+            readNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            // The connection is not kept by the server fetcher
+            in = null;
+        }
+    }
+
+    /**
+     * Gets the time spent reading until now. It must be called from the thread which reads.
+     * @return The time, in nanoseconds
+     */
+    long getReadNanos() {
+        return readNanos;
+    }
+}
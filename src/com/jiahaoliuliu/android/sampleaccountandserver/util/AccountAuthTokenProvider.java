@@ -0,0 +1,156 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.json.JSONObject;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.accounts.AuthenticatorException;
+import android.accounts.OperationCanceledException;
+import android.content.Context;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.R;
+import com.jiahaoliuliu.android.sampleaccountandserver.exception.AuthTokenUnavailableException;
+import com.jiahaoliuliu.android.sampleaccountandserver.service.AuthTokenProvider;
+import com.jiahaoliuliu.android.sampleaccountandserver.service.RequestFuture;
+import com.jiahaoliuliu.android.sampleaccountandserver.service.Service;
+
+/**
+ * The provider of the auth tokens of a user saved in the account manager.
+ * The account manager returns the cached token if there is any. Otherwise it asks the
+ * authenticator of the application, which logs in to get a new one.
+ */
+public class AccountAuthTokenProvider implements AuthTokenProvider {
+
+    /**
+     * The maximum time waiting for the login, in milliseconds.
+     */
+    private static final long LOG_IN_TIMEOUT = 60 * 1000;
+
+    /**
+     * The context of the application.
+     */
+    private final Context context;
+
+    /**
+     * The name of the user.
+     */
+    private final String username;
+
+    /**
+     * The main constructor.
+     * @param context The context used
+     * @param username The name of the user
+     */
+    public AccountAuthTokenProvider(Context context, String username) {
+        this.context = context.getApplicationContext();
+        this.username = username;
+    }
+
+    @Override
+    public String getAccountName() {
+        return username;
+    }
+
+    @Override
+    public String getAuthToken() throws IOException {
+        Account account = getAccount();
+        try {
+            return AccountManager.get(context).blockingGetAuthToken(account, AccountUtils.AUTH_TOKEN_TYPE, true);
+        } catch (OperationCanceledException e) {
+            throw newIOException("Getting the auth token has been cancelled", e);
+        } catch (AuthenticatorException e) {
+            throw newIOException("The authenticator could not get the auth token", e);
+        }
+    }
+
+    /**
+     * Logs in with the password saved to get a new auth token, and saves it in the account manager,
+     * which gives it to the next requests. The token cached before is replaced, but it is not
+     * invalidated, so the requests which are using it are not affected.
+     * It blocks until the server answers, so it must not be called from the main thread.
+     * @return The new auth token
+     * @throws AuthTokenUnavailableException if the account or its password do not exist, or the server
+     *         has not returned any auth token
+     * @throws IOException if the login has failed
+     */
+    public String logIn() throws IOException {
+        Account account = getAccount();
+        // The cache of this process is not invalidated when the password changes in another one
+        String password = AccountUtils.getStoredPasswordByUserName(context, username);
+        if (password.length() == 0) {
+            throw new AuthTokenUnavailableException("The password of " + username + " is not set");
+        }
+
+        RequestFuture<JSONObject> logIn = new Service(username).logInAsync(username, password);
+        JSONObject logInResponse;
+        try {
+            logInResponse = logIn.get(LOG_IN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw newIOException("The login has failed", e.getCause());
+        } catch (TimeoutException e) {
+            logIn.cancel(true);
+            throw newIOException("The login has timed out", e);
+        } catch (InterruptedException e) {
+            logIn.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while logging in");
+        }
+
+        String authToken = Service.getAuthToken(logInResponse);
+        if (authToken == null) {
+            throw new AuthTokenUnavailableException("The server has not returned any auth token");
+        }
+        AccountUtils.setAuthToken(context, account, authToken, Service.getAuthTokenExpirationTime(logInResponse));
+        return authToken;
+    }
+
+    /**
+     * Gets the expiration time of the last auth token saved.
+     * @return The time when the auth token expires, in milliseconds since the epoch
+     *         AccountUtils.UNKNOWN_EXPIRATION_TIME if it is not known
+     */
+    public long getExpirationTime() {
+        Account account = AccountUtils.getUserAccount(context, username);
+        if (account == null) {
+            return AccountUtils.UNKNOWN_EXPIRATION_TIME;
+        }
+        return AccountUtils.getAuthTokenExpirationTime(context, account);
+    }
+
+    @Override
+    public void invalidateAuthToken(String authToken) {
+        AccountManager.get(context).invalidateAuthToken(
+                context.getResources().getString(R.string.account_type), authToken);
+    }
+
+    /**
+     * Gets the account of the user.
+     * @return The account
+     * @throws AuthTokenUnavailableException if the account does not exist
+     */
+    private Account getAccount() throws AuthTokenUnavailableException {
+        Account account = AccountUtils.getUserAccount(context, username);
+        if (account == null) {
+            throw new AuthTokenUnavailableException("The account of " + username + " does not exist");
+        }
+        return account;
+    }
+
+    /**
+     * Creates an IOException with a cause. The constructor which takes the cause does not exist in Froyo.
+     * @param message The message of the exception
+     * @param cause The cause of the exception
+     * @return The exception
+     */
+    private static IOException newIOException(String message, Throwable cause) {
+        IOException ioException = new IOException(message);
+        ioException.initCause(cause);
+        return ioException;
+    }
+}
@@ -0,0 +1,131 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.accounts.OnAccountsUpdateListener;
+import android.content.Context;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.R;
+
+/**
+ * The index of the accounts of the application by user name.
+ * The accounts are read from the account manager once and the index is kept up to date
+ * by listening to the changes of the accounts, so finding an account does not need to
+ * call the account manager. When an account is removed, its password is removed from
+ * the {@link CredentialCache}.
+ */
+public final class AccountIndex {
+
+    /**
+     * The tag used for log
+     */
+    private static final String LOG_TAG = AccountIndex.class.getSimpleName();
+
+    /**
+     * The instance of the class. It is created the first time it is needed.
+     */
+    private static AccountIndex sAccountIndex = null;
+
+    /**
+     * The account manager of the system.
+     */
+    private final AccountManager accountManager;
+
+    /**
+     * The type of the accounts of the application.
+     */
+    private final String accountType;
+
+    /**
+     * The accounts by user name in lower case. The map is never modified, it is replaced.
+     */
+    private volatile Map<String, Account> accountsByUserName = Collections.emptyMap();
+
+    /**
+     * The listener which updates the index when the accounts change.
+     */
+    private final OnAccountsUpdateListener onAccountsUpdateListener = new OnAccountsUpdateListener() {
+        @Override
+        public void onAccountsUpdated(Account[] accounts) {
+            Logger.v(LOG_TAG, "Accounts updated");
+            update(accounts);
+        }
+    };
+
+    /**
+     * The main constructor. It loads the accounts and starts listening to their changes.
+     * @param context The context of the application
+     */
+    private AccountIndex(Context context) {
+        accountManager = AccountManager.get(context);
+        accountType = context.getResources().getString(R.string.account_type);
+        // The listener is registered before the accounts are read, so no change is missed between both.
+        // It is called in the main thread
+        accountManager.addOnAccountsUpdatedListener(onAccountsUpdateListener, null, false);
+        update(accountManager.getAccountsByType(accountType));
+    }
+
+    /**
+     * The public method to return the instance.
+     * @param context The context used
+     * @return The index of the accounts
+     */
+    public static synchronized AccountIndex instance(Context context) {
+        if (AccountIndex.sAccountIndex == null) {
+            AccountIndex.sAccountIndex = new AccountIndex(context.getApplicationContext());
+        }
+
+        return AccountIndex.sAccountIndex;
+    }
+
+    /**
+     * Finds the account with the specific user name. The user name is not case sensitive.
+     * @param username The user name of the account
+     * @return If the account exists, return the account
+     *         Otherwise return null
+     */
+    public Account getAccount(String username) {
+        if (username == null) {
+            return null;
+        }
+
+        return accountsByUserName.get(username.toLowerCase(Locale.US));
+    }
+
+    /**
+     * Adds an account just created. The listener would add it too, but later.
+     * @param account The account created
+     */
+    public synchronized void onAccountAdded(Account account) {
+        Map<String, Account> newAccountsByUserName = new HashMap<String, Account>(accountsByUserName);
+        newAccountsByUserName.put(account.name.toLowerCase(Locale.US), account);
+        accountsByUserName = newAccountsByUserName;
+    }
+
+    /**
+     * Replaces the index with the accounts given. It is not private so the tests can fill the index.
+     * @param accounts All the accounts. The ones of other applications are ignored
+     */
+    synchronized void update(Account[] accounts) {
+        Map<String, Account> newAccountsByUserName = new HashMap<String, Account>(accounts.length);
+        for (Account account : accounts) {
+            if (accountType.equals(account.type)) {
+                newAccountsByUserName.put(account.name.toLowerCase(Locale.US), account);
+            }
+        }
+
+        // The passwords of the accounts removed must not be kept
+        for (String username : accountsByUserName.keySet()) {
+            if (!newAccountsByUserName.containsKey(username)) {
+                CredentialCache.instance().invalidate(username);
+            }
+        }
+
+        accountsByUserName = newAccountsByUserName;
+    }
+}
@@ -3,7 +3,6 @@ package com.jiahaoliuliu.android.sampleaccountandserver.util;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.content.Context;
-import android.util.Log;
 
 import com.jiahaoliuliu.android.sampleaccountandserver.R;
 
@@ -14,6 +13,21 @@ public class AccountUtils {
      */
     private static final String LOG_TAG = AccountUtils.class.getSimpleName();
 
+    /**
+     * The type of the auth tokens given by the server on login.
+     */
+    public static final String AUTH_TOKEN_TYPE = "com.jiahaoliuliu.android.sampleaccountandserver.session";
+
+    /**
+     * The key of the expiration time of the auth token in the data of the account.
+     */
+    private static final String AUTH_TOKEN_EXPIRATION_TIME_KEY = "authTokenExpirationTime";
+
+    /**
+     * The expiration time of the auth tokens when it is not known.
+     */
+    public static final long UNKNOWN_EXPIRATION_TIME = 0;
+
     /**
      * Check if an account with the specific user name exists or not
      * @param context  The context used
@@ -22,15 +36,7 @@ public class AccountUtils {
      *         Otherwise return null
      */
     public static Account getUserAccount(Context context, String username) {
-        AccountManager accountManager = AccountManager.get(context);
-        Account[] accounts = accountManager.getAccountsByType(context.getResources().getString(R.string.account_type));
-        for (Account account : accounts) {
-            if (account.name.equalsIgnoreCase(username)) {
-            	return account;
-            }
-        }
-
-        return null;
+        return AccountIndex.instance(context).getAccount(username);
     }
 
     /**
@@ -42,23 +48,67 @@ public class AccountUtils {
      *         "" if the account is not set
      */
     public static String getPasswordyByUserName(Context context, String username) {
+        CredentialCache credentialCache = CredentialCache.instance();
+        String decryptedPassword = credentialCache.get(username);
+        if (decryptedPassword != null) {
+            return decryptedPassword;
+        }
+
         AccountManager accountManager = AccountManager.get(context);
         String encryptedPassword;
-        String decryptedPassword = "";
+        decryptedPassword = "";
 
         Account account = getUserAccount(context, username);
         if (account != null) {
             encryptedPassword = accountManager.getPassword(account);
             try {
                 decryptedPassword = SecurityUtils.decrypt(encryptedPassword);
+                credentialCache.put(username, decryptedPassword, encryptedPassword);
             } catch (Exception e) {
-                Log.e(LOG_TAG, e.getLocalizedMessage(), e);
+                Logger.e(LOG_TAG, e.getLocalizedMessage(), e);
             }
         }
 
         return decryptedPassword;
     }
 
+    /**
+     * Obtains the password stored in the account manager, using the one cached only if it was
+     * decrypted from the encrypted password stored now. It must be used from the processes
+     * which do not change the password, like the one of the authenticator, because their
+     * cache is not invalidated when the password changes in another process.
+     * @param context  The context used
+     * @param username The user name that the password is associated
+     * @return The password stored in the account manager
+     *         "" if the account is not set
+     */
+    public static String getStoredPasswordByUserName(Context context, String username) {
+        Account account = getUserAccount(context, username);
+        if (account == null) {
+            return "";
+        }
+
+        String encryptedPassword = AccountManager.get(context).getPassword(account);
+        if (encryptedPassword == null) {
+            return "";
+        }
+
+        CredentialCache credentialCache = CredentialCache.instance();
+        String decryptedPassword = credentialCache.get(username, encryptedPassword);
+        if (decryptedPassword != null) {
+            return decryptedPassword;
+        }
+
+        try {
+            decryptedPassword = SecurityUtils.decrypt(encryptedPassword);
+            credentialCache.put(username, decryptedPassword, encryptedPassword);
+            return decryptedPassword;
+        } catch (Exception e) {
+            Logger.e(LOG_TAG, e.getLocalizedMessage(), e);
+            return "";
+        }
+    }
+
     /**
      * Set the encrypted password in the user account. If the account doesn't exist
      * before, it creates a new one.
@@ -71,6 +121,9 @@ public class AccountUtils {
         String accountType = context.getResources().getString(R.string.account_type);
         AccountManager accountManager = AccountManager.get(context);
 
+        // The password cached is not valid anymore, even if the new one cannot be stored
+        CredentialCache.instance().invalidate(username);
+
         // Encrypt the password
         try {
             String encryptedPassword = SecurityUtils.encryptToHex(password);
@@ -85,12 +138,74 @@ public class AccountUtils {
             // If the account doesn't exist before, create it.
             else {
                 Account newUserAccount = new Account(username, accountType);
-                accountManager.addAccountExplicitly(newUserAccount, encryptedPassword, null);
+                if (accountManager.addAccountExplicitly(newUserAccount, encryptedPassword, null)) {
+                    AccountIndex.instance(context).onAccountAdded(newUserAccount);
+                }
             }
             return true;
         } catch (Exception e) {
-            Log.e(LOG_TAG, e.getLocalizedMessage(), e);
+            Logger.e(LOG_TAG, e.getLocalizedMessage(), e);
             return false;
+        } finally {
+            // A concurrent read may have cached the old password between the first invalidation and the write
+            CredentialCache.instance().invalidate(username);
+        }
+    }
+
+    /**
+     * Saves the auth token of the user in the account manager, which caches it.
+     * @param context  The context used
+     * @param username The user name associated with the auth token
+     * @param authToken The auth token given by the server
+     * @param expirationTime The time when the auth token expires, in milliseconds since the epoch,
+     *        or UNKNOWN_EXPIRATION_TIME
+     * @return true if the auth token has been saved
+     *         false if the account does not exist
+     */
+    public static boolean setAuthTokenByUserName(Context context, String username, String authToken,
+            long expirationTime) {
+        Account account = getUserAccount(context, username);
+        if (account == null) {
+            return false;
+        }
+
+        setAuthToken(context, account, authToken, expirationTime);
+        return true;
+    }
+
+    /**
+     * Saves the auth token of the account in the account manager, which caches it.
+     * @param context  The context used
+     * @param account The account associated with the auth token
+     * @param authToken The auth token given by the server
+     * @param expirationTime The time when the auth token expires, in milliseconds since the epoch,
+     *        or UNKNOWN_EXPIRATION_TIME
+     */
+    public static void setAuthToken(Context context, Account account, String authToken, long expirationTime) {
+        AccountManager accountManager = AccountManager.get(context);
+        // The expiration time is saved first, so it is never older than the auth token
+        accountManager.setUserData(account, AUTH_TOKEN_EXPIRATION_TIME_KEY, String.valueOf(expirationTime));
+        accountManager.setAuthToken(account, AUTH_TOKEN_TYPE, authToken);
+    }
+
+    /**
+     * Obtains the expiration time of the last auth token saved for the account.
+     * @param context  The context used
+     * @param account The account associated with the auth token
+     * @return The time when the auth token expires, in milliseconds since the epoch
+     *         UNKNOWN_EXPIRATION_TIME if it is not known
+     */
+    public static long getAuthTokenExpirationTime(Context context, Account account) {
+        String expirationTime = AccountManager.get(context).getUserData(account, AUTH_TOKEN_EXPIRATION_TIME_KEY);
+        if (expirationTime == null) {
+            return UNKNOWN_EXPIRATION_TIME;
+        }
+
+        try {
+            return Long.parseLong(expirationTime);
+        } catch (NumberFormatException e) {
+            Logger.e(LOG_TAG, e.getLocalizedMessage(), e);
+            return UNKNOWN_EXPIRATION_TIME;
         }
     }
 }
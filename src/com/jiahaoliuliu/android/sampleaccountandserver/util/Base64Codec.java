@@ -0,0 +1,189 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+/**
+ * The Base64Codec class converts bytes to base64 text and back using lookup tables.
+ * It uses the standard alphabet with padding and without line breaks. The padding is
+ * optional when decoding.
+ * The methods which receive the destination buffer do not allocate any memory.
+ */
+public final class Base64Codec {
+
+    /**
+     * The Base64Codec class should not be instantiated, so its constructor.
+     *  is private to prevent instantiation by other objects.
+     */
+    private Base64Codec() { }
+
+    /**
+     * The character used for padding.
+     */
+    private static final char PADDING = '=';
+
+    /**
+     * The digits of base64.
+     */
+    private static final char[] DIGITS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    /**
+     * The value of each digit, indexed by the character. -1 if the character is not a digit.
+     */
+    private static final byte[] DIGIT_VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < DIGIT_VALUES.length; i++) {
+            DIGIT_VALUES[i] = -1;
+        }
+        for (int i = 0; i < DIGITS.length; i++) {
+            DIGIT_VALUES[DIGITS[i]] = (byte) i;
+        }
+    }
+
+    /**
+     * Calculates the number of chars needed to encode the bytes.
+     * @param length The number of bytes to encode
+     * @return The number of chars of the encoded text
+     */
+    public static int encodedLength(int length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    /**
+     * Encodes bytes into base64 in the given buffer.
+     * @param source The bytes to encode
+     * @param sourceOffset The position of the first byte to encode
+     * @param length The number of bytes to encode
+     * @param destination The buffer where the digits are written. It needs encodedLength(|length|) chars
+     * @param destinationOffset The position of the buffer where the first digit is written
+     * @return The number of chars written
+     */
+    public static int encode(byte[] source, int sourceOffset, int length,
+            char[] destination, int destinationOffset) {
+        int position = destinationOffset;
+        int end = sourceOffset + length;
+        int i = sourceOffset;
+        for (; i + 2 < end; i += 3) {
+            int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8 | (source[i + 2] & 0xff);
+            destination[position++] = DIGITS[bits >>> 18];
+            destination[position++] = DIGITS[(bits >>> 12) & 0x3f];
+            destination[position++] = DIGITS[(bits >>> 6) & 0x3f];
+            destination[position++] = DIGITS[bits & 0x3f];
+        }
+
+        int remaining = end - i;
+        if (remaining > 0) {
+            int bits = (source[i] & 0xff) << 16 | (remaining == 2 ? (source[i + 1] & 0xff) << 8 : 0);
+            destination[position++] = DIGITS[bits >>> 18];
+            destination[position++] = DIGITS[(bits >>> 12) & 0x3f];
+            destination[position++] = remaining == 2 ? DIGITS[(bits >>> 6) & 0x3f] : PADDING;
+            destination[position++] = PADDING;
+        }
+        return position - destinationOffset;
+    }
+
+    /**
+     * Encodes bytes into a base64 string.
+     * @param source The bytes to encode
+     * @return The string encoded
+     */
+    public static String encodeToString(byte[] source) {
+        char[] result = new char[encodedLength(source.length)];
+        encode(source, 0, source.length, result, 0);
+        return new String(result);
+    }
+
+    /**
+     * Calculates the number of bytes of the decoded text.
+     * @param source The base64 text, with or without the padding of the last quad
+     * @param sourceOffset The position of the first char
+     * @param length The number of chars
+     * @return The number of bytes decoded
+     */
+    public static int decodedLength(CharSequence source, int sourceOffset, int length) {
+        int digits = length - paddingLength(source, sourceOffset, length);
+        int remaining = digits % 4;
+        return digits / 4 * 3 + (remaining > 1 ? remaining - 1 : 0);
+    }
+
+    /**
+     * Decodes base64 text into bytes in the given buffer. As android.util.Base64, it accepts
+     * the text without the padding of the last quad. The padding is only accepted at the end
+     * of the last quad, and any other character which is not a base64 digit is rejected.
+     * @param source The base64 text to decode
+     * @param sourceOffset The position of the first char to decode
+     * @param length The number of chars to decode
+     * @param destination The buffer where the bytes are written. It needs decodedLength() bytes
+     * @param destinationOffset The position of the buffer where the first byte is written
+     * @return The number of bytes written
+     * @throws IllegalArgumentException if the text is not valid base64
+     */
+    public static int decode(CharSequence source, int sourceOffset, int length,
+            byte[] destination, int destinationOffset) {
+        int digitsEnd = sourceOffset + length - paddingLength(source, sourceOffset, length);
+        int remaining = (digitsEnd - sourceOffset) % 4;
+        if (remaining == 1) {
+            throw new IllegalArgumentException("Wrong length of base64 text: " + length);
+        }
+
+        int position = destinationOffset;
+        int i = sourceOffset;
+        for (; i + 4 <= digitsEnd; i += 4) {
+            // The padding in the middle of the text is rejected as any other character which is not a digit
+            int bits = digitValue(source.charAt(i)) << 18 | digitValue(source.charAt(i + 1)) << 12
+                    | digitValue(source.charAt(i + 2)) << 6 | digitValue(source.charAt(i + 3));
+            destination[position++] = (byte) (bits >>> 16);
+            destination[position++] = (byte) (bits >>> 8);
+            destination[position++] = (byte) bits;
+        }
+
+        if (remaining > 1) {
+            int bits = digitValue(source.charAt(i)) << 18 | digitValue(source.charAt(i + 1)) << 12;
+            destination[position++] = (byte) (bits >>> 16);
+            if (remaining == 3) {
+                bits |= digitValue(source.charAt(i + 2)) << 6;
+                destination[position++] = (byte) (bits >>> 8);
+            }
+        }
+        return position - destinationOffset;
+    }
+
+    /**
+     * Decodes a base64 string into bytes.
+     * @param source The base64 text to decode
+     * @return The bytes decoded
+     * @throws IllegalArgumentException if the text is not valid base64
+     */
+    public static byte[] decode(CharSequence source) {
+        byte[] result = new byte[decodedLength(source, 0, source.length())];
+        decode(source, 0, source.length(), result, 0);
+        return result;
+    }
+
+    /**
+     * Calculates the number of padding chars at the end of the last quad.
+     * @param source The base64 text
+     * @param sourceOffset The position of the first char
+     * @param length The number of chars
+     * @return The number of padding chars, or 0 if the text is not padded
+     */
+    private static int paddingLength(CharSequence source, int sourceOffset, int length) {
+        if (length == 0 || length % 4 != 0 || source.charAt(sourceOffset + length - 1) != PADDING) {
+            return 0;
+        }
+        return source.charAt(sourceOffset + length - 2) == PADDING ? 2 : 1;
+    }
+
+    /**
+     * Gets the value of a base64 digit.
+     * @param digit The digit
+     * @return The value of the digit
+     * @throws IllegalArgumentException if the character is not a base64 digit
+     */
+    private static int digitValue(char digit) {
+        int value = digit < DIGIT_VALUES.length ? DIGIT_VALUES[digit] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Not a base64 digit: " + digit);
+        }
+        return value;
+    }
+}
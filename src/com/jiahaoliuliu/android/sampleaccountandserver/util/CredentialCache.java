@@ -0,0 +1,304 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.os.SystemClock;
+
+/**
+ * The cache of the passwords already decrypted, so getting the password of an account
+ * does not need to call the account manager and decrypt it each time.
+ * The cache is bounded and each password expires after some time. The expired passwords are
+ * removed at each access, and by a sweep at the time they expire, so none of them stays in
+ * memory longer than its time to live. The passwords are kept as arrays of characters, which are
+ * overwritten when they leave the cache.
+ * The get methods return the password as a String, which cannot be overwritten. It is the type
+ * the callers need: the password is decrypted to a String and sent to the server as a parameter
+ * of the login. So the cache only bounds the time of its own copy, and the copies returned live
+ * until they are garbage collected.
+ */
+public final class CredentialCache {
+
+    /**
+     * The maximum number of passwords cached. The cache is shared by all the accounts, but each
+     * account only has its own entry, so the bound is well above the number of accounts of a
+     * device, and the reads of an account do not evict the password of another.
+     */
+    static final int MAX_ENTRIES = 32;
+
+    /**
+     * The time a password is kept in the cache, in milliseconds.
+     */
+    private static final long TIME_TO_LIVE = 5 * 60 * 1000;
+
+    /**
+     * A class to hold the singleton.
+     */
+    private static class SingletonHolder {
+        /**
+         * The instance of the class.
+         */
+        private static final CredentialCache INSTANCE = new CredentialCache(TIME_TO_LIVE);
+    }
+
+    /**
+     * A class to hold the scheduler of the sweeps, which is only created once a password is cached.
+     */
+    private static class SweeperHolder {
+        /**
+         * The scheduler of the sweeps.
+         */
+        private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, CredentialCache.class.getSimpleName());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * The time a password is kept in the cache, in milliseconds.
+     */
+    private final long timeToLive;
+
+    /**
+     * The sweep scheduled at the time the first password expires, or null if there is not any.
+     * Guarded by the lock of the map.
+     */
+    private ScheduledFuture<?> scheduledSweep = null;
+
+    /**
+     * The task which removes the expired passwords.
+     */
+    private final Runnable sweep = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (credentials) {
+                scheduledSweep = null;
+                removeExpired();
+                scheduleSweep();
+            }
+        }
+    };
+
+    /**
+     * The passwords by user name in lower case, in access order.
+     * All the accesses are synchronized on the map.
+     */
+    private final Map<String, Credential> credentials = new LinkedHashMap<String, Credential>(MAX_ENTRIES, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Credential> eldest) {
+            if (size() > MAX_ENTRIES) {
+                eldest.getValue().wipe();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * The constructor of the class. It is not public because it is a singleton.
+     * @param timeToLive The time a password is kept in the cache, in milliseconds
+     */
+    CredentialCache(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * The public method to return the instance.
+     * @return A instance of the Singleton holder
+     */
+    public static CredentialCache instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Gets the password of the user, if it is cached and it has not expired.
+     * @param username The user name associated with the password
+     * @return The password decrypted
+     *         null if it is not cached
+     */
+    public String get(String username) {
+        synchronized (credentials) {
+            removeExpired();
+            Credential credential = credentials.get(toKey(username));
+            return credential != null ? new String(credential.password) : null;
+        }
+    }
+
+    /**
+     * Gets the password of the user, if it is cached, it has not expired and it was decrypted
+     * from the encrypted password given. So a password which has changed in the account manager
+     * is never returned, even if this cache has not been invalidated, as it happens in the
+     * processes other than the one which changed it.
+     * @param username The user name associated with the password
+     * @param encryptedPassword The encrypted password currently stored in the account manager
+     * @return The password decrypted
+     *         null if it is not cached or it was decrypted from another encrypted password
+     */
+    public String get(String username, String encryptedPassword) {
+        synchronized (credentials) {
+            removeExpired();
+            Credential credential = credentials.get(toKey(username));
+            if (credential == null || !credential.encryptedPassword.equals(encryptedPassword)) {
+                return null;
+            }
+            return new String(credential.password);
+        }
+    }
+
+    /**
+     * Caches the password of the user.
+     * @param username The user name associated with the password
+     * @param password The password decrypted
+     * @param encryptedPassword The encrypted password stored in the account manager, which it was
+     *        decrypted from
+     */
+    public void put(String username, String password, String encryptedPassword) {
+        Credential credential = new Credential(password.toCharArray(), encryptedPassword,
+                SystemClock.elapsedRealtime() + timeToLive);
+        synchronized (credentials) {
+            removeExpired();
+            Credential previous = credentials.put(toKey(username), credential);
+            if (previous != null) {
+                previous.wipe();
+            }
+            scheduleSweep();
+        }
+    }
+
+    /**
+     * Removes the password of the user from the cache.
+     * @param username The user name associated with the password
+     */
+    public void invalidate(String username) {
+        synchronized (credentials) {
+            Credential credential = credentials.remove(toKey(username));
+            if (credential != null) {
+                credential.wipe();
+            }
+        }
+    }
+
+    /**
+     * Removes all the passwords from the cache.
+     */
+    public void clear() {
+        synchronized (credentials) {
+            Iterator<Credential> iterator = credentials.values().iterator();
+            while (iterator.hasNext()) {
+                iterator.next().wipe();
+                iterator.remove();
+            }
+            if (scheduledSweep != null) {
+                scheduledSweep.cancel(false);
+                scheduledSweep = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of passwords cached. It is used by the tests.
+     * @return The number of passwords cached, including the expired ones not removed yet
+     */
+    int size() {
+        synchronized (credentials) {
+            return credentials.size();
+        }
+    }
+
+    /**
+     * Removes the expired passwords. It must be called holding the lock of the map.
+     */
+    private void removeExpired() {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Credential> iterator = credentials.values().iterator();
+        while (iterator.hasNext()) {
+            Credential credential = iterator.next();
+            if (credential.expiresAt <= now) {
+                credential.wipe();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Schedules the sweep at the time the first password expires, unless it is already scheduled
+     * or there is not any password. It must be called holding the lock of the map.
+     */
+    private void scheduleSweep() {
+        if (scheduledSweep != null || credentials.isEmpty()) {
+            return;
+        }
+
+        long firstExpiration = Long.MAX_VALUE;
+        for (Credential credential : credentials.values()) {
+            firstExpiration = Math.min(firstExpiration, credential.expiresAt);
+        }
+        long delay = Math.max(0, firstExpiration - SystemClock.elapsedRealtime());
+        scheduledSweep = SweeperHolder.SWEEPER.schedule(sweep, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the key of the user in the cache. The user names are not case sensitive.
+     * @param username The user name
+     * @return The key of the user
+     */
+    private static String toKey(String username) {
+        return username.toLowerCase(Locale.US);
+    }
+
+    /**
+     * A password cached with its expiration time.
+     */
+    private static final class Credential {
+
+        /**
+         * The password decrypted.
+         */
+        private final char[] password;
+
+        /**
+         * The encrypted password which it was decrypted from.
+         */
+        private final String encryptedPassword;
+
+        /**
+         * The time when the password expires, based on SystemClock.elapsedRealtime().
+         */
+        private final long expiresAt;
+
+        /**
+         * The main constructor.
+         * @param password The password decrypted
+         * @param encryptedPassword The encrypted password which it was decrypted from
+         * @param expiresAt The time when the password expires
+         */
+        public Credential(char[] password, String encryptedPassword, long expiresAt) {
+            this.password = password;
+            this.encryptedPassword = encryptedPassword;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * Overwrites the password, once it is not cached anymore.
+         */
+        public void wipe() {
+            Arrays.fill(password, '\0');
+        }
+    }
+}
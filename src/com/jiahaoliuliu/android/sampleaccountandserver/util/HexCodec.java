@@ -0,0 +1,121 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+/**
+ * The HexCodec class converts bytes to hexadecimal text and back using lookup tables.
+ * The methods which receive the destination buffer do not allocate any memory.
+ */
+public final class HexCodec {
+
+    /**
+     * The HexCodec class should not be instantiated, so its constructor.
+     *  is private to prevent instantiation by other objects.
+     */
+    private HexCodec() { }
+
+    /**
+     * Digits used in upper case hex format.
+     */
+    private static final char[] UPPER_CASE_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Digits used in lower case hex format.
+     */
+    private static final char[] LOWER_CASE_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The value of each hex digit, indexed by the character. -1 if the character is not a hex digit.
+     */
+    private static final byte[] DIGIT_VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < DIGIT_VALUES.length; i++) {
+            DIGIT_VALUES[i] = -1;
+        }
+        for (int i = 0; i < 16; i++) {
+            DIGIT_VALUES[UPPER_CASE_DIGITS[i]] = (byte) i;
+            DIGIT_VALUES[LOWER_CASE_DIGITS[i]] = (byte) i;
+        }
+    }
+
+    /**
+     * Encodes bytes into hex digits in the given buffer.
+     * @param source The bytes to encode
+     * @param sourceOffset The position of the first byte to encode
+     * @param length The number of bytes to encode
+     * @param destination The buffer where the digits are written. It needs 2 * |length| chars
+     * @param destinationOffset The position of the buffer where the first digit is written
+     * @param upperCase True to use upper case digits
+     * @return The number of chars written
+     */
+    public static int encode(byte[] source, int sourceOffset, int length,
+            char[] destination, int destinationOffset, boolean upperCase) {
+        char[] digits = upperCase ? UPPER_CASE_DIGITS : LOWER_CASE_DIGITS;
+        int position = destinationOffset;
+        for (int i = sourceOffset; i < sourceOffset + length; i++) {
+            int b = source[i] & 0xff;
+            destination[position++] = digits[b >>> 4];
+            destination[position++] = digits[b & 0x0f];
+        }
+        return position - destinationOffset;
+    }
+
+    /**
+     * Encodes bytes into a string of hex digits.
+     * @param source The bytes to encode
+     * @param upperCase True to use upper case digits
+     * @return The string with the hex digits
+     */
+    public static String encodeToString(byte[] source, boolean upperCase) {
+        char[] result = new char[source.length * 2];
+        encode(source, 0, source.length, result, 0, upperCase);
+        return new String(result);
+    }
+
+    /**
+     * Decodes hex digits into bytes in the given buffer. The digits can be upper or lower case.
+     * @param source The hex digits to decode
+     * @param sourceOffset The position of the first digit to decode
+     * @param length The number of digits to decode. If it is odd, the last digit is ignored
+     * @param destination The buffer where the bytes are written. It needs |length| / 2 bytes
+     * @param destinationOffset The position of the buffer where the first byte is written
+     * @return The number of bytes written
+     * @throws IllegalArgumentException if any character is not a hex digit
+     */
+    public static int decode(CharSequence source, int sourceOffset, int length,
+            byte[] destination, int destinationOffset) {
+        int bytes = length / 2;
+        int position = sourceOffset;
+        for (int i = destinationOffset; i < destinationOffset + bytes; i++) {
+            int high = digitValue(source.charAt(position++));
+            int low = digitValue(source.charAt(position++));
+            destination[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes a string of hex digits into bytes.
+     * @param source The hex digits to decode
+     * @return The bytes decoded
+     * @throws IllegalArgumentException if any character is not a hex digit
+     */
+    public static byte[] decode(CharSequence source) {
+        byte[] result = new byte[source.length() / 2];
+        decode(source, 0, source.length(), result, 0);
+        return result;
+    }
+
+    /**
+     * Gets the value of a hex digit.
+     * @param digit The hex digit
+     * @return The value of the digit
+     * @throws IllegalArgumentException if the character is not a hex digit
+     */
+    private static int digitValue(char digit) {
+        int value = digit < DIGIT_VALUES.length ? DIGIT_VALUES[digit] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Not a hex digit: " + digit);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,162 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The KeyManager class holds the AES key used to encrypt/decrypt the passwords.
+ * The key is derived from the seed only once, the first time it is needed, and the
+ * ciphers are reused by each thread instead of being created for each operation.
+ */
+public final class KeyManager {
+
+    /**
+     * The algorithm used for encryption.
+     */
+    private static final String ALGORITHM = "AES";
+
+    /**
+     * The size of the key, in bits. 192 and 256 bits may not be available.
+     */
+    private static final int KEY_SIZE = 128;
+
+    /**
+     * A class to hold the singleton.
+     */
+    private static class SingletonHolder {
+        /**
+         * The instance of the class.
+         */
+        private static final KeyManager INSTANCE = new KeyManager();
+    }
+
+    /**
+     * The key derived from the seed. It is null until it is needed.
+     */
+    private volatile SecretKeySpec secretKey;
+
+    /**
+     * The cipher used by each thread to encrypt.
+     */
+    private final ThreadLocal<Cipher> encryptCipher = new ThreadLocal<Cipher>();
+
+    /**
+     * The cipher used by each thread to decrypt.
+     */
+    private final ThreadLocal<Cipher> decryptCipher = new ThreadLocal<Cipher>();
+
+    /**
+     * The constructor of the class. It is private because it is a singleton.
+     */
+    private KeyManager() {
+    }
+
+    /**
+     * The public method to return the instance.
+     * @return A instance of the Singleton holder
+     */
+    public static KeyManager instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Encrypts the data.
+     * @param clear The data to encrypt
+     * @return The data encrypted
+     * @throws GeneralSecurityException if the data could not be encrypted
+     */
+    public byte[] encrypt(byte[] clear) throws GeneralSecurityException {
+        return doFinal(encryptCipher, Cipher.ENCRYPT_MODE, clear);
+    }
+
+    /**
+     * Decrypts the data.
+     * @param encrypted The data to decrypt
+     * @return The data decrypted
+     * @throws GeneralSecurityException if the data could not be decrypted
+     */
+    public byte[] decrypt(byte[] encrypted) throws GeneralSecurityException {
+        return doFinal(decryptCipher, Cipher.DECRYPT_MODE, encrypted);
+    }
+
+    /**
+     * Encrypts or decrypts the data with the cipher of the current thread.
+     * @param cipherOfThread The cipher of each thread
+     * @param mode The mode of the cipher
+     * @param data The data to encrypt or decrypt
+     * @return The data encrypted or decrypted
+     * @throws GeneralSecurityException if the data could not be encrypted or decrypted
+     */
+    private byte[] doFinal(ThreadLocal<Cipher> cipherOfThread, int mode, byte[] data)
+            throws GeneralSecurityException {
+        try {
+            return getCipher(cipherOfThread, mode).doFinal(data);
+        } catch (GeneralSecurityException e) {
+            // After a failure the state of the cipher is unknown, so it is created again
+            cipherOfThread.remove();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the cipher of the current thread, creating it if it has not been created before.
+     * doFinal leaves the cipher ready for the next operation, so it is not initialized again.
+     * @param cipherOfThread The cipher of each thread
+     * @param mode The mode of the cipher
+     * @return The cipher of the current thread
+     * @throws GeneralSecurityException if the cipher could not be created
+     */
+    private Cipher getCipher(ThreadLocal<Cipher> cipherOfThread, int mode) throws GeneralSecurityException {
+        Cipher cipher = cipherOfThread.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(ALGORITHM);
+            cipher.init(mode, getSecretKey());
+            cipherOfThread.set(cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * Gets the key, deriving it from the seed if it has not been derived before.
+     * @return The key
+     * @throws GeneralSecurityException if the key could not be derived
+     */
+    private SecretKeySpec getSecretKey() throws GeneralSecurityException {
+        SecretKeySpec key = secretKey;
+        if (key == null) {
+            synchronized (this) {
+                key = secretKey;
+                if (key == null) {
+                    byte[] raw = getRawKey(SecurityUtils.SEED.getBytes());
+                    key = new SecretKeySpec(raw, ALGORITHM);
+                    // The spec keeps its own copy
+                    Arrays.fill(raw, (byte) 0);
+                    secretKey = key;
+                }
+            }
+        }
+        return key;
+    }
+
+    /**
+     * This method gets a raw key from the given seed.
+     *  Raw key is needed for encrypt/decrypt text
+     * @param seed Seed used to get the raw key
+     * @return Byte array with the raw key
+     * @throws GeneralSecurityException if the key could not be generated
+     */
+    private static byte[] getRawKey(byte[] seed) throws GeneralSecurityException {
+        KeyGenerator kgen = KeyGenerator.getInstance(ALGORITHM);
+        SecureRandom sr = SecureRandom.getInstance("SHA1PRNG");
+        sr.setSeed(seed);
+        kgen.init(KEY_SIZE, sr);
+        SecretKey skey = kgen.generateKey();
+        return skey.getEncoded();
+    }
+}
@@ -0,0 +1,309 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import android.util.Log;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.BuildConfig;
+
+/**
+ * The facade of the log, which does not build the messages which are not going to be logged.
+ * The messages take their arguments as objects, which are only converted to strings, and only
+ * replace the "{}" of the message, if the level is logged. So the calls in the hot paths cost
+ * nothing when the level is off, as long as they do not concatenate strings themselves.
+ * <ul>
+ * <li>In the debug builds all the levels are logged.</li>
+ * <li>In the release builds only INFO and above are logged, unless the level of the tag is
+ * lowered with "adb shell setprop log.tag.[tag] VERBOSE". The level of each tag is read
+ * once, so the application must be restarted after changing it.</li>
+ * </ul>
+ * The bodies of the responses are cut to MAX_BODY_LENGTH characters.
+ */
+public final class Logger {
+
+    /**
+     * The minimum level which is always logged.
+     */
+    private static final int MIN_LEVEL = BuildConfig.DEBUG ? Log.VERBOSE : Log.INFO;
+
+    /**
+     * The maximum length of the tags accepted by Log.isLoggable. It throws an exception with
+     * the longer ones.
+     */
+    private static final int MAX_TAG_LENGTH = 23;
+
+    /**
+     * The maximum number of characters of the bodies logged.
+     */
+    private static final int MAX_BODY_LENGTH = 1024;
+
+    /**
+     * The placeholder of the arguments in the messages.
+     */
+    private static final String PLACEHOLDER = "{}";
+
+    /**
+     * The minimum level logged for each tag, read from the system properties the first time
+     * the tag is used. Reading them is a native call, too slow to be done in every message.
+     */
+    private static final ConcurrentMap<String, Integer> TAG_LEVELS = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * The constructor of the class. It is private because it only has static methods.
+     */
+    private Logger() {
+    }
+
+    /**
+     * Tells if a level is logged for a tag.
+     * @param tag The tag of the log
+     * @param level The level, as in android.util.Log
+     * @return True if the messages of the level are logged.
+     *         False otherwise
+     */
+    public static boolean isLoggable(String tag, int level) {
+        if (level >= MIN_LEVEL) {
+            return true;
+        }
+
+        Integer tagLevel = TAG_LEVELS.get(tag);
+        if (tagLevel == null) {
+            tagLevel = Integer.valueOf(readTagLevel(tag));
+            TAG_LEVELS.put(tag, tagLevel);
+        }
+        return level >= tagLevel.intValue();
+    }
+
+    /**
+     * Reads the minimum level logged for a tag from the system properties.
+     * @param tag The tag of the log
+     * @return The lowest level which is logged for the tag, at most MIN_LEVEL
+     */
+    private static int readTagLevel(String tag) {
+        String truncatedTag = tag.length() > MAX_TAG_LENGTH ? tag.substring(0, MAX_TAG_LENGTH) : tag;
+        for (int level = Log.VERBOSE; level < MIN_LEVEL; level++) {
+            if (Log.isLoggable(truncatedTag, level)) {
+                return level;
+            }
+        }
+        return MIN_LEVEL;
+    }
+
+    /**
+     * Logs a verbose message.
+     * @param tag The tag of the log
+     * @param message The message
+     */
+    public static void v(String tag, String message) {
+        if (isLoggable(tag, Log.VERBOSE)) {
+            Log.v(tag, message);
+        }
+    }
+
+    /**
+     * Logs a verbose message with an argument.
+     * @param tag The tag of the log
+     * @param format The message, with a "{}" where the argument goes
+     * @param argument The argument
+     */
+    public static void v(String tag, String format, Object argument) {
+        if (isLoggable(tag, Log.VERBOSE)) {
+            Log.v(tag, format(format, argument, null));
+        }
+    }
+
+    /**
+     * Logs a verbose message with two arguments.
+     * @param tag The tag of the log
+     * @param format The message, with a "{}" where each argument goes
+     * @param firstArgument The first argument
+     * @param secondArgument The second argument
+     */
+    public static void v(String tag, String format, Object firstArgument, Object secondArgument) {
+        if (isLoggable(tag, Log.VERBOSE)) {
+            Log.v(tag, format(format, firstArgument, secondArgument));
+        }
+    }
+
+    /**
+     * Logs a body, like the content of a response, as a verbose message. If it is too long,
+     * only its beginning is logged.
+     * @param tag The tag of the log
+     * @param format The message, with a "{}" where the body goes
+     * @param body The body
+     */
+    public static void vBody(String tag, String format, CharSequence body) {
+        if (isLoggable(tag, Log.VERBOSE)) {
+            Log.v(tag, format(format, cut(body), null));
+        }
+    }
+
+    /**
+     * Logs a debug message.
+     * @param tag The tag of the log
+     * @param message The message
+     */
+    public static void d(String tag, String message) {
+        if (isLoggable(tag, Log.DEBUG)) {
+            Log.d(tag, message);
+        }
+    }
+
+    /**
+     * Logs a debug message with an argument.
+     * @param tag The tag of the log
+     * @param format The message, with a "{}" where the argument goes
+     * @param argument The argument
+     */
+    public static void d(String tag, String format, Object argument) {
+        if (isLoggable(tag, Log.DEBUG)) {
+            Log.d(tag, format(format, argument, null));
+        }
+    }
+
+    /**
+     * Logs a debug message with two arguments.
+     * @param tag The tag of the log
+     * @param format The message, with a "{}" where each argument goes
+     * @param firstArgument The first argument
+     * @param secondArgument The second argument
+     */
+    public static void d(String tag, String format, Object firstArgument, Object secondArgument) {
+        if (isLoggable(tag, Log.DEBUG)) {
+            Log.d(tag, format(format, firstArgument, secondArgument));
+        }
+    }
+
+    /**
+     * Logs a debug message with two arguments, the second one a number. The number is not
+     * boxed unless the message is logged.
+     * @param tag The tag of the log
+     * @param format The message, with a "{}" where each argument goes
+     * @param firstArgument The first argument
+     * @param secondArgument The second argument
+     */
+    public static void d(String tag, String format, Object firstArgument, long secondArgument) {
+        if (isLoggable(tag, Log.DEBUG)) {
+            Log.d(tag, format(format, firstArgument, Long.valueOf(secondArgument)));
+        }
+    }
+
+    /**
+     * Logs a warning.
+     * @param tag The tag of the log
+     * @param message The message
+     */
+    public static void w(String tag, String message) {
+        if (isLoggable(tag, Log.WARN)) {
+            Log.w(tag, message);
+        }
+    }
+
+    /**
+     * Logs a warning with an argument.
+     * @param tag The tag of the log
+     * @param format The message, with a "{}" where the argument goes
+     * @param argument The argument
+     */
+    public static void w(String tag, String format, Object argument) {
+        if (isLoggable(tag, Log.WARN)) {
+            Log.w(tag, format(format, argument, null));
+        }
+    }
+
+    /**
+     * Logs a warning with two arguments.
+     * @param tag The tag of the log
+     * @param format The message, with a "{}" where each argument goes
+     * @param firstArgument The first argument
+     * @param secondArgument The second argument
+     */
+    public static void w(String tag, String format, Object firstArgument, Object secondArgument) {
+        if (isLoggable(tag, Log.WARN)) {
+            Log.w(tag, format(format, firstArgument, secondArgument));
+        }
+    }
+
+    /**
+     * Logs a warning with the exception which caused it.
+     * @param tag The tag of the log
+     * @param message The message
+     * @param throwable The exception
+     */
+    public static void w(String tag, String message, Throwable throwable) {
+        if (isLoggable(tag, Log.WARN)) {
+            Log.w(tag, message, throwable);
+        }
+    }
+
+    /**
+     * Logs a warning with an argument and the exception which caused it.
+     * @param tag The tag of the log
+     * @param format The message, with a "{}" where the argument goes
+     * @param argument The argument
+     * @param throwable The exception
+     */
+    public static void w(String tag, String format, Object argument, Throwable throwable) {
+        if (isLoggable(tag, Log.WARN)) {
+            Log.w(tag, format(format, argument, null), throwable);
+        }
+    }
+
+    /**
+     * Logs an error.
+     * @param tag The tag of the log
+     * @param message The message
+     */
+    public static void e(String tag, String message) {
+        if (isLoggable(tag, Log.ERROR)) {
+            Log.e(tag, message);
+        }
+    }
+
+    /**
+     * Logs an error with the exception which caused it.
+     * @param tag The tag of the log
+     * @param message The message
+     * @param throwable The exception
+     */
+    public static void e(String tag, String message, Throwable throwable) {
+        if (isLoggable(tag, Log.ERROR)) {
+            Log.e(tag, message, throwable);
+        }
+    }
+
+    /**
+     * Replaces the placeholders of a message by the arguments.
+     * @param format The message, with a "{}" where each argument goes
+     * @param firstArgument The first argument
+     * @param secondArgument The second argument, or null if there is only one
+     * @return The message with the arguments
+     */
+    private static String format(String format, Object firstArgument, Object secondArgument) {
+        StringBuilder message = new StringBuilder(format.length() + 32);
+        int start = 0;
+        int argumentIndex = 0;
+        int placeholder;
+        while (argumentIndex < 2 && (placeholder = format.indexOf(PLACEHOLDER, start)) != -1) {
+            message.append(format, start, placeholder)
+                .append(argumentIndex == 0 ? firstArgument : secondArgument);
+            start = placeholder + PLACEHOLDER.length();
+            argumentIndex++;
+        }
+        return message.append(format, start, format.length()).toString();
+    }
+
+    /**
+     * Cuts a body if it is too long.
+     * @param body The body
+     * @return The body, or its beginning with the number of characters cut
+     */
+    private static CharSequence cut(CharSequence body) {
+        if (body == null || body.length() <= MAX_BODY_LENGTH) {
+            return body;
+        }
+        return new StringBuilder(MAX_BODY_LENGTH + 32).append(body, 0, MAX_BODY_LENGTH)
+            .append("... (").append(body.length() - MAX_BODY_LENGTH).append(" characters more)");
+    }
+}
@@ -1,10 +1,21 @@
 package com.jiahaoliuliu.android.sampleaccountandserver.util;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Build;
 
 /**
  * Class utilized to save the user elemental data persistently.
+ * The data is written in background: the changes can be read at once, but they are
+ * stored in the disk later, grouped. Use {@link #flush()} to wait until they are stored.
  */
 public class Preferences {
 
@@ -18,6 +29,11 @@ public class Preferences {
      */
     private static final String FILE_NAME = "Preferences";
 
+    /**
+     * Whether the editor can write in background by itself. Editor.apply() exists since Gingerbread.
+     */
+    private static final boolean APPLY_AVAILABLE = Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD;
+
     /**
      * The set of keys utilized.
      */
@@ -26,11 +42,21 @@ public class Preferences {
      */
     private static final String USERNAME_KEY = "username";
 
+    /**
+     * The key for the time of the last login.
+     */
+    private static final String LAST_LOGIN_TIME_KEY = "lastLoginTime";
+
     /**
      * The default user name
      */
     public static final String DEFAULT_USERNAME = "";
 
+    /**
+     * The default time of the last login
+     */
+    public static final long DEFAULT_LAST_LOGIN_TIME = 0;
+
     /**
      * The context passed by any Android's component.
      */
@@ -65,7 +91,10 @@ public class Preferences {
      *         "" if the user id has not been stored
      */
     public String getUsername() {
-        String username = sharedPreferences.getString(Preferences.USERNAME_KEY, DEFAULT_USERNAME);
+        String username = (String) getPendingValue(Preferences.USERNAME_KEY, DEFAULT_USERNAME);
+        if (username == null) {
+            username = sharedPreferences.getString(Preferences.USERNAME_KEY, DEFAULT_USERNAME);
+        }
         return username;
     }
 
@@ -74,16 +103,308 @@ public class Preferences {
      * @param username The user name to be stored
      */
     public void setUserName(String username) {
-        editor.putString(Preferences.USERNAME_KEY, username);
-        editor.commit();
+        if (APPLY_AVAILABLE) {
+            editor.putString(Preferences.USERNAME_KEY, username);
+            apply(editor);
+        } else {
+            WriteBehind.get(sharedPreferences).put(Preferences.USERNAME_KEY, username);
+        }
+    }
+
+    /*
+     * Last login time
+     */
+    /**
+     * Obtains the time of the last login stored in the shared preferences.
+     * @return The time of the last login, in milliseconds since the epoch
+     *         0 if it has not been stored
+     */
+    public long getLastLoginTime() {
+        Long lastLoginTime = (Long) getPendingValue(Preferences.LAST_LOGIN_TIME_KEY, DEFAULT_LAST_LOGIN_TIME);
+        if (lastLoginTime == null) {
+            return sharedPreferences.getLong(Preferences.LAST_LOGIN_TIME_KEY, DEFAULT_LAST_LOGIN_TIME);
+        }
+        return lastLoginTime;
+    }
+
+    /**
+     * Stores the time of the last login in the shared preferences.
+     * @param lastLoginTime The time of the last login, in milliseconds since the epoch
+     */
+    public void setLastLoginTime(long lastLoginTime) {
+        if (APPLY_AVAILABLE) {
+            editor.putLong(Preferences.LAST_LOGIN_TIME_KEY, lastLoginTime);
+            apply(editor);
+        } else {
+            WriteBehind.get(sharedPreferences).put(Preferences.LAST_LOGIN_TIME_KEY, lastLoginTime);
+        }
+    }
+
+    /*
+     * Session
+     */
+    /**
+     * Stores the user name and the time of the last login together. They are written with
+     * the same changes of the editor, so the disk is written once for both.
+     * @param username The user name to be stored
+     * @param lastLoginTime The time of the last login, in milliseconds since the epoch
+     */
+    public void setSession(String username, long lastLoginTime) {
+        if (APPLY_AVAILABLE) {
+            editor.putString(Preferences.USERNAME_KEY, username);
+            editor.putLong(Preferences.LAST_LOGIN_TIME_KEY, lastLoginTime);
+            apply(editor);
+        } else {
+            Map<String, Object> values = new HashMap<String, Object>();
+            values.put(Preferences.USERNAME_KEY, username);
+            values.put(Preferences.LAST_LOGIN_TIME_KEY, lastLoginTime);
+            WriteBehind.get(sharedPreferences).putAll(values);
+        }
     }
 
     /**
      * Remove everything from the shared preferences.
      */
     public void clear() {
-        editor.clear();
-        editor.commit();
+        if (APPLY_AVAILABLE) {
+            editor.clear();
+            apply(editor);
+        } else {
+            WriteBehind.get(sharedPreferences).clear();
+        }
+    }
+
+    /**
+     * Waits until all the changes have been stored in the disk.
+     * It blocks, so it should not be called from the main thread.
+     */
+    public void flush() {
+        if (APPLY_AVAILABLE) {
+            // The commit is queued after the pending writes and waits for them
+            editor.commit();
+        } else {
+            WriteBehind.get(sharedPreferences).flush();
+        }
     }
 
+    /**
+     * Gets the value of the key which has not been stored yet.
+     * @param key The key of the value
+     * @param defaultValue The default value of the key
+     * @return The value which is going to be stored,
+     *         the default value if the preferences are going to be cleared or
+     *         null if the stored value is still valid
+     */
+    private Object getPendingValue(String key, Object defaultValue) {
+        if (APPLY_AVAILABLE) {
+            // The shared preferences are updated in memory at once
+            return null;
+        }
+
+        Object value = WriteBehind.get(sharedPreferences).getValue(key);
+        if (value == WriteBehind.CLEARED) {
+            return defaultValue;
+        }
+        return value;
+    }
+
+    /**
+     * Stores the changes in memory at once and in the disk in background.
+     * @param editor The editor with the changes
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD)
+    private static void apply(SharedPreferences.Editor editor) {
+        editor.apply();
+    }
+
+    /**
+     * The writer of the changes before Gingerbread, where the editor can only write
+     * synchronously. The changes are kept in memory and written in a background thread.
+     * The changes done while a writing is pending are written together.
+     */
+    private static final class WriteBehind implements Runnable {
+
+        /**
+         * The value returned for all the keys when the preferences are going to be cleared.
+         */
+        private static final Object CLEARED = new Object();
+
+        /**
+         * The writer of the shared preferences of the application.
+         */
+        private static WriteBehind sWriteBehind = null;
+
+        /**
+         * The shared preferences where the changes are written.
+         */
+        private final SharedPreferences sharedPreferences;
+
+        /**
+         * The thread where the changes are written.
+         */
+        private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, LOG_TAG + "-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        /**
+         * The values which have not been stored yet, by key.
+         */
+        private final Map<String, Object> pendingValues = new HashMap<String, Object>();
+
+        /**
+         * Whether the preferences are going to be cleared before storing the pending values.
+         */
+        private boolean pendingClear = false;
+
+        /**
+         * The number of times the preferences have been cleared.
+         */
+        private int clearCount = 0;
+
+        /**
+         * Whether a writing has been queued and it has not started yet.
+         */
+        private boolean writeScheduled = false;
+
+        /**
+         * The main constructor.
+         * @param sharedPreferences The shared preferences where the changes are written
+         */
+        private WriteBehind(SharedPreferences sharedPreferences) {
+            this.sharedPreferences = sharedPreferences;
+        }
+
+        /**
+         * Gets the writer of the shared preferences. There is only one file, so there
+         * is only one writer.
+         * @param sharedPreferences The shared preferences where the changes are written
+         * @return The writer
+         */
+        public static synchronized WriteBehind get(SharedPreferences sharedPreferences) {
+            if (sWriteBehind == null) {
+                sWriteBehind = new WriteBehind(sharedPreferences);
+            }
+            return sWriteBehind;
+        }
+
+        /**
+         * Gets the value of the key which has not been stored yet.
+         * @param key The key of the value
+         * @return The value which is going to be stored,
+         *         CLEARED if the preferences are going to be cleared or
+         *         null if the stored value is still valid
+         */
+        public synchronized Object getValue(String key) {
+            Object value = pendingValues.get(key);
+            if (value == null && pendingClear) {
+                return CLEARED;
+            }
+            return value;
+        }
+
+        /**
+         * Changes the value of a key.
+         * @param key The key of the value
+         * @param value The new value, a String or a Long
+         */
+        public synchronized void put(String key, Object value) {
+            pendingValues.put(key, value);
+            schedule();
+        }
+
+        /**
+         * Changes the values of several keys at once, so they are written together.
+         * @param values The new values by key, each one a String or a Long
+         */
+        public synchronized void putAll(Map<String, Object> values) {
+            pendingValues.putAll(values);
+            schedule();
+        }
+
+        /**
+         * Removes all the values.
+         */
+        public synchronized void clear() {
+            pendingValues.clear();
+            pendingClear = true;
+            clearCount++;
+            schedule();
+        }
+
+        /**
+         * Waits until the changes done before have been stored.
+         */
+        public void flush() {
+            try {
+                // The writer has only one thread, so this runs after the pending writing
+                writer.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                }).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Logger.e(LOG_TAG, "Error waiting for the preferences to be stored", e);
+            }
+        }
+
+        /**
+         * Queues a writing, unless there is one which has not started yet.
+         */
+        private void schedule() {
+            if (!writeScheduled) {
+                writeScheduled = true;
+                writer.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            Map<String, Object> values;
+            boolean clear;
+            int clearCountWritten;
+            synchronized (this) {
+                values = new HashMap<String, Object>(pendingValues);
+                clear = pendingClear;
+                clearCountWritten = clearCount;
+                writeScheduled = false;
+            }
+
+            SharedPreferences.Editor editor = sharedPreferences.edit();
+            if (clear) {
+                editor.clear();
+            }
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                if (entry.getValue() instanceof Long) {
+                    editor.putLong(entry.getKey(), (Long) entry.getValue());
+                } else {
+                    editor.putString(entry.getKey(), (String) entry.getValue());
+                }
+            }
+            if (!editor.commit()) {
+                Logger.e(LOG_TAG, "Error storing the preferences");
+            }
+
+            /*
+             * The values written are not pending anymore, unless they have been changed
+             * while writing them.
+             */
+            synchronized (this) {
+                for (Map.Entry<String, Object> entry : values.entrySet()) {
+                    if (pendingValues.get(entry.getKey()) == entry.getValue()) {
+                        pendingValues.remove(entry.getKey());
+                    }
+                }
+                if (clearCount == clearCountWritten) {
+                    pendingClear = false;
+                }
+            }
+        }
+    }
 }
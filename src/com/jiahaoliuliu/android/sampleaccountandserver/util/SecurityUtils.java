@@ -1,14 +1,5 @@
 package com.jiahaoliuliu.android.sampleaccountandserver.util;
 
-import java.security.SecureRandom;
-
-import javax.crypto.Cipher;
-import javax.crypto.KeyGenerator;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.SecretKeySpec;
-
-import android.util.Base64;
-
 /**
  * The SecurityUtils class contains methods used for password encryption/decryption.
  */
@@ -20,72 +11,10 @@ public final class SecurityUtils {
      */
     private SecurityUtils() { }
 
-    /**
-     * Digits used in hex format.
-     */
-    private static final String HEX = "0123456789ABCDEF";
-
     /**
      * Seed to encryption.
      */
-    private static final String SEED = "com.jiahaoliuliu.android.sampleaccountandserver";
-
-    /**
-     * This method appends a byte to a string buffer with hex format.
-     * @param sb String buffer to append in
-     * @param b Byte to append to the buffer
-     */
-    private static void appendHex(StringBuffer sb, byte b) {
-        sb.append(SecurityUtils.HEX.charAt((b >> 4) & 0x0f)).append(SecurityUtils.HEX.charAt(b & 0x0f));
-    }
-
-    /**
-     * This method gets a raw key from the given seed.
-     *  Raw key is needed for encrypt/decrypt text
-     * @param seed Seed used to get the raw key
-     * @return Byte array with the raw key
-     * @throws Exception
-     */
-    private static byte[] getRawKey(byte[] seed) throws Exception {
-        KeyGenerator kgen = KeyGenerator.getInstance("AES");
-        SecureRandom sr = SecureRandom.getInstance("SHA1PRNG");
-        sr.setSeed(seed);
-        kgen.init(128, sr); // 192 and 256 bits may not be available
-        SecretKey skey = kgen.generateKey();
-        byte[] raw = skey.getEncoded();
-        return raw;
-    }
-
-    /**
-     * This method encrypts text with the given raw byte array.
-     *  The algorithm used is AES
-     * @param raw
-     * @param clear Byte representation of text to encrypt
-     * @return Byte array with encrypted text
-     * @throws Exception
-     */
-    private static byte[] encrypt(byte[] raw, byte[] clear) throws Exception {
-        SecretKeySpec skeySpec = new SecretKeySpec(raw, "AES");
-        Cipher cipher = Cipher.getInstance("AES");
-        cipher.init(Cipher.ENCRYPT_MODE, skeySpec);
-        byte[] encrypted = cipher.doFinal(clear);
-        return encrypted;
-    }
-
-    /**
-     * This method decrypts encrypted text with the given raw byte array.
-     * @param raw Byte array
-     * @param encrypted Text encrypted for decryption
-     * @return Byte array with decrypted text
-     * @throws Exception
-     */
-    private static byte[] decrypt(byte[] raw, byte[] encrypted) throws Exception {
-        SecretKeySpec skeySpec = new SecretKeySpec(raw, "AES");
-        Cipher cipher = Cipher.getInstance("AES");
-        cipher.init(Cipher.DECRYPT_MODE, skeySpec);
-        byte[] decrypted = cipher.doFinal(encrypted);
-        return decrypted;
-    }
+    static final String SEED = "com.jiahaoliuliu.android.sampleaccountandserver";
 
     /**
      * This method converts a byte value into a String with hexadecimal format.
@@ -93,16 +22,7 @@ public final class SecurityUtils {
      * @return String with hexadecimal format
      */
     private static String toHexadecimal(byte[] value) {
-        String result = "";
-        for (byte aux : value) {
-            int b = aux & 0xff;
-            if (Integer.toHexString(b).length() == 1) {
-                result += "0";
-            }
-            result += Integer.toHexString(b);
-        }
-
-        return result;
+        return HexCodec.encodeToString(value, false);
     }
 
     /**
@@ -112,8 +32,7 @@ public final class SecurityUtils {
      * @throws Exception
      */
     public static String encryptToHex(String cleartext) throws Exception {
-        byte[] rawKey = SecurityUtils.getRawKey(SecurityUtils.SEED.getBytes());
-        byte[] result = SecurityUtils.encrypt(rawKey, cleartext.getBytes());
+        byte[] result = KeyManager.instance().encrypt(cleartext.getBytes());
         return SecurityUtils.toHex(result);
     }
 
@@ -124,8 +43,7 @@ public final class SecurityUtils {
      * @throws Exception
      */
     public static byte[] encryptToBytes(String cleartext) throws Exception {
-        byte[] rawKey = SecurityUtils.getRawKey(SecurityUtils.SEED.getBytes());
-        byte[] result = SecurityUtils.encrypt(rawKey, cleartext.getBytes());
+        byte[] result = KeyManager.instance().encrypt(cleartext.getBytes());
         return result;
     }
 
@@ -136,9 +54,8 @@ public final class SecurityUtils {
      * @throws Exception
      */
     public static String decrypt(String encrypted) throws Exception {
-        byte[] rawKey = SecurityUtils.getRawKey(SecurityUtils.SEED.getBytes());
         byte[] enc = SecurityUtils.toByte(encrypted);
-        byte[] result = SecurityUtils.decrypt(rawKey, enc);
+        byte[] result = KeyManager.instance().decrypt(enc);
         return new String(result);
     }
 
@@ -148,16 +65,19 @@ public final class SecurityUtils {
      * @return String with |bytes| encoded into base64
      */
     public static String base64Encode(byte[] bytes) {
-        return Base64.encodeToString(bytes, Base64.NO_WRAP);
+        return Base64Codec.encodeToString(bytes);
     }
 
     /**
-     * This method decodes a base64 encoded string.
+     * This method decodes a base64 encoded string. As android.util.Base64 did, the padding is
+     * optional. Unlike it, the characters which are not base64 digits, like the line breaks,
+     * are rejected instead of skipped.
      * @param base64 String encoded in base64 format
      * @return String with |base64| decoded
+     * @throws IllegalArgumentException if |base64| is not valid base64
      */
     public static String base64Decode(String base64) {
-        return SecurityUtils.toHexadecimal(Base64.decode(base64, Base64.NO_WRAP));
+        return SecurityUtils.toHexadecimal(Base64Codec.decode(base64));
     }
 
     /**
@@ -180,12 +100,7 @@ public final class SecurityUtils {
      * @return Byte array gets from |hexString|
      */
     public static byte[] toByte(String hexString) {
-        int len = hexString.length() / 2;
-        byte[] result = new byte[len];
-        for (int i = 0; i < len; i++) {
-            result[i] = Integer.valueOf(hexString.substring(2 * i, 2 * i + 2), 16).byteValue();
-        }
-        return result;
+        return HexCodec.decode(hexString);
     }
 
     /**
@@ -197,10 +112,6 @@ public final class SecurityUtils {
         if (buf == null) {
             return "";
         }
-        StringBuffer result = new StringBuffer(2 * buf.length);
-        for (int i = 0; i < buf.length; i++) {
-            SecurityUtils.appendHex(result, buf[i]);
-        }
-        return result.toString();
+        return HexCodec.encodeToString(buf, true);
     }
 }
\ No newline at end of file
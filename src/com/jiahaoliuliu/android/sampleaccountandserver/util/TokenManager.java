@@ -0,0 +1,372 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.exception.AuthTokenUnavailableException;
+import com.jiahaoliuliu.android.sampleaccountandserver.service.AuthTokenProvider;
+import com.jiahaoliuliu.android.sampleaccountandserver.service.RequestFuture;
+
+/**
+ * The manager of the auth token of a user. It keeps the token in memory and refreshes it
+ * in background before it expires, so the requests do not find it expired.
+ * If the token must be refreshed while the requests are waiting for it, only one refresh
+ * is done and all the requests wait for it.
+ */
+public class TokenManager implements AuthTokenProvider {
+
+    /**
+     * The tag used for log
+     */
+    private static final String LOG_TAG = TokenManager.class.getSimpleName();
+
+    /**
+     * The maximum time before the expiration when the token is refreshed in background,
+     * in milliseconds.
+     */
+    private static final long REFRESH_AHEAD_TIME = 5 * 60 * 1000;
+
+    /**
+     * The percentage of the remaining lifetime of the token after which it is refreshed in
+     * background. So the short-lived tokens are not refreshed as soon as they are obtained.
+     */
+    private static final int REFRESH_AT_PERCENTAGE = 80;
+
+    /**
+     * The minimum time a token is used, and between obtaining it and refreshing it in background,
+     * in milliseconds. Even if the server issues tokens which expire at once, the refreshes do not loop.
+     */
+    private static final long MIN_REFRESH_DELAY = 30 * 1000;
+
+    /**
+     * The time before the expiration when the token is not used anymore, in milliseconds.
+     * It covers the time the request takes to reach the server.
+     */
+    private static final long EXPIRATION_MARGIN = 30 * 1000;
+
+    /**
+     * A class to hold the executors of the refreshes in background. They are shared by all the users.
+     * The scheduler only waits for the time of each refresh, which runs in a thread of its own, so a
+     * slow login of a user does not delay the refreshes of the others.
+     */
+    private static class SchedulerHolder {
+        /**
+         * The factory of the threads of the refreshes.
+         */
+        private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, LOG_TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+
+        /**
+         * The scheduler of the refreshes.
+         */
+        private static final ScheduledExecutorService SCHEDULER =
+                Executors.newSingleThreadScheduledExecutor(THREAD_FACTORY);
+
+        /**
+         * The executor which runs the refreshes. Each user has at most one refresh running,
+         * so it has at most a thread for each user.
+         */
+        private static final Executor REFRESH_EXECUTOR = Executors.newCachedThreadPool(THREAD_FACTORY);
+    }
+
+    /**
+     * The provider which gets the tokens from the account manager.
+     */
+    private final AccountAuthTokenProvider accountAuthTokenProvider;
+
+    /**
+     * The current token, or null if it has not been obtained yet or it has been invalidated.
+     */
+    private volatile Token currentToken = null;
+
+    /**
+     * The refresh in progress, or null if there is not any. Guarded by this.
+     */
+    private RequestFuture<String> refreshInProgress = null;
+
+    /**
+     * The refresh scheduled before the expiration of the current token. Guarded by this.
+     */
+    private ScheduledFuture<?> scheduledRefresh = null;
+
+    /**
+     * Whether the manager has been stopped. Guarded by this.
+     */
+    private boolean isStopped = false;
+
+    /**
+     * The main constructor.
+     * @param accountAuthTokenProvider The provider which gets the tokens from the account manager
+     */
+    public TokenManager(AccountAuthTokenProvider accountAuthTokenProvider) {
+        this.accountAuthTokenProvider = accountAuthTokenProvider;
+    }
+
+    @Override
+    public String getAccountName() {
+        return accountAuthTokenProvider.getAccountName();
+    }
+
+    /**
+     * Gets the auth token of the user. If it has expired, it waits for the refresh.
+     * @return The auth token
+     * @throws IOException if the auth token could not be obtained
+     */
+    @Override
+    public String getAuthToken() throws IOException {
+        Token token = currentToken;
+        if (token != null && !token.isExpired()) {
+            return token.value;
+        }
+
+        try {
+            return refresh(token).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the auth token");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            IOException ioException = new IOException("The auth token could not be refreshed");
+            ioException.initCause(e.getCause());
+            throw ioException;
+        }
+    }
+
+    @Override
+    public void invalidateAuthToken(String authToken) {
+        synchronized (this) {
+            Token token = currentToken;
+            if (token != null && token.value.equals(authToken)) {
+                currentToken = null;
+            }
+        }
+        accountAuthTokenProvider.invalidateAuthToken(authToken);
+    }
+
+    /**
+     * Forgets the token in memory, so the next request gets the one saved in the account
+     * manager. It is used when the user logs in again and a new token has been saved.
+     */
+    public synchronized void clear() {
+        currentToken = null;
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+    }
+
+    /**
+     * Stops the refreshes in background, once the user has logged out.
+     */
+    public synchronized void stop() {
+        isStopped = true;
+        clear();
+    }
+
+    /**
+     * Refreshes the token, unless another thread is already doing it. In that case it joins
+     * the refresh in progress.
+     * @param staleToken The token which is not valid anymore, or null if there is not any
+     * @return The future of the new token
+     */
+    private RequestFuture<String> refresh(Token staleToken) {
+        RequestFuture<String> refresh;
+        synchronized (this) {
+            // Another thread may have refreshed it while this one was waiting for the lock
+            Token token = currentToken;
+            if (token != staleToken && token != null && !token.isExpired()) {
+                return RequestFuture.succeeded(token.value);
+            }
+
+            if (refreshInProgress != null) {
+                return refreshInProgress;
+            }
+
+            refresh = new RequestFuture<String>();
+            refreshInProgress = refresh;
+        }
+
+        // The thread which has created the refresh does it
+        try {
+            Token newToken = obtainToken(staleToken);
+            synchronized (this) {
+                refreshInProgress = null;
+                if (!isStopped) {
+                    currentToken = newToken;
+                    scheduleRefresh(newToken);
+                }
+            }
+            refresh.set(newToken.value);
+        } catch (IOException e) {
+            Logger.w(LOG_TAG, "The auth token of {} could not be refreshed", getAccountName(), e);
+            synchronized (this) {
+                refreshInProgress = null;
+            }
+            refresh.setException(e);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                refreshInProgress = null;
+            }
+            refresh.setException(e);
+            throw e;
+        }
+        return refresh;
+    }
+
+    /**
+     * Obtains a new token. The stale token is replaced by logging in again. Without stale token,
+     * the one saved in the account manager is used, unless it expires within the margin.
+     * @param staleToken The token which is not valid anymore, or null if there is not any
+     * @return The new token
+     * @throws IOException if the auth token could not be obtained
+     */
+    private Token obtainToken(Token staleToken) throws IOException {
+        if (staleToken != null) {
+            return renewToken(staleToken);
+        }
+
+        Token token = newToken(accountAuthTokenProvider.getAuthToken());
+        if (token.expiresWithinMargin()) {
+            Logger.v(LOG_TAG, "The auth token cached has expired");
+            token = renewToken(token);
+        }
+        return token;
+    }
+
+    /**
+     * Logs in again to replace a token. The stale token is only invalidated once the new one has
+     * been saved, so the requests which are still using it are not affected until then, and the
+     * account manager is not left without token if the login fails.
+     * @param staleToken The token which is not valid anymore
+     * @return The new token
+     * @throws IOException if the auth token could not be obtained
+     */
+    private Token renewToken(Token staleToken) throws IOException {
+        Token token = newToken(accountAuthTokenProvider.logIn());
+        if (!token.value.equals(staleToken.value)) {
+            accountAuthTokenProvider.invalidateAuthToken(staleToken.value);
+        }
+        return token;
+    }
+
+    /**
+     * Creates the token with the expiration time of the last one saved in the account manager.
+     * @param value The auth token
+     * @return The token
+     * @throws AuthTokenUnavailableException if there is not any auth token
+     */
+    private Token newToken(String value) throws AuthTokenUnavailableException {
+        if (value == null) {
+            throw new AuthTokenUnavailableException("There is not any auth token for " + getAccountName());
+        }
+        return new Token(value, accountAuthTokenProvider.getExpirationTime());
+    }
+
+    /**
+     * Schedules the refresh of the token before it expires. It is refreshed at REFRESH_AT_PERCENTAGE
+     * of its remaining lifetime, but not earlier than REFRESH_AHEAD_TIME before the expiration, nor
+     * sooner than MIN_REFRESH_DELAY. It must be called holding the lock.
+     * @param token The current token
+     */
+    private void scheduleRefresh(final Token token) {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+
+        if (token.expirationTime == AccountUtils.UNKNOWN_EXPIRATION_TIME) {
+            // It is refreshed when the server rejects it
+            return;
+        }
+
+        long lifetime = token.expirationTime - System.currentTimeMillis();
+        long refreshAheadTime = Math.min(REFRESH_AHEAD_TIME, lifetime * (100 - REFRESH_AT_PERCENTAGE) / 100);
+        long delay = Math.max(MIN_REFRESH_DELAY, lifetime - refreshAheadTime);
+        final Runnable refreshTask = new Runnable() {
+            @Override
+            public void run() {
+                if (currentToken == token) {
+                    Logger.v(LOG_TAG, "Refreshing the auth token of {}", getAccountName());
+                    refresh(token);
+                }
+            }
+        };
+        scheduledRefresh = SchedulerHolder.SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                SchedulerHolder.REFRESH_EXECUTOR.execute(refreshTask);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * An auth token with its expiration time.
+     */
+    private static final class Token {
+
+        /**
+         * The auth token.
+         */
+        private final String value;
+
+        /**
+         * The time when the token expires, in milliseconds since the epoch, or
+         * AccountUtils.UNKNOWN_EXPIRATION_TIME if it is not known.
+         */
+        private final long expirationTime;
+
+        /**
+         * The time until the token is used, in milliseconds since the epoch. It is the margin
+         * before the expiration, but not sooner than MIN_REFRESH_DELAY after the token has been
+         * obtained. So a token which the server issues already within the margin does not make
+         * every request log in again.
+         */
+        private final long usableUntil;
+
+        /**
+         * The main constructor.
+         * @param value The auth token
+         * @param expirationTime The time when the token expires
+         */
+        public Token(String value, long expirationTime) {
+            this.value = value;
+            this.expirationTime = expirationTime;
+            this.usableUntil = expirationTime == AccountUtils.UNKNOWN_EXPIRATION_TIME ? Long.MAX_VALUE
+                    : Math.max(expirationTime - EXPIRATION_MARGIN, System.currentTimeMillis() + MIN_REFRESH_DELAY);
+        }
+
+        /**
+         * Tells if the token must not be used anymore.
+         * @return True if the time the token is used has passed.
+         *         False if it has not, or if the expiration time is not known
+         */
+        public boolean isExpired() {
+            return System.currentTimeMillis() >= usableUntil;
+        }
+
+        /**
+         * Tells if the token expires in less than the margin, however long it has been used.
+         * @return True if the token expires in less than the margin.
+         *         False if it does not, or if the expiration time is not known
+         */
+        public boolean expiresWithinMargin() {
+            return expirationTime != AccountUtils.UNKNOWN_EXPIRATION_TIME
+                    && System.currentTimeMillis() >= expirationTime - EXPIRATION_MARGIN;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.test.AndroidTestCase;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.exception.SessionException;
+
+/**
+ * The stress test of the sessions: many threads log in, switch and log out users while many
+ * others read the current session. Once they finish, no session of a user who has logged out
+ * may be left registered or current.
+ */
+public class SessionStressTest extends AndroidTestCase {
+
+    /**
+     * The number of threads which log in and log out, each one with its own user.
+     */
+    private static final int WRITERS = 4;
+
+    /**
+     * The number of threads which read the current session.
+     */
+    private static final int READERS = 4;
+
+    /**
+     * The number of times each writer logs in and logs out.
+     */
+    private static final int ITERATIONS = 500;
+
+    /**
+     * The maximum time the test waits for the threads, in seconds.
+     */
+    private static final long TIMEOUT = 60;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        logOutEverybody();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        logOutEverybody();
+        super.tearDown();
+    }
+
+    public void testNoSessionSurvivesTheLogOutOfItsUser() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch writersDone = new CountDownLatch(WRITERS);
+        final AtomicBoolean isWriting = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < WRITERS; i++) {
+            final String username = "user" + i;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < ITERATIONS; j++) {
+                            SessionStore.instance(getContext()).logIn(username);
+                            readCurrentSession();
+                            if (j % 10 == 0) {
+                                Session.switchTo(getContext(), "user" + (j % WRITERS));
+                            }
+                            Session.logOut(getContext(), username);
+                            assertNotCurrent(username);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        writersDone.countDown();
+                    }
+                }
+            }, "Writer" + i));
+        }
+
+        for (int i = 0; i < READERS; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (isWriting.get()) {
+                            readCurrentSession();
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }, "Reader" + i));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        assertTrue("The writers have not finished", writersDone.await(TIMEOUT, TimeUnit.SECONDS));
+        isWriting.set(false);
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT));
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        // Every user has logged out as the last thing, so nobody is logged in
+        assertTrue("Sessions left: " + Session.getUsernames(), Session.getUsernames().isEmpty());
+        assertFalse(SessionStore.instance(getContext()).getState().hasUser());
+        try {
+            Session session = Session.getCurrentSession(getContext());
+            fail("The session of " + session.getUsername() + " is still the current one");
+        } catch (SessionException e) {
+            // There is not any current session
+        }
+    }
+
+    /**
+     * Reads the current session, if there is any, and checks that it belongs to a user.
+     * The lack of a session is not a failure.
+     */
+    private void readCurrentSession() {
+        try {
+            Session session = Session.getCurrentSession(getContext());
+            assertNotNull(session);
+            assertTrue(session.getUsername().length() > 0);
+        } catch (SessionException e) {
+            // Nobody is logged in right now
+        }
+    }
+
+    /**
+     * Checks that the current session does not belong to a user who has logged out. Only the
+     * thread of the user logs it in again, so no other thread can make it current.
+     * @param username The name of the user
+     */
+    private void assertNotCurrent(String username) {
+        try {
+            Session session = Session.getCurrentSession(getContext());
+            assertFalse("The session of " + username + " is current after its logout",
+                    session.getUsername().equals(username));
+        } catch (SessionException e) {
+            // Nobody is logged in right now
+        }
+    }
+
+    /**
+     * Logs out all the users logged in, so the test starts and ends without any session.
+     */
+    private void logOutEverybody() {
+        for (String username : Session.getUsernames()) {
+            Session.logOut(getContext(), username);
+        }
+        Session.logOut(getContext());
+    }
+}
@@ -0,0 +1,112 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import junit.framework.TestCase;
+
+/**
+ * The tests of the states of the circuit breaker, and of the probes which close it again.
+ */
+public class CircuitBreakerTest extends TestCase {
+
+    /**
+     * The time the circuits of the tests stay open, in milliseconds.
+     */
+    private static final long OPEN_DURATION = 50;
+
+    /**
+     * The duration of the requests which are not slow, in nanoseconds.
+     */
+    private static final long DURATION = 1000;
+
+    public void testCircuitOpensWhenMostRequestsFail() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("example.com", OPEN_DURATION);
+        for (int i = 0; i < 9; i++) {
+            circuitBreaker.onFailure(circuitBreaker.allowRequest(), DURATION);
+        }
+        // Too few requests to decide
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        circuitBreaker.onFailure(circuitBreaker.allowRequest(), DURATION);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(CircuitBreaker.REJECTED, circuitBreaker.allowRequest());
+        assertEquals(1, circuitBreaker.getRejectedCount());
+    }
+
+    public void testCircuitStaysClosedWhenMostRequestsSucceed() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("example.com", OPEN_DURATION);
+        for (int i = 0; i < 20; i++) {
+            long ticket = circuitBreaker.allowRequest();
+            if (i % 3 == 0) {
+                circuitBreaker.onFailure(ticket, DURATION);
+            } else {
+                circuitBreaker.onSuccess(ticket, DURATION);
+            }
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    public void testOnlyTheProbeClosesTheCircuit() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("example.com", OPEN_DURATION);
+        // A request let through before the circuit opens
+        long lateTicket = circuitBreaker.allowRequest();
+        open(circuitBreaker);
+
+        Thread.sleep(OPEN_DURATION * 2);
+        long probeTicket = circuitBreaker.allowRequest();
+        assertTrue(probeTicket != CircuitBreaker.REJECTED);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertEquals(CircuitBreaker.REJECTED, circuitBreaker.allowRequest());
+
+        circuitBreaker.onSuccess(lateTicket, DURATION);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        circuitBreaker.onSuccess(probeTicket, DURATION);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    public void testOnlyTheProbeOpensTheCircuitAgain() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("example.com", OPEN_DURATION);
+        long lateTicket = circuitBreaker.allowRequest();
+        open(circuitBreaker);
+
+        Thread.sleep(OPEN_DURATION * 2);
+        long probeTicket = circuitBreaker.allowRequest();
+        circuitBreaker.onFailure(lateTicket, DURATION);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        circuitBreaker.onFailure(probeTicket, DURATION);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(2, circuitBreaker.getOpenCount());
+    }
+
+    public void testReleasedProbeLetsAnotherOneThrough() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("example.com", OPEN_DURATION);
+        open(circuitBreaker);
+
+        Thread.sleep(OPEN_DURATION * 2);
+        long probeTicket = circuitBreaker.allowRequest();
+        assertEquals(CircuitBreaker.REJECTED, circuitBreaker.allowRequest());
+
+        // The probe has not been sent, for example because it was cancelled
+        circuitBreaker.release(probeTicket);
+        long nextProbeTicket = circuitBreaker.allowRequest();
+        assertTrue(nextProbeTicket != CircuitBreaker.REJECTED);
+        assertTrue(nextProbeTicket != probeTicket);
+
+        // The first probe is not the probe anymore
+        circuitBreaker.onSuccess(probeTicket, DURATION);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        circuitBreaker.onSuccess(nextProbeTicket, DURATION);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    /**
+     * Opens a circuit with enough failed requests.
+     * @param circuitBreaker The circuit breaker
+     */
+    private static void open(CircuitBreaker circuitBreaker) {
+        for (int i = 0; i < 10; i++) {
+            circuitBreaker.onFailure(circuitBreaker.allowRequest(), DURATION);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+}
@@ -0,0 +1,60 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import junit.framework.TestCase;
+
+import android.net.Uri;
+
+/**
+ * The tests of the registry of the endpoints: the identifiers of the paths and its bound.
+ */
+public class EndpointRegistryTest extends TestCase {
+
+    public void testPathWithoutIdentifiersIsNotCopied() {
+        String path = "/v2/users/profile";
+        assertSame(path, EndpointRegistry.normalize(path));
+        assertSame("", EndpointRegistry.normalize(""));
+        assertEquals("/", EndpointRegistry.normalize("/"));
+    }
+
+    public void testNumbersAndLongHexadecimalsAreIdentifiers() {
+        assertEquals("/users/{id}", EndpointRegistry.normalize("/users/1234"));
+        assertEquals("/users/{id}/photos/{id}/", EndpointRegistry.normalize("/users/1234/photos/5/"));
+        assertEquals("/items/{id}", EndpointRegistry.normalize("/items/0123456789abcdef0123456789ABCDEF"));
+        assertEquals("/items/{id}", EndpointRegistry.normalize("/items/123e4567-e89b-12d3-a456-426614174000"));
+        // The short hexadecimal words are not identifiers
+        assertEquals("/cafe/{id}", EndpointRegistry.normalize("/cafe/42"));
+    }
+
+    public void testRequestsWithDifferentIdentifiersShareTheEndpoint() {
+        EndpointRegistry<String> registry = new NameRegistry();
+        String endpoint = registry.get(Uri.parse("http://example.com/users/1"));
+        assertEquals("example.com/users/{id}", endpoint);
+        assertSame(endpoint, registry.get(Uri.parse("http://example.com/users/2?page=3")));
+        assertEquals(1, registry.values().size());
+    }
+
+    public void testEndpointsBeyondTheMaximumShareOne() {
+        EndpointRegistry<String> registry = new NameRegistry();
+        for (int i = 0; i < EndpointRegistry.MAX_ENDPOINTS; i++) {
+            assertEquals("example.com/path" + (char) ('a' + i % 26) + (char) ('a' + i / 26),
+                    registry.get(Uri.parse("http://example.com/path" + (char) ('a' + i % 26) + (char) ('a' + i / 26))));
+        }
+
+        assertEquals(EndpointRegistry.OTHER_ENDPOINTS, registry.get(Uri.parse("http://example.com/another")));
+        assertEquals(EndpointRegistry.OTHER_ENDPOINTS, registry.get(Uri.parse("http://other.com/")));
+        // The existing ones are still found
+        assertEquals("example.com/pathaa", registry.get(Uri.parse("http://example.com/pathaa")));
+        assertEquals(EndpointRegistry.MAX_ENDPOINTS + 1, registry.values().size());
+    }
+
+    /**
+     * The registry whose values are the names of the endpoints.
+     */
+    private static class NameRegistry extends EndpointRegistry<String> {
+
+        @Override
+        protected String create(String name) {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.util.Benchmark;
+
+/**
+ * The benchmark of the latency of the requests to a local stand-in of the server which keeps
+ * the connections alive, with the shared client which reuses them, and with a new client for
+ * each request, as it was done before.
+ */
+public class HttpClientBenchmark extends TestCase {
+
+    /**
+     * The number of requests timed with each client.
+     */
+    private static final int REQUESTS = 200;
+
+    /**
+     * The stand-in of the server.
+     */
+    private StandInServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new StandInServer();
+        server.setKeepAlive(true);
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+        super.tearDown();
+    }
+
+    public void testSharedClientReusesTheConnections() throws Exception {
+        // Each operation is run twice, to warm up and to be timed
+        for (int i = 0; i < 4 * REQUESTS; i++) {
+            server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("{}"));
+        }
+
+        Benchmark.nanosPerOperation("GET with the shared client", REQUESTS, new Benchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                get(HttpClientSingleton.instance().getHttpClient());
+            }
+        });
+        int sharedClientConnections = server.getConnectionCount();
+
+        Benchmark.nanosPerOperation("GET with a new client", REQUESTS, new Benchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                DefaultHttpClient httpClient = new DefaultHttpClient();
+                try {
+                    get(httpClient);
+                } finally {
+                    httpClient.getConnectionManager().shutdown();
+                }
+            }
+        });
+        int newClientConnections = server.getConnectionCount() - sharedClientConnections;
+
+        Benchmark.report("Connections opened for {} requests: {} with the shared client, {} with a new client",
+                2 * REQUESTS, sharedClientConnections, newClientConnections);
+        assertTrue(sharedClientConnections < 2 * REQUESTS / 10);
+        assertEquals(2 * REQUESTS, newClientConnections);
+    }
+
+    /**
+     * Sends a request to the stand-in server and reads its response.
+     * @param httpClient The client which sends it
+     * @throws Exception if the request has failed
+     */
+    private void get(HttpClient httpClient) throws Exception {
+        HttpResponse httpResponse = httpClient.execute(new HttpGet(server.url("/keep-alive")));
+        assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+        // Reading the whole content releases the connection
+        EntityUtils.toByteArray(httpResponse.getEntity());
+    }
+}
@@ -0,0 +1,157 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpStatus;
+
+import android.net.Uri;
+
+/**
+ * The tests of the requests of two accounts which run at the same time, each one with its
+ * own scheduler and its own auth token, as the sessions send them.
+ */
+public class HttpRequestAccountsTest extends TestCase {
+
+    /**
+     * The maximum time the tests wait for a request, in milliseconds.
+     */
+    private static final long REQUEST_TIMEOUT = 10 * 1000;
+
+    /**
+     * The delay of the slow responses, in milliseconds.
+     */
+    private static final long SLOW_RESPONSE_DELAY = 1000;
+
+    /**
+     * The stand-in of the server.
+     */
+    private StandInServer server;
+
+    /**
+     * The scheduler of the requests of the first account.
+     */
+    private RequestScheduler firstScheduler;
+
+    /**
+     * The scheduler of the requests of the second account.
+     */
+    private RequestScheduler secondScheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        CircuitBreaker.clear();
+        server = new StandInServer();
+        server.start();
+        firstScheduler = new RequestScheduler(1, RequestScheduler.DEFAULT_QUEUE_CAPACITY,
+                RequestScheduler.RejectionPolicy.ABORT);
+        secondScheduler = new RequestScheduler(1, RequestScheduler.DEFAULT_QUEUE_CAPACITY,
+                RequestScheduler.RejectionPolicy.ABORT);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        firstScheduler.shutdownNow();
+        secondScheduler.shutdownNow();
+        server.shutdown();
+        CircuitBreaker.clear();
+        super.tearDown();
+    }
+
+    public void testSameRequestOfTwoAccountsIsSentWithEachToken() throws Exception {
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("profile").setDelay(SLOW_RESPONSE_DELAY));
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("profile").setDelay(SLOW_RESPONSE_DELAY));
+
+        RequestFuture<byte[]> firstFuture = newRequest("/profile", "first", firstScheduler)
+                .performRequestAsync(new ByteArrayDecoder());
+        RequestFuture<byte[]> secondFuture = newRequest("/profile", "second", secondScheduler)
+                .performRequestAsync(new ByteArrayDecoder());
+
+        // Both requests reach the server before any of them is answered
+        Set<String> authorizations = new HashSet<String>();
+        authorizations.add(server.takeRequest().getHeader("Authorization"));
+        authorizations.add(server.takeRequest().getHeader("Authorization"));
+        assertFalse(firstFuture.isDone());
+        assertFalse(secondFuture.isDone());
+        assertTrue(authorizations.contains("Bearer token-first"));
+        assertTrue(authorizations.contains("Bearer token-second"));
+
+        assertEquals("profile", new String(firstFuture.get(REQUEST_TIMEOUT, TimeUnit.MILLISECONDS), "UTF-8"));
+        assertEquals("profile", new String(secondFuture.get(REQUEST_TIMEOUT, TimeUnit.MILLISECONDS), "UTF-8"));
+        // The requests are not coalesced, since they are of different accounts
+        assertEquals(2, server.getRequestCount());
+    }
+
+    public void testSlowAccountDoesNotDelayAnother() throws Exception {
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("slow").setDelay(SLOW_RESPONSE_DELAY));
+        RequestFuture<byte[]> slowFuture = newRequest("/slow", "first", firstScheduler)
+                .performRequestAsync(new ByteArrayDecoder());
+        // The only thread of the first account is busy with the slow request
+        assertEquals("Bearer token-first", server.takeRequest().getHeader("Authorization"));
+
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("fast"));
+        long start = System.nanoTime();
+        RequestFuture<byte[]> fastFuture = newRequest("/fast", "second", secondScheduler)
+                .performRequestAsync(new ByteArrayDecoder());
+        assertEquals("fast", new String(fastFuture.get(REQUEST_TIMEOUT, TimeUnit.MILLISECONDS), "UTF-8"));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("The second account has waited for the first one: " + elapsed + " ms", elapsed < SLOW_RESPONSE_DELAY);
+        assertFalse(slowFuture.isDone());
+        assertEquals("Bearer token-second", server.takeRequest().getHeader("Authorization"));
+        assertEquals("slow", new String(slowFuture.get(REQUEST_TIMEOUT, TimeUnit.MILLISECONDS), "UTF-8"));
+    }
+
+    /**
+     * Creates a request of an account to the stand-in server.
+     * @param path The path of the request
+     * @param accountName The name of the account
+     * @param requestScheduler The scheduler of the requests of the account
+     * @return The request
+     */
+    private HttpRequest newRequest(String path, String accountName, RequestScheduler requestScheduler) {
+        HttpRequest httpRequest = new HttpRequest(Uri.parse(server.url(path)), null,
+                HttpRequest.RequestMethod.RequestMethodGet);
+        httpRequest.setRetryPolicy(RetryPolicy.NONE);
+        httpRequest.setRequestScheduler(requestScheduler);
+        httpRequest.setAuthTokenProvider(new FixedAuthTokenProvider(accountName));
+        return httpRequest;
+    }
+
+    /**
+     * The provider which always gives the same token, made of the name of the account.
+     */
+    private static class FixedAuthTokenProvider implements AuthTokenProvider {
+
+        /**
+         * The name of the account.
+         */
+        private final String accountName;
+
+        /**
+         * The constructor of the provider.
+         * @param accountName The name of the account
+         */
+        public FixedAuthTokenProvider(String accountName) {
+            this.accountName = accountName;
+        }
+
+        @Override
+        public String getAccountName() {
+            return accountName;
+        }
+
+        @Override
+        public String getAuthToken() {
+            return "token-" + accountName;
+        }
+
+        @Override
+        public void invalidateAuthToken(String authToken) {
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+
+import android.net.Uri;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.exception.RequestException;
+
+/**
+ * The tests of the requests which use the cache of the responses, against a local stand-in
+ * of the server.
+ */
+public class HttpRequestCacheTest extends TestCase {
+
+    /**
+     * The maximum time the tests wait for a request, in milliseconds.
+     */
+    private static final long REQUEST_TIMEOUT = 10 * 1000;
+
+    /**
+     * The stand-in of the server.
+     */
+    private StandInServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        HttpResponseCache.instance().clear();
+        server = new StandInServer();
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+        HttpResponseCache.instance().clear();
+        super.tearDown();
+    }
+
+    public void testFreshResponseIsServedWithoutTheNetwork() throws Exception {
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK)
+                .setHeader("Cache-Control", "max-age=60").setBody("42"));
+
+        assertEquals(Integer.valueOf(42), get("/fresh"));
+        assertEquals(Integer.valueOf(42), get("/fresh"));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    public void testStaleResponseIsRevalidated() throws Exception {
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK)
+                .setHeader("Cache-Control", "no-cache").setHeader("ETag", "\"v1\"").setBody("42"));
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_NOT_MODIFIED)
+                .setHeader("Cache-Control", "max-age=60"));
+
+        assertEquals(Integer.valueOf(42), get("/stale"));
+        assertNull(server.takeRequest().getHeader("If-None-Match"));
+
+        assertEquals(Integer.valueOf(42), get("/stale"));
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+
+        // The revalidation has made it fresh again
+        assertEquals(Integer.valueOf(42), get("/stale"));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    public void testResponseWhichCannotBeDecodedIsNotCached() throws Exception {
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK)
+                .setHeader("Cache-Control", "max-age=60").setBody("not a number"));
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK)
+                .setHeader("Cache-Control", "max-age=60").setBody("42"));
+
+        assertGetFails("/malformed");
+        assertNull(HttpResponseCache.instance().get(server.url("/malformed")));
+
+        // The next request goes to the network instead of failing with the response cached
+        assertEquals(Integer.valueOf(42), get("/malformed"));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    public void testCachedResponseWhichCannotBeDecodedIsRemoved() throws Exception {
+        BasicHttpResponse cachedResponse = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, null);
+        cachedResponse.addHeader("Cache-Control", "max-age=60");
+        HttpResponseCache.instance().put(server.url("/corrupted"), cachedResponse, "not a number".getBytes("UTF-8"), null);
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK)
+                .setHeader("Cache-Control", "max-age=60").setBody("42"));
+
+        assertGetFails("/corrupted");
+        assertEquals(0, server.getRequestCount());
+
+        assertEquals(Integer.valueOf(42), get("/corrupted"));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    /**
+     * Sends a GET request to the stand-in server and waits for its result.
+     * @param path The path of the request
+     * @return The number returned by the server
+     * @throws Exception if the request has failed
+     */
+    private Integer get(String path) throws Exception {
+        HttpRequest httpRequest = new HttpRequest(Uri.parse(server.url(path)), null,
+                HttpRequest.RequestMethod.RequestMethodGet);
+        return httpRequest.performRequestAsync(new NumberDecoder()).get(REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a GET request to the stand-in server and checks that it fails.
+     * @param path The path of the request
+     * @throws Exception if the request has not finished in time
+     */
+    private void assertGetFails(String path) throws Exception {
+        try {
+            get(path);
+            fail("The request to " + path + " has not failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RequestException);
+        }
+    }
+
+    /**
+     * The decoder of the responses which are a number in plain text.
+     */
+    private static class NumberDecoder implements ResponseDecoder<Integer> {
+
+        @Override
+        public Integer decode(InputStream inputStream, String charset, long contentLength) throws Exception {
+            byte[] content = new ByteArrayDecoder().decode(inputStream, charset, contentLength);
+            return Integer.valueOf(new String(content, "UTF-8").trim());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpStatus;
+
+import android.net.Uri;
+
+/**
+ * The tests of the identical requests in flight, which share the same response of the
+ * stand-in server when they can.
+ */
+public class HttpRequestCoalescingTest extends TestCase {
+
+    /**
+     * The maximum time the tests wait for a request, in milliseconds.
+     */
+    private static final long REQUEST_TIMEOUT = 10 * 1000;
+
+    /**
+     * The delay of the responses, in milliseconds, so the second request is made while the
+     * first one is in flight.
+     */
+    private static final long RESPONSE_DELAY = 500;
+
+    /**
+     * The stand-in of the server.
+     */
+    private StandInServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        CircuitBreaker.clear();
+        server = new StandInServer();
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+        CircuitBreaker.clear();
+        super.tearDown();
+    }
+
+    public void testIdenticalGetsShareTheResponse() throws Exception {
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("shared").setDelay(RESPONSE_DELAY));
+
+        RequestFuture<byte[]> firstFuture = newRequest("/get", HttpRequest.RequestMethod.RequestMethodGet)
+                .performRequestAsync(new ByteArrayDecoder());
+        server.takeRequest();
+        RequestFuture<byte[]> secondFuture = newRequest("/get", HttpRequest.RequestMethod.RequestMethodGet)
+                .performRequestAsync(new ByteArrayDecoder());
+
+        assertEquals("shared", result(firstFuture));
+        assertEquals("shared", result(secondFuture));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    public void testIdenticalPostsAreSentEach() throws Exception {
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("first").setDelay(RESPONSE_DELAY));
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("second"));
+
+        RequestFuture<byte[]> firstFuture = newRequest("/post", HttpRequest.RequestMethod.RequestMethodPost)
+                .performRequestAsync(new ByteArrayDecoder());
+        server.takeRequest();
+        RequestFuture<byte[]> secondFuture = newRequest("/post", HttpRequest.RequestMethod.RequestMethodPost)
+                .performRequestAsync(new ByteArrayDecoder());
+
+        assertEquals("first", result(firstFuture));
+        assertEquals("second", result(secondFuture));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    public void testGetsSentDifferentlyAreNotJoined() throws Exception {
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("first").setDelay(RESPONSE_DELAY));
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("second").setDelay(RESPONSE_DELAY));
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("third"));
+
+        RequestFuture<byte[]> firstFuture = newRequest("/settings", HttpRequest.RequestMethod.RequestMethodGet)
+                .performRequestAsync(new ByteArrayDecoder());
+        server.takeRequest();
+
+        HttpRequest highPriorityRequest = newRequest("/settings", HttpRequest.RequestMethod.RequestMethodGet);
+        highPriorityRequest.setPriority(RequestScheduler.Priority.HIGH);
+        RequestFuture<byte[]> secondFuture = highPriorityRequest.performRequestAsync(new ByteArrayDecoder());
+        server.takeRequest();
+
+        HttpRequest retriedRequest = newRequest("/settings", HttpRequest.RequestMethod.RequestMethodGet);
+        retriedRequest.setRetryPolicy(RetryPolicy.DEFAULT);
+        RequestFuture<byte[]> thirdFuture = retriedRequest.performRequestAsync(new ByteArrayDecoder());
+
+        assertEquals("first", result(firstFuture));
+        assertEquals("second", result(secondFuture));
+        assertEquals("third", result(thirdFuture));
+        assertEquals(3, server.getRequestCount());
+    }
+
+    /**
+     * Creates a request to the stand-in server.
+     * @param path The path of the request
+     * @param requestMethod The method of the request
+     * @return The request
+     */
+    private HttpRequest newRequest(String path, HttpRequest.RequestMethod requestMethod) {
+        HttpRequest httpRequest = new HttpRequest(Uri.parse(server.url(path)), null, requestMethod);
+        httpRequest.setRetryPolicy(RetryPolicy.NONE);
+        return httpRequest;
+    }
+
+    /**
+     * Waits for the result of a request.
+     * @param future The future of the request
+     * @return The content returned by the server
+     * @throws Exception if the request has failed
+     */
+    private static String result(RequestFuture<byte[]> future) throws Exception {
+        return new String(future.get(REQUEST_TIMEOUT, TimeUnit.MILLISECONDS), "UTF-8");
+    }
+}
@@ -0,0 +1,168 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpStatus;
+
+import android.net.Uri;
+
+/**
+ * The tests of the hedged requests against a local stand-in of the server, which delays
+ * some of its responses.
+ */
+public class HttpRequestHedgingTest extends TestCase {
+
+    /**
+     * The maximum time the tests wait for a request, in milliseconds.
+     */
+    private static final long REQUEST_TIMEOUT = 10 * 1000;
+
+    /**
+     * The number of fast requests sent to an endpoint before the tests, so its tracker knows
+     * its latencies. It is more than the minimum needed to hedge.
+     */
+    private static final int WARM_UP_REQUESTS = 30;
+
+    /**
+     * The delay of the slow responses, in milliseconds. It is much longer than the fast ones.
+     */
+    private static final long SLOW_RESPONSE_DELAY = 1000;
+
+    /**
+     * The stand-in of the server.
+     */
+    private StandInServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new StandInServer();
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+        super.tearDown();
+    }
+
+    public void testSlowRequestIsAnsweredByTheSecondCopy() throws Exception {
+        warmUp("/hedged-get", HttpRequest.RequestMethod.RequestMethodGet);
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("slow").setDelay(SLOW_RESPONSE_DELAY));
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("fast"));
+
+        HttpRequest httpRequest = newRequest("/hedged-get", HttpRequest.RequestMethod.RequestMethodGet);
+        httpRequest.setHedged(true);
+        long start = System.nanoTime();
+        String result = perform(httpRequest);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals("fast", result);
+        assertTrue("It has waited for the slow copy: " + elapsed + " ms", elapsed < SLOW_RESPONSE_DELAY);
+        assertEquals(WARM_UP_REQUESTS + 2, server.getRequestCount());
+    }
+
+    public void testRequestWhichIsNotHedgedIsSentOnce() throws Exception {
+        warmUp("/not-hedged", HttpRequest.RequestMethod.RequestMethodGet);
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("slow").setDelay(SLOW_RESPONSE_DELAY));
+
+        assertEquals("slow", perform(newRequest("/not-hedged", HttpRequest.RequestMethod.RequestMethodGet)));
+        assertEquals(WARM_UP_REQUESTS + 1, server.getRequestCount());
+    }
+
+    public void testRequestIsNotHedgedUntilTheLatenciesAreKnown() throws Exception {
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("slow").setDelay(SLOW_RESPONSE_DELAY));
+
+        HttpRequest httpRequest = newRequest("/unknown-latencies", HttpRequest.RequestMethod.RequestMethodGet);
+        httpRequest.setHedged(true);
+        assertEquals("slow", perform(httpRequest));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    public void testPostIsNotHedged() throws Exception {
+        warmUp("/hedged-post", HttpRequest.RequestMethod.RequestMethodPost);
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("slow").setDelay(SLOW_RESPONSE_DELAY));
+
+        HttpRequest httpRequest = newRequest("/hedged-post", HttpRequest.RequestMethod.RequestMethodPost);
+        httpRequest.setHedged(true);
+        assertEquals("slow", perform(httpRequest));
+        assertEquals(WARM_UP_REQUESTS + 1, server.getRequestCount());
+    }
+
+    public void testPostIsHedgedWhenTheDuplicatesAreAllowed() throws Exception {
+        warmUp("/hedged-post-allowed", HttpRequest.RequestMethod.RequestMethodPost);
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("slow").setDelay(SLOW_RESPONSE_DELAY));
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("fast"));
+
+        HttpRequest httpRequest = newRequest("/hedged-post-allowed", HttpRequest.RequestMethod.RequestMethodPost);
+        httpRequest.setHedgedAllowingDuplicates(true);
+        assertEquals("fast", perform(httpRequest));
+        assertEquals(WARM_UP_REQUESTS + 2, server.getRequestCount());
+    }
+
+    public void testSecondCopiesAreLimitedByTheBudget() throws Exception {
+        warmUp("/hedge-budget", HttpRequest.RequestMethod.RequestMethodGet);
+
+        // The budget allows a few second copies in a row, and then only one every 20 requests
+        int hedgedRequests = 0;
+        for (int i = 0; i < 5; i++) {
+            int requestCount = server.getRequestCount();
+            server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("slow").setDelay(SLOW_RESPONSE_DELAY));
+            server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("fast"));
+
+            HttpRequest httpRequest = newRequest("/hedge-budget", HttpRequest.RequestMethod.RequestMethodGet);
+            httpRequest.setHedged(true);
+            if (perform(httpRequest).equals("fast")) {
+                hedgedRequests++;
+            } else {
+                // Nobody has taken the fast response, so the next request would get it
+                server.takeRequest();
+                assertEquals(requestCount + 1, server.getRequestCount());
+                return;
+            }
+        }
+        fail("All the " + hedgedRequests + " slow requests have been hedged");
+    }
+
+    /**
+     * Sends fast requests to an endpoint, so its tracker knows its latencies.
+     * @param path The path of the endpoint
+     * @param requestMethod The method of the requests
+     * @throws Exception if any request has failed
+     */
+    private void warmUp(String path, HttpRequest.RequestMethod requestMethod) throws Exception {
+        for (int i = 0; i < WARM_UP_REQUESTS; i++) {
+            server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("warm up"));
+            perform(newRequest(path, requestMethod));
+        }
+        for (int i = 0; i < WARM_UP_REQUESTS; i++) {
+            server.takeRequest();
+        }
+    }
+
+    /**
+     * Creates a request to the stand-in server.
+     * @param path The path of the request
+     * @param requestMethod The method of the request
+     * @return The request
+     */
+    private HttpRequest newRequest(String path, HttpRequest.RequestMethod requestMethod) {
+        HttpRequest httpRequest = new HttpRequest(Uri.parse(server.url(path)), null, requestMethod);
+        httpRequest.setRetryPolicy(RetryPolicy.NONE);
+        return httpRequest;
+    }
+
+    /**
+     * Performs a request and waits for its result.
+     * @param httpRequest The request
+     * @return The content returned by the server
+     * @throws Exception if the request has failed
+     */
+    private static String perform(HttpRequest httpRequest) throws Exception {
+        byte[] content = httpRequest.performRequestAsync(new ByteArrayDecoder())
+                .get(REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+        return new String(content, "UTF-8");
+    }
+}
@@ -0,0 +1,220 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpStatus;
+
+import android.net.Uri;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.exception.RequestException;
+
+/**
+ * The tests of the requests which are sent again when they fail, against a local stand-in
+ * of the server which injects the failures.
+ */
+public class HttpRequestRetryTest extends TestCase {
+
+    /**
+     * The maximum time the tests wait for a request, in milliseconds.
+     */
+    private static final long REQUEST_TIMEOUT = 10 * 1000;
+
+    /**
+     * The stand-in of the server.
+     */
+    private StandInServer server;
+
+    /**
+     * The budget of the retries of the tests, so they do not depend on the shared one.
+     */
+    private RequestBudget retryBudget;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // The failures injected would open the circuit of the local host
+        CircuitBreaker.clear();
+        retryBudget = new RequestBudget(5, 10);
+        server = new StandInServer();
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+        CircuitBreaker.clear();
+        super.tearDown();
+    }
+
+    public void testGetIsSentAgainUntilItSucceeds() throws Exception {
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_SERVICE_UNAVAILABLE));
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_BAD_GATEWAY));
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("ok"));
+
+        assertEquals("ok", perform(newRequest("/get", HttpRequest.RequestMethod.RequestMethodGet, null)));
+        assertEquals(3, server.getRequestCount());
+    }
+
+    public void testGetIsNotSentAgainAfterTheLastAttempt() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(new StandInServer.Response(HttpStatus.SC_SERVICE_UNAVAILABLE));
+        }
+
+        assertFails(newRequest("/exhausted", HttpRequest.RequestMethod.RequestMethodGet, null));
+        assertEquals(3, server.getRequestCount());
+    }
+
+    public void testRetryAfterIsWaited() throws Exception {
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_SERVICE_UNAVAILABLE).setHeader("Retry-After", "1"));
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("ok"));
+
+        long start = System.nanoTime();
+        assertEquals("ok", perform(newRequest("/retry-after", HttpRequest.RequestMethod.RequestMethodGet, null)));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("It has only waited " + elapsed + " ms", elapsed >= 1000);
+        assertEquals(2, server.getRequestCount());
+    }
+
+    public void testRetryAfterLongerThanTheMaximumFailsAtOnce() throws Exception {
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_SERVICE_UNAVAILABLE).setHeader("Retry-After", "3600"));
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("ok"));
+
+        assertFails(newRequest("/retry-after-too-long", HttpRequest.RequestMethod.RequestMethodGet, null));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    public void testPostIsNotSentAgainAfterBadGatewayOrGatewayTimeout() throws Exception {
+        // A second attempt would be counted, even if it is answered with the default 404
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_BAD_GATEWAY));
+        assertFails(newRequest("/post", HttpRequest.RequestMethod.RequestMethodPost, form()));
+        assertEquals(1, server.getRequestCount());
+
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_GATEWAY_TIMEOUT));
+        assertFails(newRequest("/post", HttpRequest.RequestMethod.RequestMethodPost, form()));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    public void testPostIsSentAgainWhenTheServerHasNotProcessedIt() throws Exception {
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_SERVICE_UNAVAILABLE));
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("ok"));
+
+        assertEquals("ok", perform(newRequest("/post", HttpRequest.RequestMethod.RequestMethodPost, form())));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    public void testPutAndDeleteAreSentAgainBecauseTheyAreIdempotent() throws Exception {
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_BAD_GATEWAY));
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("put"));
+        assertEquals("put", perform(newRequest("/put", HttpRequest.RequestMethod.RequestMethodPut, form())));
+        for (int i = 0; i < 2; i++) {
+            StandInServer.RecordedRequest request = server.takeRequest();
+            assertEquals("PUT", request.method);
+            assertEquals("name=value", new String(request.body, "UTF-8"));
+        }
+
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_GATEWAY_TIMEOUT));
+        server.enqueue(new StandInServer.Response(HttpStatus.SC_OK).setBody("delete"));
+        assertEquals("delete", perform(newRequest("/delete", HttpRequest.RequestMethod.RequestMethodDelete, null)));
+        for (int i = 0; i < 2; i++) {
+            assertEquals("DELETE", server.takeRequest().method);
+        }
+    }
+
+    public void testRetriesStopWhenTheBudgetIsSpent() throws Exception {
+        // Two retries in a row, and then one every five requests
+        retryBudget = new RequestBudget(5, 2);
+        for (int i = 0; i < 10; i++) {
+            server.enqueue(new StandInServer.Response(HttpStatus.SC_SERVICE_UNAVAILABLE));
+        }
+
+        HttpRequest httpRequest = newRequest("/budget", HttpRequest.RequestMethod.RequestMethodGet, null);
+        httpRequest.setRetryPolicy(new RetryPolicy(10, 0, 0, 0, retryBudget));
+        assertFails(httpRequest);
+        assertEquals(3, server.getRequestCount());
+
+        httpRequest = newRequest("/budget", HttpRequest.RequestMethod.RequestMethodGet, null);
+        httpRequest.setRetryPolicy(new RetryPolicy(10, 0, 0, 0, retryBudget));
+        assertFails(httpRequest);
+        assertEquals(4, server.getRequestCount());
+    }
+
+    public void testRequestWithoutAuthTokenIsNotSentNorSpendsTheBudget() throws Exception {
+        retryBudget = new RequestBudget(5, 1);
+        HttpRequest httpRequest = newRequest("/private", HttpRequest.RequestMethod.RequestMethodGet, null);
+        httpRequest.setAuthTokenProvider(new AuthTokenProvider() {
+            @Override
+            public String getAccountName() {
+                return "nobody";
+            }
+
+            @Override
+            public String getAuthToken() {
+                return null;
+            }
+
+            @Override
+            public void invalidateAuthToken(String authToken) {
+            }
+        });
+
+        assertFails(httpRequest);
+        assertEquals(0, server.getRequestCount());
+        assertTrue(retryBudget.withdraw());
+    }
+
+    /**
+     * Creates a request to the stand-in server, with a retry policy of three attempts and
+     * short delays which uses the budget of the test.
+     * @param path The path of the request
+     * @param requestMethod The method of the request
+     * @param parameters The parameters of the request, or null if there are not any
+     * @return The request
+     */
+    private HttpRequest newRequest(String path, HttpRequest.RequestMethod requestMethod,
+            Map<String, String> parameters) {
+        HttpRequest httpRequest = new HttpRequest(Uri.parse(server.url(path)), parameters, requestMethod);
+        httpRequest.setRetryPolicy(new RetryPolicy(3, 50, 200, 5000, retryBudget));
+        return httpRequest;
+    }
+
+    /**
+     * Creates the parameters of the requests which have a body.
+     * @return The parameters
+     */
+    private static Map<String, String> form() {
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("name", "value");
+        return parameters;
+    }
+
+    /**
+     * Performs a request and waits for its result.
+     * @param httpRequest The request
+     * @return The content returned by the server
+     * @throws Exception if the request has failed
+     */
+    private static String perform(HttpRequest httpRequest) throws Exception {
+        byte[] content = httpRequest.performRequestAsync(new ByteArrayDecoder())
+                .get(REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+        return new String(content, "UTF-8");
+    }
+
+    /**
+     * Performs a request and checks that it fails.
+     * @param httpRequest The request
+     * @throws Exception if the request has not finished in time
+     */
+    private static void assertFails(HttpRequest httpRequest) throws Exception {
+        try {
+            perform(httpRequest);
+            fail("The request to " + httpRequest.getUri() + " has not failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RequestException);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * The tests of the cache of the responses: freshness, revalidation, eviction and the round
+ * trip through the disk.
+ */
+public class HttpResponseCacheTest extends TestCase {
+
+    /**
+     * The key of the responses used by the tests.
+     */
+    private static final String KEY = "http://example.com/items";
+
+    /**
+     * The directory of the disk tier.
+     */
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new File(System.getProperty("java.io.tmpdir"), "HttpResponseCacheTest-" + System.nanoTime());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testResponseWithMaxAgeIsFresh() {
+        HttpResponseCache cache = new HttpResponseCache(1024, null, 0);
+        assertTrue(cache.put(KEY, response(HttpStatus.SC_OK, "Cache-Control", "max-age=60"), bytes("body"), "UTF-8"));
+
+        HttpResponseCache.CacheEntry cacheEntry = cache.get(KEY);
+        assertNotNull(cacheEntry);
+        assertTrue(cacheEntry.isFresh());
+        assertEquals("body", string(cacheEntry.body));
+        assertEquals("UTF-8", cacheEntry.charset);
+    }
+
+    public void testResponseWithNoStoreIsNotSaved() {
+        HttpResponseCache cache = new HttpResponseCache(1024, null, 0);
+        assertFalse(cache.put(KEY, response(HttpStatus.SC_OK, "Cache-Control", "no-store"), bytes("body"), null));
+        assertNull(cache.get(KEY));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testResponseWithoutValidatorsNorFreshnessIsNotSaved() {
+        HttpResponseCache cache = new HttpResponseCache(1024, null, 0);
+        assertFalse(cache.put(KEY, response(HttpStatus.SC_OK), bytes("body"), null));
+        assertNull(cache.get(KEY));
+    }
+
+    public void testResponseWhichCannotBeSavedRemovesThePreviousOne() {
+        HttpResponseCache cache = new HttpResponseCache(1024, null, 0);
+        cache.put(KEY, response(HttpStatus.SC_OK, "Cache-Control", "max-age=60"), bytes("old"), null);
+        cache.put(KEY, response(HttpStatus.SC_OK, "Cache-Control", "no-store"), bytes("new"), null);
+        assertNull(cache.get(KEY));
+    }
+
+    public void testResponseWithNoCacheIsSavedStale() {
+        HttpResponseCache cache = new HttpResponseCache(1024, null, 0);
+        assertTrue(cache.put(KEY, response(HttpStatus.SC_OK, "Cache-Control", "no-cache", "ETag", "\"v1\""),
+                bytes("body"), null));
+
+        HttpResponseCache.CacheEntry cacheEntry = cache.get(KEY);
+        assertFalse(cacheEntry.isFresh());
+        assertEquals("\"v1\"", cacheEntry.eTag);
+    }
+
+    public void testRevalidationKeepsTheBodyAndUpdatesTheHeaders() {
+        HttpResponseCache cache = new HttpResponseCache(1024, null, 0);
+        cache.put(KEY, response(HttpStatus.SC_OK, "Cache-Control", "no-cache", "ETag", "\"v1\"",
+                "Last-Modified", "Mon, 01 Apr 2013 10:00:00 GMT"), bytes("body"), null);
+
+        HttpResponseCache.CacheEntry revalidated = cache.revalidate(cache.get(KEY),
+                response(HttpStatus.SC_NOT_MODIFIED, "Cache-Control", "max-age=60", "ETag", "\"v2\""));
+        assertTrue(revalidated.isFresh());
+        assertEquals("body", string(revalidated.body));
+        assertEquals("\"v2\"", revalidated.eTag);
+        assertEquals("Mon, 01 Apr 2013 10:00:00 GMT", revalidated.lastModified);
+        assertEquals(1, cache.getRevalidatedCount());
+        assertSame(revalidated, cache.get(KEY));
+    }
+
+    public void testRemoveForgetsTheResponse() {
+        HttpResponseCache cache = new HttpResponseCache(1024, directory, 1024 * 1024);
+        cache.put(KEY, response(HttpStatus.SC_OK, "Cache-Control", "max-age=60"), bytes("body"), null);
+        cache.remove(KEY);
+        assertNull(cache.get(KEY));
+        assertNull(new HttpResponseCache(1024, directory, 1024 * 1024).get(KEY));
+    }
+
+    public void testMemoryTierEvictsTheLeastRecentlyUsed() {
+        HttpResponseCache cache = new HttpResponseCache(10, null, 0);
+        cache.put(KEY + "/1", response(HttpStatus.SC_OK, "Cache-Control", "max-age=60"), bytes("12345"), null);
+        cache.put(KEY + "/2", response(HttpStatus.SC_OK, "Cache-Control", "max-age=60"), bytes("12345"), null);
+        // The first one is used, so the second one is the least recently used
+        assertNotNull(cache.get(KEY + "/1"));
+        cache.put(KEY + "/3", response(HttpStatus.SC_OK, "Cache-Control", "max-age=60"), bytes("12345"), null);
+
+        assertNotNull(cache.get(KEY + "/1"));
+        assertNull(cache.get(KEY + "/2"));
+        assertNotNull(cache.get(KEY + "/3"));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    public void testDiskRoundTrip() {
+        HttpResponseCache cache = new HttpResponseCache(1024, directory, 1024 * 1024);
+        cache.put(KEY, response(HttpStatus.SC_OK, "Cache-Control", "max-age=60", "ETag", "\"v1\"",
+                "Last-Modified", "Mon, 01 Apr 2013 10:00:00 GMT"), bytes("body"), "ISO-8859-1");
+        HttpResponseCache.CacheEntry saved = cache.get(KEY);
+
+        // Another cache on the same directory, as after restarting the application
+        HttpResponseCache.CacheEntry loaded = new HttpResponseCache(1024, directory, 1024 * 1024).get(KEY);
+        assertNotNull(loaded);
+        assertEquals(KEY, loaded.key);
+        assertEquals("body", string(loaded.body));
+        assertEquals("ISO-8859-1", loaded.charset);
+        assertEquals("\"v1\"", loaded.eTag);
+        assertEquals("Mon, 01 Apr 2013 10:00:00 GMT", loaded.lastModified);
+        assertEquals(saved.expires, loaded.expires);
+        assertTrue(loaded.isFresh());
+    }
+
+    public void testDiskRoundTripWithoutOptionalHeaders() {
+        HttpResponseCache cache = new HttpResponseCache(1024, directory, 1024 * 1024);
+        cache.put(KEY, response(HttpStatus.SC_OK, "Cache-Control", "max-age=60"), bytes(""), null);
+
+        HttpResponseCache.CacheEntry loaded = new HttpResponseCache(1024, directory, 1024 * 1024).get(KEY);
+        assertNotNull(loaded);
+        assertEquals(0, loaded.body.length);
+        assertNull(loaded.charset);
+        assertNull(loaded.eTag);
+        assertNull(loaded.lastModified);
+    }
+
+    public void testDiskTierEvictsTheLeastRecentlyUsed() {
+        HttpResponseCache cache = new HttpResponseCache(1024, directory, 400);
+        for (int i = 0; i < 3; i++) {
+            cache.put(KEY + "/" + i, response(HttpStatus.SC_OK, "Cache-Control", "max-age=60"), new byte[150], null);
+        }
+
+        HttpResponseCache reloaded = new HttpResponseCache(1024, directory, 400);
+        assertNull(reloaded.get(KEY + "/0"));
+        assertNotNull(reloaded.get(KEY + "/1"));
+        assertNotNull(reloaded.get(KEY + "/2"));
+        assertTrue(cache.getEvictionCount() >= 1);
+    }
+
+    public void testCorruptedFileIsIgnoredAndRemoved() throws IOException {
+        HttpResponseCache cache = new HttpResponseCache(1024, directory, 1024 * 1024);
+        cache.put(KEY, response(HttpStatus.SC_OK, "Cache-Control", "max-age=60"), bytes("body"), null);
+
+        File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+        FileOutputStream out = new FileOutputStream(files[0]);
+        try {
+            out.write(new byte[] {0, 0, 0, 1, 0});
+        } finally {
+            out.close();
+        }
+
+        assertNull(new HttpResponseCache(1024, directory, 1024 * 1024).get(KEY));
+        assertFalse(files[0].exists());
+    }
+
+    public void testRequestsWithAuthorizationOrNoStoreAreNotCacheable() {
+        Map<String, String> headers = new HashMap<String, String>();
+        assertTrue(HttpResponseCache.isCacheable(headers));
+
+        headers.put("Cache-Control", "no-store");
+        assertFalse(HttpResponseCache.isCacheable(headers));
+
+        headers.clear();
+        headers.put("Authorization", "Bearer token");
+        assertFalse(HttpResponseCache.isCacheable(headers));
+    }
+
+    /**
+     * Creates a response of the server.
+     * @param statusCode The status code
+     * @param headers The names and the values of the headers, alternated
+     * @return The response
+     */
+    private static HttpResponse response(int statusCode, String... headers) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, null);
+        for (int i = 0; i < headers.length; i += 2) {
+            response.addHeader(headers[i], headers[i + 1]);
+        }
+        return response;
+    }
+
+    /**
+     * Encodes a string in UTF-8.
+     * @param value The string
+     * @return The bytes
+     */
+    private static byte[] bytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Decodes a string from UTF-8.
+     * @param value The bytes
+     * @return The string
+     */
+    private static String string(byte[] value) {
+        try {
+            return new String(value, "UTF-8");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import junit.framework.TestCase;
+
+/**
+ * The tests of the histogram of the latencies: the error of its percentiles and its maximum.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    /**
+     * The maximum value of the histograms tested.
+     */
+    private static final long MAX_VALUE = 120 * 1000;
+
+    public void testPercentilesAreWithinTheErrorOfTheBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram(MAX_VALUE);
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertBetween(500, 500 * 1.125, histogram.getPercentile(50));
+        assertBetween(990, 990 * 1.125, histogram.getPercentile(99));
+        assertBetween(1000, 1000 * 1.125, histogram.getPercentile(100));
+    }
+
+    public void testValuesAboveTheMaximumAreRecordedAsIt() {
+        LatencyHistogram histogram = new LatencyHistogram(MAX_VALUE);
+        histogram.record(MAX_VALUE * 10);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.getCount());
+        assertBetween(MAX_VALUE, MAX_VALUE * 1.125, histogram.getPercentile(100));
+    }
+
+    /**
+     * Checks that a percentile is between two values.
+     * @param lowest The lowest value expected
+     * @param highest The highest value expected
+     * @param percentile The percentile
+     */
+    private static void assertBetween(long lowest, double highest, long percentile) {
+        assertTrue(percentile + " is below " + lowest, percentile >= lowest);
+        assertTrue(percentile + " is above " + highest, percentile <= highest);
+    }
+}
@@ -0,0 +1,76 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+
+/**
+ * The tests of the listeners and the cancellation actions of the futures.
+ */
+public class RequestFutureTest extends TestCase {
+
+    /**
+     * The executor which runs the listeners in the thread which completes the future.
+     */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    public void testFailedListenerDoesNotStopTheOthers() throws Exception {
+        final List<String> calls = new ArrayList<String>();
+        RequestFuture<String> future = new RequestFuture<String>();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                calls.add("first");
+                throw new IllegalStateException("The listener has failed");
+            }
+        }, DIRECT_EXECUTOR);
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                calls.add("second");
+            }
+        }, DIRECT_EXECUTOR);
+
+        assertTrue(future.set("result"));
+        assertEquals("result", future.get());
+        assertEquals(2, calls.size());
+        assertEquals("second", calls.get(1));
+    }
+
+    public void testEveryCancellationActionIsRun() {
+        final List<String> calls = new ArrayList<String>();
+        RequestFuture<String> future = new RequestFuture<String>();
+        future.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                calls.add("first");
+                throw new IllegalStateException("The action has failed");
+            }
+        });
+        future.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                calls.add("second");
+            }
+        });
+
+        assertTrue(future.cancel(false));
+        assertEquals(2, calls.size());
+
+        // The ones added once it has been cancelled are run at once
+        future.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                calls.add("third");
+            }
+        });
+        assertEquals("third", calls.get(2));
+    }
+}
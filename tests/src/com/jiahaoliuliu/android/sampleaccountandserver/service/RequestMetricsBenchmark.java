@@ -0,0 +1,130 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import android.net.Uri;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.util.Benchmark;
+
+/**
+ * The benchmark of the cost of recording the metrics of a request, compared with building the
+ * log message of the request as it was done before. It is timed in one thread and in several
+ * threads recording in the same endpoint.
+ */
+public class RequestMetricsBenchmark extends TestCase {
+
+    /**
+     * The number of operations timed.
+     */
+    private static final int ITERATIONS = 1000000;
+
+    /**
+     * The number of threads which record at the same time.
+     */
+    private static final int THREADS = 4;
+
+    /**
+     * The metrics of the endpoint.
+     */
+    private RequestMetrics.Endpoint endpoint;
+
+    /**
+     * A value which the operations change, so they are not optimized away.
+     */
+    private volatile int sink;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        RequestMetrics.instance().reset();
+        endpoint = RequestMetrics.instance().forEndpoint(Uri.parse("http://example.com/benchmark"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        RequestMetrics.instance().reset();
+        super.tearDown();
+    }
+
+    public void testRecordRequest() throws Exception {
+        final Uri uri = Uri.parse("http://example.com/users/1234");
+        Benchmark.nanosPerOperation("Look up the endpoint", ITERATIONS, new Benchmark.Operation() {
+            @Override
+            public void run() {
+                RequestMetrics.instance().forEndpoint(uri);
+            }
+        });
+        Benchmark.nanosPerOperation("Record a stage", ITERATIONS, new Benchmark.Operation() {
+            private long duration = 0;
+
+            @Override
+            public void run() {
+                // The durations go from a few nanoseconds to about 1 s, so they fill many buckets
+                duration = (duration + 7919) % (1 << 30);
+                endpoint.record(RequestMetrics.Stage.FETCH, duration);
+            }
+        });
+        Benchmark.nanosPerOperation("Count an event", ITERATIONS, new Benchmark.Operation() {
+            @Override
+            public void run() {
+                endpoint.increment(RequestMetrics.Counter.REQUESTS);
+            }
+        });
+        Benchmark.nanosPerOperation("Build the log message as before", ITERATIONS, new Benchmark.Operation() {
+            private long duration = 0;
+
+            @Override
+            public void run() {
+                duration++;
+                sink += ("Request to " + uri.toString() + " finished in " + duration + " ms").length();
+            }
+        });
+        Benchmark.nanosPerOperation("Take a snapshot", 100, new Benchmark.Operation() {
+            @Override
+            public void run() {
+                sink += RequestMetrics.instance().getSnapshot().size();
+            }
+        });
+
+        assertEquals(2 * ITERATIONS, RequestMetrics.instance().getCount(RequestMetrics.Stage.FETCH));
+    }
+
+    public void testRecordFromSeveralThreads() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(THREADS);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+            final long firstDuration = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < ITERATIONS; j++) {
+                            endpoint.record(RequestMetrics.Stage.TIME_TO_FIRST_BYTE, (firstDuration + 7919L * j) % (1 << 30));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        finish.countDown();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        finish.await();
+        long elapsed = System.nanoTime() - startTime;
+        Benchmark.report("Record a stage from {} threads {} ns/op", THREADS, elapsed / ITERATIONS);
+
+        assertEquals((long) THREADS * ITERATIONS,
+                RequestMetrics.instance().getCount(RequestMetrics.Stage.TIME_TO_FIRST_BYTE));
+    }
+}
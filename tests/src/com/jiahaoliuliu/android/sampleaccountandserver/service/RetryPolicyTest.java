@@ -0,0 +1,134 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.impl.cookie.DateUtils;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.exception.AuthTokenUnavailableException;
+import com.jiahaoliuliu.android.sampleaccountandserver.exception.CircuitBreakerOpenException;
+import com.jiahaoliuliu.android.sampleaccountandserver.service.HttpRequest.RequestMethod;
+
+/**
+ * The tests of the decisions of the retry policy: the backoff, Retry-After, the methods which
+ * are sent again and the budget.
+ */
+public class RetryPolicyTest extends TestCase {
+
+    /**
+     * The number of delays calculated for each attempt, so the random jitter covers its range.
+     */
+    private static final int SAMPLES = 200;
+
+    public void testBackoffGrowsExponentiallyUpToTheMaximum() {
+        RetryPolicy retryPolicy = new RetryPolicy(10, 100, 1000, 0, new RequestBudget(1, 10 * SAMPLES));
+        for (int attempt = 1; attempt < 10; attempt++) {
+            long backoff = Math.min(1000, 100L << (attempt - 1));
+            long maxDelay = 0;
+            for (int i = 0; i < SAMPLES; i++) {
+                long delay = retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, attempt,
+                        new ConnectException());
+                assertTrue("Delay " + delay + " out of [0, " + backoff + ")", delay >= 0 && delay < backoff);
+                maxDelay = Math.max(maxDelay, delay);
+            }
+            // The jitter is spread over the whole backoff, not only its start
+            assertTrue("Maximum delay " + maxDelay + " of " + backoff, maxDelay >= backoff / 2);
+        }
+    }
+
+    public void testLastAttemptIsNotSentAgain() {
+        RetryPolicy retryPolicy = new RetryPolicy(3, 100, 1000, 0, new RequestBudget(1, 10));
+        assertTrue(retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 2, new ConnectException()) >= 0);
+        assertEquals(RetryPolicy.NO_RETRY,
+                retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 3, new ConnectException()));
+        assertEquals(RetryPolicy.NO_RETRY,
+                RetryPolicy.NONE.getRetryDelay(RequestMethod.RequestMethodGet, 1, new ConnectException()));
+    }
+
+    public void testRetryAfterIsTheMinimumDelay() {
+        RetryPolicy retryPolicy = new RetryPolicy(3, 100, 1000, 5000, new RequestBudget(1, 10));
+        assertTrue(retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 1,
+                HttpStatus.SC_SERVICE_UNAVAILABLE, "2") >= 2000);
+
+        String inThreeSeconds = DateUtils.formatDate(new Date(System.currentTimeMillis() + 3000));
+        assertTrue(retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 1,
+                HttpStatus.SC_SERVICE_UNAVAILABLE, inThreeSeconds) >= 1000);
+
+        // Longer than the maximum accepted, so it fails instead of waiting
+        assertEquals(RetryPolicy.NO_RETRY, retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 1,
+                HttpStatus.SC_SERVICE_UNAVAILABLE, "60"));
+        // Not valid, so only the backoff is waited
+        assertTrue(retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 1,
+                HttpStatus.SC_SERVICE_UNAVAILABLE, "soon") < 100);
+    }
+
+    public void testPostWhichMayHaveReachedTheServerIsNotSentAgain() {
+        RetryPolicy retryPolicy = new RetryPolicy(3, 0, 0, 0, new RequestBudget(1, 100));
+        for (int statusCode : new int[] {HttpStatus.SC_REQUEST_TIMEOUT, HttpStatus.SC_BAD_GATEWAY,
+                HttpStatus.SC_GATEWAY_TIMEOUT}) {
+            assertEquals(RetryPolicy.NO_RETRY,
+                    retryPolicy.getRetryDelay(RequestMethod.RequestMethodPost, 1, statusCode, null));
+            assertEquals(0, retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 1, statusCode, null));
+            assertEquals(0, retryPolicy.getRetryDelay(RequestMethod.RequestMethodPut, 1, statusCode, null));
+            assertEquals(0, retryPolicy.getRetryDelay(RequestMethod.RequestMethodDelete, 1, statusCode, null));
+        }
+        assertEquals(RetryPolicy.NO_RETRY,
+                retryPolicy.getRetryDelay(RequestMethod.RequestMethodPost, 1, new SocketTimeoutException()));
+        assertEquals(RetryPolicy.NO_RETRY,
+                retryPolicy.getRetryDelay(RequestMethod.RequestMethodPost, 1, new IOException()));
+
+        // The server has not processed it
+        assertEquals(0, retryPolicy.getRetryDelay(RequestMethod.RequestMethodPost, 1,
+                HttpStatus.SC_SERVICE_UNAVAILABLE, null));
+        assertEquals(0, retryPolicy.getRetryDelay(RequestMethod.RequestMethodPost, 1, new ConnectException()));
+    }
+
+    public void testClientErrorsAreNotSentAgain() {
+        RetryPolicy retryPolicy = new RetryPolicy(3, 0, 0, 0, new RequestBudget(1, 100));
+        for (int statusCode : new int[] {HttpStatus.SC_BAD_REQUEST, HttpStatus.SC_FORBIDDEN,
+                HttpStatus.SC_NOT_FOUND, HttpStatus.SC_INTERNAL_SERVER_ERROR}) {
+            assertEquals(RetryPolicy.NO_RETRY,
+                    retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 1, statusCode, null));
+        }
+    }
+
+    public void testLocalErrorsAreNotSentAgainNorSpendTheBudget() {
+        RequestBudget budget = new RequestBudget(5, 1);
+        RetryPolicy retryPolicy = new RetryPolicy(3, 0, 0, 0, budget);
+        assertEquals(RetryPolicy.NO_RETRY, retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 1,
+                new AuthTokenUnavailableException("No token")));
+        assertEquals(RetryPolicy.NO_RETRY, retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 1,
+                new CircuitBreakerOpenException("Open")));
+        assertEquals(RetryPolicy.NO_RETRY, retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 1,
+                new UnsupportedOperationException()));
+        assertEquals(RetryPolicy.NO_RETRY, retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 1,
+                new Exception("Not decoded")));
+
+        // The only retry of the budget is still there
+        assertTrue(budget.withdraw());
+    }
+
+    public void testRetriesAreLimitedByTheBudget() {
+        RetryPolicy retryPolicy = new RetryPolicy(10, 0, 0, 0, new RequestBudget(5, 2));
+        assertEquals(0, retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 1, new ConnectException()));
+        assertEquals(0, retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 1, new ConnectException()));
+        assertEquals(RetryPolicy.NO_RETRY,
+                retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 1, new ConnectException()));
+
+        // Each request adds a fifth of a retry
+        for (int i = 0; i < 4; i++) {
+            retryPolicy.onRequest();
+        }
+        assertEquals(RetryPolicy.NO_RETRY,
+                retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 1, new ConnectException()));
+        for (int i = 0; i < 5; i++) {
+            retryPolicy.onRequest();
+        }
+        assertEquals(0, retryPolicy.getRetryDelay(RequestMethod.RequestMethodGet, 1, new ConnectException()));
+    }
+}
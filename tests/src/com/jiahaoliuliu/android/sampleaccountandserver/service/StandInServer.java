@@ -0,0 +1,472 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for the server, so the requests can be tested without the network.
+ * It answers the requests with the responses queued, in order, each one after its delay.
+ * Every connection is closed after its response, unless the connections are kept alive, and
+ * the requests received are recorded so the tests can check what was sent.
+ */
+public class StandInServer {
+
+    /**
+     * The maximum time the tests wait for a request, in milliseconds.
+     */
+    private static final long REQUEST_TIMEOUT = 10 * 1000;
+
+    /**
+     * The responses which answer the next requests, in order.
+     */
+    private final BlockingQueue<Response> responses = new LinkedBlockingQueue<Response>();
+
+    /**
+     * The requests received, in order.
+     */
+    private final BlockingQueue<RecordedRequest> requests = new LinkedBlockingQueue<RecordedRequest>();
+
+    /**
+     * The number of requests received.
+     */
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    /**
+     * The number of connections accepted.
+     */
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    /**
+     * The number of bytes of the bodies of the responses sent.
+     */
+    private final AtomicLong bodyBytesSent = new AtomicLong();
+
+    /**
+     * Whether the connections are kept open after each response, for the next requests.
+     */
+    private volatile boolean isKeepAlive = false;
+
+    /**
+     * The socket which accepts the connections. It is null until the server is started.
+     */
+    private ServerSocket serverSocket;
+
+    /**
+     * Starts the server in a free port of the loopback interface.
+     * @throws IOException if the port could not be opened
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "StandInServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Stops the server. The connections in progress are not waited for.
+     * @throws IOException if the port could not be closed
+     */
+    public void shutdown() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+    }
+
+    /**
+     * Gets the url of a path in the server.
+     * @param path The path, starting with "/"
+     * @return The url
+     */
+    public String url(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    /**
+     * Queues the response of the next request which has not a response yet.
+     * @param response The response
+     */
+    public void enqueue(Response response) {
+        responses.add(response);
+    }
+
+    /**
+     * Takes the oldest request received, waiting for it if there is not any yet.
+     * @return The request
+     * @throws InterruptedException if the thread has been interrupted while waiting
+     */
+    public RecordedRequest takeRequest() throws InterruptedException {
+        RecordedRequest request = requests.poll(REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+        if (request == null) {
+            throw new AssertionError("No request received");
+        }
+        return request;
+    }
+
+    /**
+     * Gets the number of requests received since the server was started.
+     * @return The number of requests
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Gets the number of connections accepted since the server was started.
+     * @return The number of connections
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Gets the number of bytes of the bodies of the responses sent since the server was started.
+     * @return The number of bytes, as they were sent
+     */
+    public long getBodyBytesSent() {
+        return bodyBytesSent.get();
+    }
+
+    /**
+     * Sets if the connections are kept open after each response, so the client can send the
+     * next requests through them.
+     * @param keepAlive True to keep the connections open
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        isKeepAlive = keepAlive;
+    }
+
+    /**
+     * Accepts the connections until the server is stopped. Each one is served in its own thread,
+     * so the slow responses do not delay the others.
+     */
+    private void acceptConnections() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // The server has been stopped
+                return;
+            }
+            connectionCount.incrementAndGet();
+
+            Thread connectionThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }, "StandInServer connection");
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    /**
+     * Reads the requests from a connection and writes their responses, until the connection
+     * is closed.
+     * @param socket The socket of the connection
+     */
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            boolean keepAlive;
+            do {
+                keepAlive = isKeepAlive;
+            } while (serveRequest(in, socket.getOutputStream(), keepAlive) && keepAlive);
+        } catch (IOException e) {
+            // The client has closed the connection, for example because the request was cancelled
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing else can be done
+            }
+        }
+    }
+
+    /**
+     * Reads a request from a connection and writes its response.
+     * @param in The stream of the requests
+     * @param out The stream of the responses
+     * @param keepAlive True if the connection is kept open after the response
+     * @return True if a request has been answered.
+     *         False if the connection has been closed
+     * @throws IOException if the connection has failed
+     * @throws InterruptedException if the thread has been interrupted while delaying the response
+     */
+    private boolean serveRequest(InputStream in, OutputStream out, boolean keepAlive)
+            throws IOException, InterruptedException {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.length() == 0) {
+            return false;
+        }
+
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+        }
+
+        byte[] body = new byte[0];
+        String contentLength = headers.get("content-length");
+        if (contentLength != null) {
+            body = readFully(in, Integer.parseInt(contentLength));
+        } else if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            body = readChunks(in);
+        }
+
+        String[] requestLineParts = requestLine.split(" ");
+        requestCount.incrementAndGet();
+        requests.add(new RecordedRequest(requestLineParts[0], requestLineParts[1], headers, body));
+
+        Response response = responses.poll();
+        if (response == null) {
+            response = new Response(404);
+        }
+        if (response.delay > 0) {
+            Thread.sleep(response.delay);
+        }
+        response.writeTo(out, keepAlive);
+        bodyBytesSent.addAndGet(response.body.length);
+        return true;
+    }
+
+    /**
+     * Reads a number of bytes of a request, or less if the stream ends before.
+     * @param in The stream of the request
+     * @param length The number of bytes
+     * @return The bytes read
+     * @throws IOException if the stream could not be read
+     */
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = in.read(bytes, read, length - read);
+            if (count == -1) {
+                break;
+            }
+            read += count;
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads a body sent in chunks, as the requests whose length is not known are sent.
+     * @param in The stream of the request
+     * @return The body, without the sizes of the chunks
+     * @throws IOException if the stream could not be read
+     */
+    private static byte[] readChunks(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        String sizeLine;
+        while ((sizeLine = readLine(in)) != null) {
+            int extension = sizeLine.indexOf(';');
+            int size = Integer.parseInt((extension != -1 ? sizeLine.substring(0, extension) : sizeLine).trim(), 16);
+            if (size == 0) {
+                // The trailer ends with an empty line
+                String line = readLine(in);
+                while (line != null && line.length() > 0) {
+                    line = readLine(in);
+                }
+                break;
+            }
+            body.write(readFully(in, size));
+            // The line break after the chunk
+            readLine(in);
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Reads a line of the head of a request, without the line break.
+     * @param in The stream of the request
+     * @return The line, or null if the stream has ended
+     * @throws IOException if the stream could not be read
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    /**
+     * A response of the server.
+     */
+    public static class Response {
+
+        /**
+         * The status code.
+         */
+        private final int statusCode;
+
+        /**
+         * The headers, by name.
+         */
+        private final Map<String, String> headers = new LinkedHashMap<String, String>();
+
+        /**
+         * The content.
+         */
+        private byte[] body = new byte[0];
+
+        /**
+         * The time waited before answering, in milliseconds.
+         */
+        private long delay = 0;
+
+        /**
+         * The main constructor.
+         * @param statusCode The status code
+         */
+        public Response(int statusCode) {
+            this.statusCode = statusCode;
+        }
+
+        /**
+         * Sets a header.
+         * @param name The name of the header
+         * @param value The value of the header
+         * @return The response
+         */
+        public Response setHeader(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /**
+         * Sets the content.
+         * @param body The content, as it is sent
+         * @return The response
+         */
+        public Response setBody(byte[] body) {
+            this.body = body;
+            return this;
+        }
+
+        /**
+         * Sets the content, encoded in UTF-8.
+         * @param body The content
+         * @return The response
+         */
+        public Response setBody(String body) {
+            try {
+                this.body = body.getBytes("UTF-8");
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return this;
+        }
+
+        /**
+         * Sets the time waited before answering.
+         * @param delay The time, in milliseconds
+         * @return The response
+         */
+        public Response setDelay(long delay) {
+            this.delay = delay;
+            return this;
+        }
+
+        /**
+         * Writes the response in a connection.
+         * @param out The stream of the connection
+         * @param keepAlive True if the connection is kept open after the response
+         * @throws IOException if the stream could not be written
+         */
+        private void writeTo(OutputStream out, boolean keepAlive) throws IOException {
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(statusCode).append(" Stand-in\r\n");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+            head.append(keepAlive ? "Connection: keep-alive\r\n\r\n" : "Connection: close\r\n\r\n");
+            // It is written at once, so the small responses are not delayed waiting for the acknowledgement of the head
+            ByteArrayOutputStream response = new ByteArrayOutputStream(head.length() + body.length);
+            response.write(head.toString().getBytes("ISO-8859-1"));
+            response.write(body);
+            response.writeTo(out);
+            out.flush();
+        }
+    }
+
+    /**
+     * A request received by the server.
+     */
+    public static class RecordedRequest {
+
+        /**
+         * The method of the request.
+         */
+        public final String method;
+
+        /**
+         * The path of the request, with the query.
+         */
+        public final String path;
+
+        /**
+         * The headers, by name in lower case.
+         */
+        private final Map<String, String> headers;
+
+        /**
+         * The content.
+         */
+        public final byte[] body;
+
+        /**
+         * The main constructor.
+         * @param method The method of the request
+         * @param path The path of the request, with the query
+         * @param headers The headers, by name in lower case
+         * @param body The content
+         */
+        public RecordedRequest(String method, String path, Map<String, String> headers, byte[] body) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * Gets the value of a header.
+         * @param name The name of the header, in any case
+         * @return The value of the header, or null if it was not sent
+         */
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.test.AndroidTestCase;
+
+import com.jiahaoliuliu.android.sampleaccountandserver.R;
+
+/**
+ * The benchmark of the lookup of an account by user name with 1, 100 and 10000 accounts, in the
+ * index and as it was done before: scanning all the accounts given by the account manager.
+ * The call to the account manager is timed on its own, since it returns the accounts of the
+ * device, not the ones of the benchmark.
+ */
+public class AccountIndexBenchmark extends AndroidTestCase {
+
+    /**
+     * The numbers of accounts.
+     */
+    private static final int[] ACCOUNT_COUNTS = {1, 100, 10000};
+
+    /**
+     * The number of lookups timed.
+     */
+    private static final int ITERATIONS = 10000;
+
+    /**
+     * The index of the accounts.
+     */
+    private AccountIndex accountIndex;
+
+    /**
+     * The type of the accounts of the application.
+     */
+    private String accountType;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        accountIndex = AccountIndex.instance(getContext());
+        accountType = getContext().getResources().getString(R.string.account_type);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        // The index goes back to the accounts of the device
+        accountIndex.update(AccountManager.get(getContext()).getAccountsByType(accountType));
+        super.tearDown();
+    }
+
+    public void testLookUpAccount() throws Exception {
+        Benchmark.nanosPerOperation("Get the accounts from the account manager", 100, new Benchmark.Operation() {
+            @Override
+            public void run() {
+                AccountManager.get(getContext()).getAccountsByType(accountType);
+            }
+        });
+
+        for (int count : ACCOUNT_COUNTS) {
+            final Account[] accounts = new Account[count];
+            for (int i = 0; i < count; i++) {
+                accounts[i] = new Account("User" + i, accountType);
+            }
+            accountIndex.update(accounts);
+            // The last account is the worst case of the scan
+            final String username = "user" + (count - 1);
+            assertSame(accounts[count - 1], accountIndex.getAccount(username));
+
+            double indexed = Benchmark.nanosPerOperation("Look up in the index of " + count + " accounts",
+                    ITERATIONS, new Benchmark.Operation() {
+                        @Override
+                        public void run() {
+                            accountIndex.getAccount(username);
+                        }
+                    });
+            double scanned = Benchmark.nanosPerOperation("Scan " + count + " accounts", ITERATIONS,
+                    new Benchmark.Operation() {
+                        @Override
+                        public void run() {
+                            scan(accounts, username);
+                        }
+                    });
+            if (count == 10000) {
+                assertTrue(indexed < scanned);
+            }
+        }
+    }
+
+    /**
+     * Finds an account as AccountUtils.getUserAccount did before the index, once it had the accounts.
+     * @param accounts The accounts
+     * @param username The user name of the account
+     * @return The account, or null if it does not exist
+     */
+    private static Account scan(Account[] accounts, String username) {
+        for (Account account : accounts) {
+            if (account.name.equalsIgnoreCase(username)) {
+                return account;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,110 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import android.util.Base64;
+
+/**
+ * The tests of the base64 codec, against the vectors of RFC 4648 and against android.util.Base64,
+ * which was used before.
+ */
+public class Base64CodecTest extends TestCase {
+
+    /**
+     * The texts of the test vectors of RFC 4648.
+     */
+    private static final String[] VECTOR_TEXTS = {"", "f", "fo", "foo", "foob", "fooba", "foobar"};
+
+    /**
+     * The base64 of the test vectors of RFC 4648.
+     */
+    private static final String[] VECTOR_BASE64 = {"", "Zg==", "Zm8=", "Zm9v", "Zm9vYg==", "Zm9vYmE=", "Zm9vYmFy"};
+
+    public void testEncodeVectors() throws Exception {
+        for (int i = 0; i < VECTOR_TEXTS.length; i++) {
+            assertEquals(VECTOR_BASE64[i], Base64Codec.encodeToString(VECTOR_TEXTS[i].getBytes("US-ASCII")));
+        }
+    }
+
+    public void testDecodeVectors() throws Exception {
+        for (int i = 0; i < VECTOR_TEXTS.length; i++) {
+            assertEquals(VECTOR_TEXTS[i], new String(Base64Codec.decode(VECTOR_BASE64[i]), "US-ASCII"));
+        }
+    }
+
+    public void testDecodeWithoutPadding() throws Exception {
+        assertEquals("f", new String(Base64Codec.decode("Zg"), "US-ASCII"));
+        assertEquals("fo", new String(Base64Codec.decode("Zm8"), "US-ASCII"));
+        assertEquals("foob", new String(Base64Codec.decode("Zm9vYg"), "US-ASCII"));
+        assertEquals(1, Base64Codec.decodedLength("Zg", 0, 2));
+        assertEquals(2, Base64Codec.decodedLength("Zm8", 0, 3));
+    }
+
+    public void testRoundTripAgainstAndroidBase64() {
+        Random random = new Random(42);
+        for (int length = 0; length < 100; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+
+            String encoded = Base64Codec.encodeToString(bytes);
+            assertEquals(Base64.encodeToString(bytes, Base64.NO_WRAP), encoded);
+            assertTrue(Arrays.equals(bytes, Base64Codec.decode(encoded)));
+            assertTrue(Arrays.equals(Base64.decode(encoded, Base64.NO_WRAP), Base64Codec.decode(encoded)));
+        }
+    }
+
+    public void testEncodeAndDecodeInTheMiddleOfBuffers() {
+        byte[] bytes = {1, 2, 3, 4, 5, (byte) 0xff, (byte) 0xfe};
+        char[] encoded = new char[2 + Base64Codec.encodedLength(5) + 2];
+        assertEquals(8, Base64Codec.encode(bytes, 1, 5, encoded, 2));
+
+        String text = new String(encoded);
+        byte[] decoded = new byte[3 + 5];
+        assertEquals(5, Base64Codec.decodedLength(text, 2, 8));
+        assertEquals(5, Base64Codec.decode(text, 2, 8, decoded, 3));
+        assertTrue(Arrays.equals(new byte[] {0, 0, 0, 2, 3, 4, 5, (byte) 0xff}, decoded));
+    }
+
+    public void testPaddingBeforeTheLastQuadIsRejected() {
+        assertRejected("AA==AAAA");
+        assertRejected("AAA=AAAA");
+        assertRejected("Zg==Zg==");
+    }
+
+    public void testWrongPaddingIsRejected() {
+        assertRejected("=");
+        assertRejected("==");
+        assertRejected("====");
+        assertRejected("A===");
+        assertRejected("AA=");
+        assertRejected("A=AA");
+    }
+
+    public void testWrongLengthIsRejected() {
+        assertRejected("A");
+        assertRejected("AAAAA");
+    }
+
+    public void testCharactersWhichAreNotDigitsAreRejected() {
+        assertRejected("Zm9v\nYmFy");
+        assertRejected("Zm9v YmFy");
+        assertRejected("Zm9v-mFy");
+        assertRejected("Zm9v\u00e9mFy");
+    }
+
+    /**
+     * Checks that a text is rejected as base64.
+     * @param base64 The text
+     */
+    private static void assertRejected(String base64) {
+        try {
+            Base64Codec.decode(base64);
+            fail("The text " + base64 + " has been accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
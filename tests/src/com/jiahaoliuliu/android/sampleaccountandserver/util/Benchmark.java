@@ -0,0 +1,69 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+import java.util.Locale;
+
+/**
+ * A simple timer of the operations measured by the benchmarks. Each operation is run a number
+ * of times to warm up, and then timed over the iterations. The results are printed, so they go
+ * to the log when the tests run in a device.
+ * The benchmarks are timing tests, not microbenchmarks: they show the order of magnitude of the
+ * differences, and only assert the ones which are large enough to be stable.
+ */
+public final class Benchmark {
+
+    /**
+     * An operation measured.
+     */
+    public interface Operation {
+
+        /**
+         * Runs the operation once.
+         * @throws Exception if the operation has failed
+         */
+        void run() throws Exception;
+    }
+
+    /**
+     * The constructor of the class. It is private because it only has static methods.
+     */
+    private Benchmark() {
+    }
+
+    /**
+     * Times an operation.
+     * @param name The name of the operation, which is printed with the result
+     * @param iterations The number of times the operation is run, after as many to warm up
+     * @param operation The operation
+     * @return The average time of the operation, in nanoseconds
+     * @throws Exception if the operation has failed
+     */
+    public static double nanosPerOperation(String name, int iterations, Operation operation) throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        double nanos = (double) (System.nanoTime() - start) / iterations;
+        report("{} {} ns/op", name, String.format(Locale.US, "%.0f", nanos));
+        return nanos;
+    }
+
+    /**
+     * Prints a result of a benchmark.
+     * @param format The result, with a "{}" where each argument goes
+     * @param arguments The arguments
+     */
+    public static void report(String format, Object... arguments) {
+        StringBuilder result = new StringBuilder("Benchmark: ");
+        int start = 0;
+        for (Object argument : arguments) {
+            int placeholder = format.indexOf("{}", start);
+            result.append(format, start, placeholder).append(argument);
+            start = placeholder + 2;
+        }
+        System.out.println(result.append(format, start, format.length()));
+    }
+}
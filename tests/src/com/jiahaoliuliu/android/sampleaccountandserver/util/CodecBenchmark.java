@@ -0,0 +1,171 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * The benchmark of the hex and base64 codecs, with payloads from 16 B to 1 MB. The table-driven
+ * codecs encode and decode into buffers given, and they are compared with the hex conversions
+ * which were used before. The one which concatenated strings is quadratic, so it is only timed
+ * with the small payloads.
+ */
+public class CodecBenchmark extends TestCase {
+
+    /**
+     * The sizes of the payloads, in bytes.
+     */
+    private static final int[] SIZES = {16, 256, 4 * 1024, 64 * 1024, 1024 * 1024};
+
+    /**
+     * The largest payload timed with the conversion which concatenated strings.
+     */
+    private static final int MAX_CONCATENATED_SIZE = 4 * 1024;
+
+    /**
+     * The number of bytes processed by each timing, so the small payloads are timed more times.
+     */
+    private static final int BYTES_PER_TIMING = 4 * 1024 * 1024;
+
+    /**
+     * Digits used in hex format by the conversions used before.
+     */
+    private static final String HEX = "0123456789ABCDEF";
+
+    public void testHexCodec() throws Exception {
+        for (int size : SIZES) {
+            final byte[] payload = payload(size);
+            final char[] hex = new char[2 * size];
+            final CharBuffer hexText = CharBuffer.wrap(hex);
+            final byte[] decoded = new byte[size];
+            int iterations = iterations(size);
+
+            Benchmark.nanosPerOperation("Hex encode " + size + " B", iterations, new Benchmark.Operation() {
+                @Override
+                public void run() {
+                    HexCodec.encode(payload, 0, payload.length, hex, 0, true);
+                }
+            });
+            Benchmark.nanosPerOperation("Hex decode " + size + " B", iterations, new Benchmark.Operation() {
+                @Override
+                public void run() {
+                    HexCodec.decode(hexText, 0, hex.length, decoded, 0);
+                }
+            });
+            assertTrue(Arrays.equals(payload, decoded));
+
+            final String hexString = new String(hex);
+            Benchmark.nanosPerOperation("Hex encode before " + size + " B", iterations, new Benchmark.Operation() {
+                @Override
+                public void run() {
+                    toHexWithStringBuffer(payload);
+                }
+            });
+            Benchmark.nanosPerOperation("Hex decode before " + size + " B", iterations, new Benchmark.Operation() {
+                @Override
+                public void run() {
+                    toByteWithSubstrings(hexString);
+                }
+            });
+            if (size <= MAX_CONCATENATED_SIZE) {
+                Benchmark.nanosPerOperation("Hex encode concatenating " + size + " B", Math.max(1, iterations / 64),
+                        new Benchmark.Operation() {
+                            @Override
+                            public void run() {
+                                toHexConcatenating(payload);
+                            }
+                        });
+            }
+        }
+    }
+
+    public void testBase64Codec() throws Exception {
+        for (int size : SIZES) {
+            final byte[] payload = payload(size);
+            final char[] base64 = new char[Base64Codec.encodedLength(size)];
+            final CharBuffer base64Text = CharBuffer.wrap(base64);
+            final byte[] decoded = new byte[size];
+            int iterations = iterations(size);
+
+            Benchmark.nanosPerOperation("Base64 encode " + size + " B", iterations, new Benchmark.Operation() {
+                @Override
+                public void run() {
+                    Base64Codec.encode(payload, 0, payload.length, base64, 0);
+                }
+            });
+            Benchmark.nanosPerOperation("Base64 decode " + size + " B", iterations, new Benchmark.Operation() {
+                @Override
+                public void run() {
+                    Base64Codec.decode(base64Text, 0, base64.length, decoded, 0);
+                }
+            });
+            assertTrue(Arrays.equals(payload, decoded));
+        }
+    }
+
+    /**
+     * Creates a payload of random bytes.
+     * @param size The size of the payload
+     * @return The payload
+     */
+    private static byte[] payload(int size) {
+        byte[] payload = new byte[size];
+        new Random(size).nextBytes(payload);
+        return payload;
+    }
+
+    /**
+     * Gets the number of times a payload is processed in each timing.
+     * @param size The size of the payload
+     * @return The number of times
+     */
+    private static int iterations(int size) {
+        return Math.max(4, BYTES_PER_TIMING / size);
+    }
+
+    /**
+     * Converts bytes to hex as SecurityUtils.toHexadecimal did before, concatenating strings.
+     * @param value The bytes
+     * @return The hex digits
+     */
+    private static String toHexConcatenating(byte[] value) {
+        String result = "";
+        for (byte aux : value) {
+            int b = aux & 0xff;
+            if (Integer.toHexString(b).length() == 1) {
+                result += "0";
+            }
+            result += Integer.toHexString(b);
+        }
+        return result;
+    }
+
+    /**
+     * Converts bytes to hex as SecurityUtils.toHex did before, with a StringBuffer.
+     * @param buf The bytes
+     * @return The hex digits
+     */
+    private static String toHexWithStringBuffer(byte[] buf) {
+        StringBuffer result = new StringBuffer(2 * buf.length);
+        for (int i = 0; i < buf.length; i++) {
+            result.append(HEX.charAt((buf[i] >> 4) & 0x0f)).append(HEX.charAt(buf[i] & 0x0f));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Converts hex to bytes as SecurityUtils.toByte did before, with a substring for each byte.
+     * @param hexString The hex digits
+     * @return The bytes
+     */
+    private static byte[] toByteWithSubstrings(String hexString) {
+        int len = hexString.length() / 2;
+        byte[] result = new byte[len];
+        for (int i = 0; i < len; i++) {
+            result[i] = Integer.valueOf(hexString.substring(2 * i, 2 * i + 2), 16).byteValue();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,59 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+import junit.framework.TestCase;
+
+/**
+ * The tests of the cache of the passwords shared by all the accounts.
+ */
+public class CredentialCacheTest extends TestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        CredentialCache.instance().clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        CredentialCache.instance().clear();
+        super.tearDown();
+    }
+
+    public void testEachAccountKeepsItsOwnPassword() {
+        CredentialCache cache = CredentialCache.instance();
+        for (int i = 0; i < CredentialCache.MAX_ENTRIES; i++) {
+            cache.put("user" + i, "password" + i, "encrypted" + i);
+        }
+        // Reading one account many times does not evict the others
+        for (int i = 0; i < 100; i++) {
+            assertEquals("password0", cache.get("USER0"));
+        }
+        for (int i = 0; i < CredentialCache.MAX_ENTRIES; i++) {
+            assertEquals("password" + i, cache.get("user" + i, "encrypted" + i));
+        }
+    }
+
+    public void testExpiredPasswordsAreRemovedWithoutAccess() throws Exception {
+        CredentialCache cache = new CredentialCache(100);
+        cache.put("first", "first password", "first encrypted");
+        assertEquals("first password", cache.get("first"));
+
+        Thread.sleep(500);
+        assertEquals(0, cache.size());
+        assertNull(cache.get("first"));
+    }
+
+    public void testChangesOfAnAccountDoNotAffectAnother() {
+        CredentialCache cache = CredentialCache.instance();
+        cache.put("first", "first password", "first encrypted");
+        cache.put("second", "second password", "second encrypted");
+
+        cache.put("first", "new password", "new encrypted");
+        assertNull(cache.get("first", "first encrypted"));
+        assertEquals("second password", cache.get("second", "second encrypted"));
+
+        cache.invalidate("first");
+        assertNull(cache.get("first"));
+        assertEquals("second password", cache.get("second"));
+    }
+}
@@ -0,0 +1,108 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * The tests of the hex codec, against the implementations which SecurityUtils used before.
+ */
+public class HexCodecTest extends TestCase {
+
+    public void testEncode() {
+        byte[] bytes = {0, 1, 0x0f, 0x10, 0x7f, (byte) 0x80, (byte) 0xab, (byte) 0xff};
+        assertEquals("00010F107F80ABFF", HexCodec.encodeToString(bytes, true));
+        assertEquals("00010f107f80abff", HexCodec.encodeToString(bytes, false));
+        assertEquals("", HexCodec.encodeToString(new byte[0], true));
+    }
+
+    public void testDecodeUpperAndLowerCase() {
+        byte[] bytes = {0, 1, 0x0f, 0x10, 0x7f, (byte) 0x80, (byte) 0xab, (byte) 0xff};
+        assertTrue(Arrays.equals(bytes, HexCodec.decode("00010F107F80ABFF")));
+        assertTrue(Arrays.equals(bytes, HexCodec.decode("00010f107f80abff")));
+        assertTrue(Arrays.equals(bytes, HexCodec.decode("00010F107f80aBfF")));
+    }
+
+    public void testOddDigitIsIgnored() {
+        assertTrue(Arrays.equals(new byte[] {(byte) 0xab}, HexCodec.decode("abc")));
+    }
+
+    public void testCharactersWhichAreNotDigitsAreRejected() {
+        try {
+            HexCodec.decode("0g");
+            fail("The text 0g has been accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testRoundTripAgainstTheOldImplementations() {
+        Random random = new Random(42);
+        for (int length = 0; length < 64; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+
+            String upperCase = HexCodec.encodeToString(bytes, true);
+            String lowerCase = HexCodec.encodeToString(bytes, false);
+            assertEquals(oldToHex(bytes), upperCase);
+            assertEquals(oldToHexadecimal(bytes), lowerCase);
+            assertEquals(upperCase, SecurityUtils.toHex(bytes));
+
+            assertTrue(Arrays.equals(oldToByte(upperCase), HexCodec.decode(upperCase)));
+            assertTrue(Arrays.equals(bytes, HexCodec.decode(lowerCase)));
+            assertTrue(Arrays.equals(bytes, SecurityUtils.toByte(upperCase)));
+        }
+    }
+
+    public void testBase64DecodeOfSecurityUtils() {
+        assertEquals("666f6f626172", SecurityUtils.base64Decode("Zm9vYmFy"));
+        assertEquals("666f6f62", SecurityUtils.base64Decode("Zm9vYg=="));
+        assertEquals("666f6f62", SecurityUtils.base64Decode("Zm9vYg"));
+    }
+
+    /**
+     * The implementation of SecurityUtils.toHex before HexCodec.
+     * @param buf The bytes
+     * @return The hex digits, in upper case
+     */
+    private static String oldToHex(byte[] buf) {
+        String hex = "0123456789ABCDEF";
+        StringBuffer result = new StringBuffer(2 * buf.length);
+        for (int i = 0; i < buf.length; i++) {
+            result.append(hex.charAt((buf[i] >> 4) & 0x0f)).append(hex.charAt(buf[i] & 0x0f));
+        }
+        return result.toString();
+    }
+
+    /**
+     * The implementation of SecurityUtils.toHexadecimal before HexCodec.
+     * @param value The bytes
+     * @return The hex digits, in lower case
+     */
+    private static String oldToHexadecimal(byte[] value) {
+        String result = "";
+        for (byte aux : value) {
+            int b = aux & 0xff;
+            if (Integer.toHexString(b).length() == 1) {
+                result += "0";
+            }
+            result += Integer.toHexString(b);
+        }
+        return result;
+    }
+
+    /**
+     * The implementation of SecurityUtils.toByte before HexCodec.
+     * @param hexString The hex digits
+     * @return The bytes
+     */
+    private static byte[] oldToByte(String hexString) {
+        int len = hexString.length() / 2;
+        byte[] result = new byte[len];
+        for (int i = 0; i < len; i++) {
+            result[i] = Integer.valueOf(hexString.substring(2 * i, 2 * i + 2), 16).byteValue();
+        }
+        return result;
+    }
+}
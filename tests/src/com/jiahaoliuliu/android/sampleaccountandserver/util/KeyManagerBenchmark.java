@@ -0,0 +1,104 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.TestCase;
+
+/**
+ * The benchmark of the encryption and decryption of the passwords, with the key derived once
+ * and the ciphers reused, and as it was done before: deriving the key and creating the cipher
+ * in each call.
+ */
+public class KeyManagerBenchmark extends TestCase {
+
+    /**
+     * The number of operations timed.
+     */
+    private static final int ITERATIONS = 2000;
+
+    /**
+     * A password, as the ones encrypted.
+     */
+    private static final String PASSWORD = "correct horse battery staple";
+
+    public void testEncryptAndDecrypt() throws Exception {
+        // Both ways must give the same result, or the passwords saved could not be read
+        final byte[] encrypted = KeyManager.instance().encrypt(PASSWORD.getBytes());
+        assertTrue(Arrays.equals(encrypted, encryptDerivingTheKey(PASSWORD.getBytes())));
+
+        double encryptBefore = Benchmark.nanosPerOperation("Encrypt deriving the key", ITERATIONS,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run() throws Exception {
+                        encryptDerivingTheKey(PASSWORD.getBytes());
+                    }
+                });
+        double encryptAfter = Benchmark.nanosPerOperation("Encrypt with the key manager", ITERATIONS,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run() throws Exception {
+                        KeyManager.instance().encrypt(PASSWORD.getBytes());
+                    }
+                });
+        double decryptBefore = Benchmark.nanosPerOperation("Decrypt deriving the key", ITERATIONS,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run() throws Exception {
+                        decryptDerivingTheKey(encrypted);
+                    }
+                });
+        double decryptAfter = Benchmark.nanosPerOperation("Decrypt with the key manager", ITERATIONS,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run() throws Exception {
+                        KeyManager.instance().decrypt(encrypted);
+                    }
+                });
+
+        assertTrue(encryptAfter < encryptBefore);
+        assertTrue(decryptAfter < decryptBefore);
+    }
+
+    /**
+     * Encrypts as it was done before the key manager.
+     * @param clear The data to encrypt
+     * @return The data encrypted
+     * @throws Exception if the data could not be encrypted
+     */
+    private static byte[] encryptDerivingTheKey(byte[] clear) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(getRawKey(SecurityUtils.SEED.getBytes()), "AES"));
+        return cipher.doFinal(clear);
+    }
+
+    /**
+     * Decrypts as it was done before the key manager.
+     * @param encrypted The data to decrypt
+     * @return The data decrypted
+     * @throws Exception if the data could not be decrypted
+     */
+    private static byte[] decryptDerivingTheKey(byte[] encrypted) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(getRawKey(SecurityUtils.SEED.getBytes()), "AES"));
+        return cipher.doFinal(encrypted);
+    }
+
+    /**
+     * Derives the key from the seed, as it was done in each call before the key manager.
+     * @param seed The seed
+     * @return The key
+     * @throws Exception if the key could not be derived
+     */
+    private static byte[] getRawKey(byte[] seed) throws Exception {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        SecureRandom secureRandom = SecureRandom.getInstance("SHA1PRNG");
+        secureRandom.setSeed(seed);
+        keyGenerator.init(128, secureRandom);
+        return keyGenerator.generateKey().getEncoded();
+    }
+}
@@ -0,0 +1,153 @@
+package com.jiahaoliuliu.android.sampleaccountandserver.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+/**
+ * The tests of the manager of the auth token, with a provider which logs in without server.
+ */
+public class TokenManagerTest extends AndroidTestCase {
+
+    /**
+     * The lifetime of the tokens which expire within the margin, in milliseconds.
+     */
+    private static final long SHORT_LIFETIME = 10 * 1000;
+
+    /**
+     * The lifetime of the regular tokens, in milliseconds.
+     */
+    private static final long LONG_LIFETIME = 60 * 60 * 1000;
+
+    /**
+     * The provider of the tokens.
+     */
+    private FakeAccountAuthTokenProvider provider;
+
+    /**
+     * The manager tested.
+     */
+    private TokenManager tokenManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        provider = new FakeAccountAuthTokenProvider(getContext());
+        tokenManager = new TokenManager(provider);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        tokenManager.stop();
+        super.tearDown();
+    }
+
+    public void testCachedTokenIsInvalidatedOnlyAfterTheNewOneIsObtained() throws Exception {
+        provider.saveToken("token0", SHORT_LIFETIME);
+        provider.lifetime = LONG_LIFETIME;
+
+        assertEquals("token1", tokenManager.getAuthToken());
+        assertEquals(Arrays.asList("get token0", "logIn token1", "invalidate token0"), provider.calls);
+    }
+
+    public void testTokenWithinTheMarginIsNotRenewedOnEveryRequest() throws Exception {
+        provider.saveToken("token0", SHORT_LIFETIME);
+        provider.lifetime = SHORT_LIFETIME;
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals("token1", tokenManager.getAuthToken());
+        }
+        assertEquals(1, provider.logIns);
+    }
+
+    public void testRejectedTokenIsNotUsedAgain() throws Exception {
+        provider.saveToken("token0", LONG_LIFETIME);
+        assertEquals("token0", tokenManager.getAuthToken());
+
+        tokenManager.invalidateAuthToken("token0");
+        provider.saveToken("token1", LONG_LIFETIME);
+        assertEquals("token1", tokenManager.getAuthToken());
+        assertEquals(0, provider.logIns);
+    }
+
+    /**
+     * The provider which keeps the token in memory, and whose logins give a new token each time.
+     */
+    private static class FakeAccountAuthTokenProvider extends AccountAuthTokenProvider {
+
+        /**
+         * The calls to the provider, with the tokens involved.
+         */
+        final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+        /**
+         * The lifetime of the tokens obtained by logging in, in milliseconds.
+         */
+        volatile long lifetime = LONG_LIFETIME;
+
+        /**
+         * The number of logins.
+         */
+        volatile int logIns = 0;
+
+        /**
+         * The token saved, or null if there is not any.
+         */
+        private volatile String savedToken = null;
+
+        /**
+         * The expiration time of the token saved.
+         */
+        private volatile long expirationTime = AccountUtils.UNKNOWN_EXPIRATION_TIME;
+
+        /**
+         * The main constructor.
+         * @param context The context used
+         */
+        public FakeAccountAuthTokenProvider(Context context) {
+            super(context, "user");
+        }
+
+        /**
+         * Saves a token, as the account manager does.
+         * @param token The token
+         * @param tokenLifetime The lifetime of the token, in milliseconds
+         */
+        void saveToken(String token, long tokenLifetime) {
+            savedToken = token;
+            expirationTime = System.currentTimeMillis() + tokenLifetime;
+        }
+
+        @Override
+        public String getAuthToken() {
+            calls.add("get " + savedToken);
+            return savedToken;
+        }
+
+        @Override
+        public synchronized String logIn() {
+            logIns++;
+            String token = "token" + logIns;
+            calls.add("logIn " + token);
+            saveToken(token, lifetime);
+            return token;
+        }
+
+        @Override
+        public long getExpirationTime() {
+            return expirationTime;
+        }
+
+        @Override
+        public void invalidateAuthToken(String authToken) {
+            calls.add("invalidate " + authToken);
+            if (authToken.equals(savedToken)) {
+                savedToken = null;
+            }
+        }
+    }
+}